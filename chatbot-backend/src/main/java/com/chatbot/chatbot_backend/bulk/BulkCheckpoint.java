@@ -0,0 +1,178 @@
+package com.chatbot.chatbot_backend.bulk;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Avanzamento persistente di un caricamento massivo, per riprenderlo dopo un crash.
+ *
+ * {@code <id>.json} descrive il caricamento (sorgente, shard); {@code <id>.log} riceve
+ * una riga per file concluso ({@code D} indicizzato, {@code S} duplicato saltato,
+ * {@code F} fallito) e {@code E} alla fine. Il log è in sola aggiunta: una riga per
+ * file invece di riscrivere un indice che cresce, e dopo un crash si perde al più la
+ * riga in corso di scrittura. Alla ripresa i file D e S vengono saltati, gli F ritentati.
+ */
+final class BulkCheckpoint {
+
+    private static final JsonMapper JSON = JsonMapper.builder().build();
+
+    enum Outcome { D, S, F }
+
+    record Meta(String id, String source, String displayName, boolean ownedSource,
+                String shard, Instant createdAt) {
+    }
+
+    /** Ultimo esito di ogni file, nell'ordine in cui sono stati conclusi. */
+    record State(Map<String, Outcome> outcomes, Map<String, String> errors, int chunks, boolean ended) {
+    }
+
+    private final Path metaFile;
+    private final Path logFile;
+    private final Meta meta;
+    private final ReentrantLock lock = new ReentrantLock();
+    private BufferedWriter writer;
+
+    private BulkCheckpoint(Path dir, Meta meta) {
+        this.metaFile = dir.resolve(meta.id() + ".json");
+        this.logFile = dir.resolve(meta.id() + ".log");
+        this.meta = meta;
+    }
+
+    static BulkCheckpoint create(Path dir, Meta meta) throws IOException {
+        Files.createDirectories(dir);
+        BulkCheckpoint checkpoint = new BulkCheckpoint(dir, meta);
+        try {
+            JSON.writeValue(checkpoint.metaFile.toFile(), meta);
+        } catch (JacksonException e) {
+            throw new IOException("Checkpoint " + checkpoint.metaFile + " non scrivibile", e);
+        }
+        return checkpoint;
+    }
+
+    static BulkCheckpoint open(Path metaFile) throws IOException {
+        try {
+            Meta meta = JSON.readValue(metaFile.toFile(), Meta.class);
+            return new BulkCheckpoint(metaFile.getParent(), meta);
+        } catch (JacksonException e) {
+            throw new IOException("Checkpoint " + metaFile + " non leggibile", e);
+        }
+    }
+
+    Meta meta() {
+        return meta;
+    }
+
+    State read() throws IOException {
+        Map<String, Outcome> outcomes = new LinkedHashMap<>();
+        Map<String, String> errors = new LinkedHashMap<>();
+        int chunks = 0;
+        boolean ended = false;
+        if (!Files.exists(logFile)) {
+            return new State(outcomes, errors, chunks, ended);
+        }
+        List<String> lines = Files.readAllLines(logFile, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String[] fields = line.split("\t", 3);
+            if (fields[0].equals("E")) {
+                ended = true;
+                continue;
+            }
+            if (fields.length < 3) {
+                continue;                           // riga troncata da un crash
+            }
+            Outcome outcome;
+            int stored = 0;
+            try {
+                outcome = Outcome.valueOf(fields[0]);
+                if (outcome == Outcome.D) {
+                    stored = Integer.parseInt(fields[2]);
+                }
+            } catch (IllegalArgumentException e) {
+                continue;                           // idem, troncata a metà del numero
+            }
+            String name = fields[1];
+            outcomes.remove(name);
+            outcomes.put(name, outcome);
+            if (outcome == Outcome.F) {
+                errors.put(name, fields[2]);
+            } else {
+                errors.remove(name);
+                chunks += stored;
+            }
+        }
+        return new State(outcomes, errors, chunks, ended);
+    }
+
+    /** {@code detail}: chunk salvati per D, messaggio per F. */
+    void record(Outcome outcome, String name, String detail) {
+        append(outcome.name() + "\t" + name + "\t" + detail.replace('\n', ' ').replace('\t', ' '));
+    }
+
+    /** Caricamento concluso: resta il log per la consultazione, l'archivio caricato no. */
+    void end() throws IOException {
+        append("E");
+        close();
+        if (meta.ownedSource()) {
+            Files.deleteIfExists(Path.of(meta.source()));
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(metaFile);
+        if (meta.ownedSource()) {
+            Files.deleteIfExists(Path.of(meta.source()));
+        }
+    }
+
+    Instant lastModified() throws IOException {
+        Path file = Files.exists(logFile) ? logFile : metaFile;
+        return Files.getLastModifiedTime(file).toInstant();
+    }
+
+    // flush per riga: dopo un crash del processo il log contiene tutti i file conclusi
+    private void append(String line) {
+        lock.lock();
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(line);
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Checkpoint " + logFile + " non scrivibile", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
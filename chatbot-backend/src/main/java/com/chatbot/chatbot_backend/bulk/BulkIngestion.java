@@ -0,0 +1,176 @@
+package com.chatbot.chatbot_backend.bulk;
+
+import com.chatbot.chatbot_backend.tenancy.Shard;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stato di un caricamento massivo, letto da GET /api/document/bulk/{id}.
+ *
+ * I contatori indexed/skipped/failed descrivono l'esito di ogni file su tutte le
+ * esecuzioni (una ripresa parte da quelli del checkpoint); file/s e chunk/s misurano
+ * solo l'esecuzione corrente.
+ */
+public class BulkIngestion {
+
+    public enum Stage { QUEUED, RUNNING, COMPLETED, INTERRUPTED, FAILED }
+
+    private static final int MAX_FAILURES_SHOWN = 50;
+
+    private final String id;
+    private final String sourceName;
+    private final Shard shard;
+
+    private final AtomicInteger filesIndexed = new AtomicInteger();
+    private final AtomicInteger filesSkipped = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+    private final AtomicInteger filesResumed = new AtomicInteger();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicInteger runFiles = new AtomicInteger();
+    private final AtomicLong runChunks = new AtomicLong();
+    private final Map<String, String> failures = new LinkedHashMap<>();
+
+    private volatile Stage stage = Stage.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    public BulkIngestion(String id, String sourceName, Shard shard) {
+        this.id = id;
+        this.sourceName = sourceName;
+        this.shard = shard;
+    }
+
+    /** Esiti di un'esecuzione precedente; i file falliti verranno ritentati. */
+    void restore(BulkCheckpoint.State state) {
+        for (BulkCheckpoint.Outcome outcome : state.outcomes().values()) {
+            switch (outcome) {
+                case D -> filesIndexed.incrementAndGet();
+                case S -> filesSkipped.incrementAndGet();
+                case F -> filesFailed.incrementAndGet();
+            }
+        }
+        chunks.set(state.chunks());
+        state.errors().forEach(this::addFailure);
+    }
+
+    void start(int resumed) {
+        filesResumed.set(resumed);
+        filesFailed.set(0);
+        synchronized (failures) {
+            failures.clear();
+        }
+        runFiles.set(0);
+        runChunks.set(0);
+        startedAt = Instant.now();
+        finishedAt = null;
+        error = null;
+        stage = Stage.RUNNING;
+    }
+
+    void indexed(int chunkCount) {
+        filesIndexed.incrementAndGet();
+        chunks.addAndGet(chunkCount);
+        runFiles.incrementAndGet();
+        runChunks.addAndGet(chunkCount);
+    }
+
+    void skipped() {
+        filesSkipped.incrementAndGet();
+        runFiles.incrementAndGet();
+    }
+
+    void failed(String name, String message) {
+        filesFailed.incrementAndGet();
+        runFiles.incrementAndGet();
+        addFailure(name, message);
+    }
+
+    void finish(Stage outcome, String message) {
+        finish(outcome, message, Instant.now());
+    }
+
+    /** Con l'istante dell'ultima scrittura del checkpoint per i caricamenti ripristinati al riavvio. */
+    void finish(Stage outcome, String message, Instant at) {
+        finishedAt = at;
+        error = message;
+        stage = outcome;
+    }
+
+    public boolean isRunning() {
+        return stage == Stage.QUEUED || stage == Stage.RUNNING;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public Shard getShard() {
+        return shard;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public double filesPerSecond() {
+        return perSecond(runFiles.get());
+    }
+
+    public double chunksPerSecond() {
+        return perSecond(runChunks.get());
+    }
+
+    public BulkIngestionResponse toResponse() {
+        Map<String, String> shown;
+        synchronized (failures) {
+            shown = new LinkedHashMap<>(failures);
+        }
+        return new BulkIngestionResponse(
+                id,
+                sourceName,
+                shard.tenant(),
+                shard.workspace(),
+                stage.name(),
+                filesIndexed.get(),
+                filesSkipped.get(),
+                filesFailed.get(),
+                filesResumed.get(),
+                chunks.get(),
+                Math.round(filesPerSecond() * 100) / 100.0,
+                Math.round(chunksPerSecond() * 100) / 100.0,
+                startedAt != null ? startedAt.toString() : null,
+                finishedAt != null ? finishedAt.toString() : null,
+                error,
+                shown
+        );
+    }
+
+    // I primi MAX_FAILURES_SHOWN: l'elenco completo è nel log del checkpoint
+    private void addFailure(String name, String message) {
+        synchronized (failures) {
+            if (failures.size() < MAX_FAILURES_SHOWN) {
+                failures.put(name, message);
+            }
+        }
+    }
+
+    private double perSecond(long count) {
+        Instant start = startedAt;
+        if (start == null) {
+            return 0.0;
+        }
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long millis = Math.max(Duration.between(start, end).toMillis(), 1);
+        return count * 1000.0 / millis;
+    }
+}
@@ -0,0 +1,68 @@
+package com.chatbot.chatbot_backend.bulk;
+
+import com.chatbot.chatbot_backend.tenancy.Shard;
+import com.chatbot.chatbot_backend.tenancy.TenantScope;
+import io.swagger.v3.oas.annotations.Operation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.net.URI;
+
+@RestController
+@RequestMapping("/api/document/bulk")
+@RequiredArgsConstructor
+public class BulkIngestionController {
+
+    private final BulkIngestionService bulkIngestionService;
+
+    @Operation(summary = "Caricamento massivo: archivio zip/tar/tar.gz (file) o directory del server (path)")
+    @PostMapping
+    public ResponseEntity<BulkIngestionResponse> submit(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "path", required = false) String path,
+            @RequestParam(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "workspace", required = false) String workspace) throws IOException {
+
+        boolean hasFile = file != null && !file.isEmpty();
+        boolean hasPath = path != null && !path.isBlank();
+        if (hasFile == hasPath) {
+            throw new IllegalArgumentException("Indicare un archivio (file) oppure un percorso del server (path)");
+        }
+        Shard shard = TenantScope.of(tenant, workspace).shard();
+
+        BulkIngestion bulk = hasFile
+                ? bulkIngestionService.submit(file, shard)
+                : bulkIngestionService.submit(path.strip(), shard);
+        return accepted(bulk);
+    }
+
+    @Operation(summary = "Avanzamento e riepilogo di un caricamento massivo")
+    @GetMapping("/{bulkId}")
+    public ResponseEntity<BulkIngestionResponse> getBulk(@PathVariable String bulkId) {
+        return bulkIngestionService.find(bulkId)
+                .map(bulk -> ResponseEntity.ok(bulk.toResponse()))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @Operation(summary = "Riprende un caricamento interrotto dal checkpoint")
+    @PostMapping("/{bulkId}/resume")
+    public ResponseEntity<BulkIngestionResponse> resume(@PathVariable String bulkId) throws IOException {
+        return bulkIngestionService.resume(bulkId)
+                .map(this::accepted)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    private ResponseEntity<BulkIngestionResponse> accepted(BulkIngestion bulk) {
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/document/bulk/" + bulk.getId()))
+                .body(bulk.toResponse());
+    }
+}
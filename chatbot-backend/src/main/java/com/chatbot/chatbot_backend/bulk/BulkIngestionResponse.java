@@ -0,0 +1,30 @@
+package com.chatbot.chatbot_backend.bulk;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+public class BulkIngestionResponse {
+
+    private String bulkId;
+    private String source;
+    private String tenant;
+    private String workspace;
+    private String stage;
+    private int filesIndexed;
+    // Contenuto già indicizzato (anche con un altro nome): non è un errore
+    private int filesSkipped;
+    private int filesFailed;
+    // Saltati alla ripresa perché già conclusi prima dell'interruzione
+    private int filesResumed;
+    private long chunks;
+    private double filesPerSecond;
+    private double chunksPerSecond;
+    private String startedAt;
+    private String finishedAt;
+    private String error;
+    private Map<String, String> failures;
+}
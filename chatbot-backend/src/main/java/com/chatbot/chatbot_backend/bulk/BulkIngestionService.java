@@ -0,0 +1,406 @@
+package com.chatbot.chatbot_backend.bulk;
+
+import com.chatbot.chatbot_backend.concurrency.Priority;
+import com.chatbot.chatbot_backend.document.DocumentResponse;
+import com.chatbot.chatbot_backend.document.DocumentService;
+import com.chatbot.chatbot_backend.document.IngestionJob;
+import com.chatbot.chatbot_backend.exceptions.DownstreamBusyException;
+import com.chatbot.chatbot_backend.exceptions.DownstreamUnavailableException;
+import com.chatbot.chatbot_backend.exceptions.DuplicateDocumentException;
+import com.chatbot.chatbot_backend.tenancy.Shard;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.Tika;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Caricamento massivo di un archivio (zip, tar, tar.gz) o di una directory del server.
+ *
+ * Un coordinatore per volta legge i file dalla sorgente e li passa a un pool di
+ * {@code app.ingestion.bulk.workers} worker, ognuno con la pipeline completa di
+ * DocumentService (Tika → chunking → embedding → upsert). Al più due file per worker
+ * sono estratti dall'archivio in attesa di elaborazione. I batch finali dei file che
+ * terminano insieme vengono uniti in un unico embedding (IngestionPipeline).
+ *
+ * Ogni file concluso finisce nel checkpoint ({@code app.ingestion.bulk.checkpoint-dir}):
+ * dopo un crash o un riavvio il caricamento risulta INTERRUPTED e
+ * POST /api/document/bulk/{id}/resume riparte saltando i file già conclusi. Anche
+ * senza checkpoint un file già indicizzato verrebbe saltato (hash del contenuto), ma
+ * solo dopo averlo estratto e letto. Con Tika o gli embedding non disponibili
+ * (circuito aperto, coda piena) il caricamento si interrompe invece di segnare come
+ * falliti tutti i file rimanenti. Conclusi, falliti o interrotti, i caricamenti restano
+ * consultabili e riprendibili per {@code app.ingestion.jobs.retention}, poi checkpoint e
+ * archivio caricato vengono eliminati.
+ *
+ * Le directory sono ammesse solo sotto {@code app.ingestion.bulk.allowed-root}
+ * (vuoto = caricamento da percorso disabilitato). Gli archivi si estraggono entro
+ * {@code app.ingestion.bulk.max-entry-bytes}, {@code max-total-bytes} e {@code max-entries}:
+ * oltre, il caricamento è FAILED.
+ */
+@Slf4j
+@Component
+public class BulkIngestionService {
+
+    private final DocumentService documentService;
+    private final Path checkpointDir;
+    private final Path allowedRoot;
+    private final Duration retention;
+    private final BulkSource.Limits limits;
+    private final ThreadPoolExecutor coordinator;
+    private final ThreadPoolExecutor workers;
+    private final Semaphore inFlight;
+    private final Tika tika = new Tika();
+
+    private final Map<String, BulkIngestion> bulks = new ConcurrentHashMap<>();
+    private final Map<String, BulkCheckpoint> checkpoints = new ConcurrentHashMap<>();
+
+    public BulkIngestionService(DocumentService documentService,
+                                @Value("${app.ingestion.bulk.workers:4}") int workers,
+                                @Value("${app.ingestion.bulk.queue-capacity:4}") int queueCapacity,
+                                @Value("${app.ingestion.bulk.checkpoint-dir:./data/bulk}") Path checkpointDir,
+                                @Value("${app.ingestion.bulk.allowed-root:}") String allowedRoot,
+                                @Value("${app.ingestion.bulk.max-entry-bytes:100MB}") DataSize maxEntryBytes,
+                                @Value("${app.ingestion.bulk.max-total-bytes:10GB}") DataSize maxTotalBytes,
+                                @Value("${app.ingestion.bulk.max-entries:100000}") int maxEntries,
+                                @Value("${app.ingestion.jobs.retention:1h}") Duration retention) {
+        this.documentService = documentService;
+        this.checkpointDir = checkpointDir;
+        this.allowedRoot = allowedRoot.isBlank() ? null : Path.of(allowedRoot);
+        this.limits = new BulkSource.Limits(maxEntryBytes.toBytes(), maxTotalBytes.toBytes(), maxEntries);
+        this.retention = retention;
+        this.coordinator = new ThreadPoolExecutor(
+                1, 1,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("bulk-")
+        );
+        // Coda non limitata: i task in attesa sono già limitati da inFlight
+        this.workers = new ThreadPoolExecutor(
+                workers, workers,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new CustomizableThreadFactory("bulk-worker-")
+        );
+        this.inFlight = new Semaphore(workers * 2);
+    }
+
+    // ─── PUBLIC API ──────────────────────────────────────────────────────────
+
+    /** Archivio caricato via multipart: copiato accanto al checkpoint, serve anche alla ripresa. */
+    public BulkIngestion submit(MultipartFile archive, Shard shard) throws IOException {
+        String name = archive.getOriginalFilename() != null ? archive.getOriginalFilename() : "archive";
+        String suffix = BulkSource.archiveSuffix(name);
+        if (suffix == null) {
+            throw new IllegalArgumentException("Archivio non supportato: '" + name + "' (.zip, .tar, .tar.gz)");
+        }
+        evictExpired();
+        String id = UUID.randomUUID().toString();
+        Files.createDirectories(checkpointDir);
+        Path copy = checkpointDir.resolve(id + suffix);
+        archive.transferTo(copy);
+        return start(id, name, copy, true, shard);
+    }
+
+    /** Directory o archivio già presente sul server, sotto allowed-root. */
+    public BulkIngestion submit(String path, Shard shard) throws IOException {
+        if (allowedRoot == null) {
+            throw new IllegalArgumentException(
+                    "Caricamento da percorso disabilitato: configurare app.ingestion.bulk.allowed-root");
+        }
+        Path source;
+        try {
+            source = allowedRoot.resolve(path).toRealPath();
+            if (!source.startsWith(allowedRoot.toRealPath())) {
+                throw new IllegalArgumentException("Percorso fuori da app.ingestion.bulk.allowed-root: " + path);
+            }
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException("Percorso inesistente: " + path);
+        }
+        if (!Files.isDirectory(source) && BulkSource.archiveSuffix(source.getFileName().toString()) == null) {
+            throw new IllegalArgumentException("Indicare una directory o un archivio .zip, .tar, .tar.gz: " + path);
+        }
+        evictExpired();
+        return start(UUID.randomUUID().toString(), path, source, false, shard);
+    }
+
+    public Optional<BulkIngestion> find(String id) {
+        return Optional.ofNullable(bulks.get(id));
+    }
+
+    /**
+     * Riprende un caricamento interrotto: i file già conclusi (indicizzati o duplicati)
+     * non vengono riletti, quelli falliti vengono ritentati.
+     *
+     * @return vuoto se il caricamento non esiste
+     */
+    public Optional<BulkIngestion> resume(String id) throws IOException {
+        evictExpired();
+        BulkIngestion previous = bulks.get(id);
+        BulkCheckpoint checkpoint = checkpoints.get(id);
+        if (previous == null || checkpoint == null) {
+            return Optional.empty();
+        }
+        if (previous.isRunning() || previous.getStage() == BulkIngestion.Stage.COMPLETED) {
+            throw new IllegalStateException("Il caricamento " + id + " è " + previous.getStage()
+                    + ": si riprendono solo quelli interrotti o falliti");
+        }
+        BulkCheckpoint.State state = checkpoint.read();
+        BulkIngestion bulk = new BulkIngestion(id, checkpoint.meta().displayName(), previous.getShard());
+        bulk.restore(state);
+        Set<String> done = new HashSet<>();
+        state.outcomes().forEach((name, outcome) -> {
+            if (outcome != BulkCheckpoint.Outcome.F) {
+                done.add(name);
+            }
+        });
+        enqueue(bulk, checkpoint, done, false);
+        log.info("Caricamento {} ripreso: {} file già conclusi", id, done.size());
+        return Optional.of(bulk);
+    }
+
+    /** Caricamenti del checkpoint più recenti di 'retention': conclusi, oppure da riprendere dopo un riavvio. */
+    @PostConstruct
+    void loadCheckpoints() {
+        if (!Files.isDirectory(checkpointDir)) {
+            return;
+        }
+        Instant limit = Instant.now().minus(retention);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(checkpointDir, "*.json")) {
+            for (Path file : files) {
+                try {
+                    BulkCheckpoint checkpoint = BulkCheckpoint.open(file);
+                    BulkCheckpoint.State state = checkpoint.read();
+                    Instant lastModified = checkpoint.lastModified();
+                    if (lastModified.isBefore(limit)) {
+                        checkpoint.delete();
+                        continue;
+                    }
+                    BulkCheckpoint.Meta meta = checkpoint.meta();
+                    BulkIngestion bulk = new BulkIngestion(meta.id(), meta.displayName(), Shard.fromKey(meta.shard()));
+                    bulk.restore(state);
+                    if (state.ended()) {
+                        bulk.finish(BulkIngestion.Stage.COMPLETED, null, lastModified);
+                    } else {
+                        bulk.finish(BulkIngestion.Stage.INTERRUPTED, "Interrotto da un riavvio del servizio",
+                                lastModified);
+                        log.warn("Caricamento {} ('{}') interrotto: {} file conclusi, riprendibile con "
+                                + "POST /api/document/bulk/{}/resume", meta.id(), meta.displayName(),
+                                state.outcomes().size(), meta.id());
+                    }
+                    bulks.put(meta.id(), bulk);
+                    checkpoints.put(meta.id(), checkpoint);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Checkpoint {} ignorato: {}", file, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Checkpoint in {} non leggibili: {}", checkpointDir, e.getMessage());
+        }
+    }
+
+    // I caricamenti in corso restano senza riga finale nel checkpoint: riprendibili al riavvio
+    @PreDestroy
+    public void shutdown() {
+        coordinator.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    // ─── Esecuzione ──────────────────────────────────────────────────────────
+
+    private BulkIngestion start(String id, String displayName, Path source, boolean ownedSource, Shard shard)
+            throws IOException {
+        BulkCheckpoint checkpoint = BulkCheckpoint.create(checkpointDir, new BulkCheckpoint.Meta(
+                id, source.toAbsolutePath().toString(), displayName, ownedSource, shard.key(), Instant.now()));
+        BulkIngestion bulk = new BulkIngestion(id, displayName, shard);
+        enqueue(bulk, checkpoint, Set.of(), true);
+        log.info("Caricamento {} accodato: '{}' in {}", id, displayName, shard.key());
+        return bulk;
+    }
+
+    private void enqueue(BulkIngestion bulk, BulkCheckpoint checkpoint, Set<String> done, boolean created)
+            throws IOException {
+        BulkIngestion previous = bulks.put(bulk.getId(), bulk);
+        checkpoints.put(bulk.getId(), checkpoint);
+        try {
+            coordinator.execute(() -> run(bulk, checkpoint, done));
+        } catch (RejectedExecutionException e) {
+            if (created) {
+                bulks.remove(bulk.getId());
+                checkpoints.remove(bulk.getId());
+                checkpoint.delete();
+            } else {
+                bulks.put(bulk.getId(), previous);
+            }
+            throw new IllegalStateException("Troppi caricamenti in coda, riprovare più tardi");
+        }
+    }
+
+    private void run(BulkIngestion bulk, BulkCheckpoint checkpoint, Set<String> done) {
+        bulk.start(done.size());
+        Phaser pending = new Phaser(1);
+        AtomicReference<String> stop = new AtomicReference<>();
+        String failure = null;
+        try {
+            BulkSource.forEach(Path.of(checkpoint.meta().source()), done, limits, entry -> {
+                if (stop.get() != null) {
+                    discard(entry);
+                    return false;
+                }
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    discard(entry);
+                    throw new InterruptedIOException("Caricamento interrotto");
+                }
+                pending.register();
+                try {
+                    workers.execute(() -> {
+                        try {
+                            process(bulk, checkpoint, entry, stop);
+                        } finally {
+                            discard(entry);
+                            inFlight.release();
+                            pending.arriveAndDeregister();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    pending.arriveAndDeregister();
+                    inFlight.release();
+                    discard(entry);
+                    throw new InterruptedIOException("Caricamento interrotto");
+                }
+                return true;
+            });
+        } catch (IOException | RuntimeException e) {
+            failure = e.getMessage();
+        }
+
+        try {
+            pending.awaitAdvanceInterruptibly(pending.arrive());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop.compareAndSet(null, "Interrotto dall'arresto del servizio");
+        }
+
+        if (Thread.currentThread().isInterrupted() || stop.get() != null) {
+            checkpoint.close();
+            bulk.finish(BulkIngestion.Stage.INTERRUPTED, stop.get() != null ? stop.get() : failure);
+            log.warn("Caricamento {} interrotto: {}", bulk.getId(), bulk.toResponse().getError());
+            return;
+        }
+        if (failure != null) {
+            checkpoint.close();
+            bulk.finish(BulkIngestion.Stage.FAILED, failure);
+            log.error("Caricamento {} fallito: {}", bulk.getId(), failure);
+            return;
+        }
+        try {
+            checkpoint.end();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Chiusura del checkpoint {} non riuscita: {}", bulk.getId(), e.getMessage());
+        }
+        bulk.finish(BulkIngestion.Stage.COMPLETED, null);
+        BulkIngestionResponse summary = bulk.toResponse();
+        log.info("Caricamento {} concluso: {} file indicizzati, {} duplicati, {} falliti, {} chunk - {} file/s, {} chunk/s",
+                bulk.getId(), summary.getFilesIndexed(), summary.getFilesSkipped(), summary.getFilesFailed(),
+                summary.getChunks(), summary.getFilesPerSecond(), summary.getChunksPerSecond());
+    }
+
+    private void process(BulkIngestion bulk, BulkCheckpoint checkpoint, BulkSource.Entry entry,
+                         AtomicReference<String> stop) {
+        if (stop.get() != null) {
+            return;                                 // resta fuori dal checkpoint: si rifà alla ripresa
+        }
+        String contentType = tika.detect(entry.name());
+        IngestionJob job = new IngestionJob(UUID.randomUUID().toString(), entry.name(), contentType);
+        // Tika ed embedding: le richieste degli utenti passano prima
+        try (Priority.Scope ignored = Priority.scoped(Priority.BACKGROUND)) {
+            DocumentResponse response = documentService.processFile(
+                    entry.name(), contentType, new FileSystemResource(entry.file()), job, bulk.getShard());
+            bulk.indexed(response.getChunkCount());
+            checkpoint.record(BulkCheckpoint.Outcome.D, entry.name(), String.valueOf(response.getChunkCount()));
+        } catch (DuplicateDocumentException e) {
+            bulk.skipped();
+            checkpoint.record(BulkCheckpoint.Outcome.S, entry.name(), "");
+        } catch (Exception e) {
+            if (isOutage(e)) {
+                stop.compareAndSet(null, e.getMessage());
+                return;
+            }
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            bulk.failed(entry.name(), message);
+            checkpoint.record(BulkCheckpoint.Outcome.F, entry.name(), message);
+            log.debug("Caricamento {}: '{}' fallito: {}", bulk.getId(), entry.name(), message);
+        }
+    }
+
+    // Servizio a valle non disponibile: inutile proseguire, i file restanti fallirebbero tutti
+    private static boolean isOutage(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof DownstreamUnavailableException || t instanceof DownstreamBusyException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void discard(BulkSource.Entry entry) {
+        if (entry.temporary()) {
+            try {
+                Files.deleteIfExists(entry.file());
+            } catch (IOException e) {
+                log.warn("Impossibile eliminare il file temporaneo {}", entry.file());
+            }
+        }
+    }
+
+    // I caricamenti terminati (anche FAILED e INTERRUPTED) restano per 'retention', poi escono
+    // anche dal disco: log, meta e copia dell'archivio caricato
+    private void evictExpired() {
+        Instant limit = Instant.now().minus(retention);
+        bulks.values().removeIf(bulk -> {
+            if (bulk.isRunning() || bulk.getFinishedAt().isAfter(limit)) {
+                return false;
+            }
+            BulkCheckpoint checkpoint = checkpoints.remove(bulk.getId());
+            if (checkpoint != null) {
+                try {
+                    checkpoint.delete();
+                } catch (IOException e) {
+                    log.warn("Checkpoint {} non eliminato: {}", bulk.getId(), e.getMessage());
+                }
+            }
+            return true;
+        });
+    }
+}
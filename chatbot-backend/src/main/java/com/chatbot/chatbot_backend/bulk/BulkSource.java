@@ -0,0 +1,230 @@
+package com.chatbot.chatbot_backend.bulk;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * File di un caricamento massivo: una directory del server (ricorsiva, in ordine di
+ * percorso) oppure un archivio zip, tar o tar.gz.
+ *
+ * Il nome di ogni file è il percorso relativo con separatori '/', ed è la sorgente
+ * dei chunk. I file di un archivio vengono copiati uno alla volta su un file
+ * temporaneo, che passa al chiamante; quelli di una directory vengono letti dove
+ * sono. I nomi in {@code skip} (già elaborati prima di un'interruzione) non vengono
+ * nemmeno estratti. File nascosti e metadati di macOS vengono ignorati.
+ *
+ * Gli archivi sono letti con commons-compress (nomi lunghi GNU e path PAX compresi)
+ * e l'estrazione rispetta i {@link Limits}: i byte si contano durante la copia, non
+ * dalle dimensioni dichiarate negli header, così un archivio costruito ad arte non
+ * riempie il disco.
+ */
+final class BulkSource {
+
+    record Entry(String name, Path file, boolean temporary) {
+    }
+
+    /**
+     * Limiti di estrazione di un archivio: byte per file, byte estratti in tutto e numero
+     * di file (anche quelli saltati). Le directory del server non hanno limiti.
+     */
+    record Limits(long maxEntryBytes, long maxTotalBytes, int maxEntries) {
+
+        static final Limits NONE = new Limits(Long.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        /** @return false per interrompere la lettura */
+        boolean accept(Entry entry) throws IOException;
+    }
+
+    private BulkSource() {
+    }
+
+    /** Estensione dell'archivio ({@code .zip}, {@code .tar}, {@code .tar.gz}, {@code .tgz}), null se non lo è. */
+    static String archiveSuffix(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        for (String suffix : new String[]{".zip", ".tar", ".tar.gz", ".tgz"}) {
+            if (name.endsWith(suffix)) {
+                return suffix;
+            }
+        }
+        return null;
+    }
+
+    /** @throws IllegalArgumentException formato non supportato o archivio oltre i limiti */
+    static void forEach(Path path, Set<String> skip, Limits limits, EntryConsumer consumer) throws IOException {
+        if (Files.isDirectory(path)) {
+            forEachFile(path, skip, consumer);
+            return;
+        }
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".zip")) {
+            forEachZipEntry(path, skip, new Extractor(limits), consumer);
+        } else if (name.endsWith(".tar")) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+                forEachTarEntry(in, skip, new Extractor(limits), consumer);
+            }
+        } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                forEachTarEntry(in, skip, new Extractor(limits), consumer);
+            }
+        } else {
+            throw new IllegalArgumentException(
+                    "Formato non supportato: '" + path.getFileName() + "' (directory, .zip, .tar, .tar.gz)");
+        }
+    }
+
+    // ── Directory ──
+
+    private static void forEachFile(Path root, Set<String> skip, EntryConsumer consumer) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).sorted().toList();
+        }
+        for (Path file : files) {
+            String name = root.relativize(file).toString().replace('\\', '/');
+            if (isIgnored(name) || skip.contains(name)) {
+                continue;
+            }
+            if (!consumer.accept(new Entry(name, file, false))) {
+                return;
+            }
+        }
+    }
+
+    // ── Zip ──
+
+    // ZipFile e non uno stream: legge la directory centrale, affidabile anche con data descriptor
+    private static void forEachZipEntry(Path archive, Set<String> skip, Extractor extractor, EntryConsumer consumer)
+            throws IOException {
+        try (ZipFile zip = ZipFile.builder().setPath(archive).get()) {
+            Enumeration<ZipArchiveEntry> entries = zip.getEntries();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                if (entry.isDirectory() || entry.isUnixSymlink()) {
+                    continue;
+                }
+                extractor.count();
+                String name = normalize(entry.getName());
+                if (isIgnored(name) || skip.contains(name)) {
+                    continue;
+                }
+                Path temp;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    temp = extractor.extract(name, in);
+                }
+                if (!consumer.accept(new Entry(name, temp, true))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // ── Tar ──
+
+    private static void forEachTarEntry(InputStream in, Set<String> skip, Extractor extractor, EntryConsumer consumer)
+            throws IOException {
+        TarArchiveInputStream tar = new TarArchiveInputStream(in);
+        TarArchiveEntry entry;
+        while ((entry = tar.getNextEntry()) != null) {
+            // Solo file regolari: directory, link e dispositivi non hanno contenuto da indicizzare
+            if (!entry.isFile() || entry.isSymbolicLink() || entry.isLink()
+                    || entry.isCharacterDevice() || entry.isBlockDevice() || entry.isFIFO()) {
+                continue;
+            }
+            extractor.count();
+            String name = normalize(entry.getName());
+            if (isIgnored(name) || skip.contains(name)) {
+                continue;                           // il contenuto lo salta getNextEntry
+            }
+            if (!consumer.accept(new Entry(name, extractor.extract(name, tar), true))) {
+                return;
+            }
+        }
+    }
+
+    // ── Estrazione ──
+
+    // Un'istanza per lettura: i totali valgono per il singolo passaggio sull'archivio
+    private static final class Extractor {
+
+        private final Limits limits;
+        private long totalBytes;
+        private int entries;
+
+        private Extractor(Limits limits) {
+            this.limits = limits;
+        }
+
+        void count() {
+            if (++entries > limits.maxEntries()) {
+                throw new IllegalArgumentException(
+                        "Archivio con più di " + limits.maxEntries() + " file (app.ingestion.bulk.max-entries)");
+            }
+        }
+
+        Path extract(String name, InputStream in) throws IOException {
+            Path temp = Files.createTempFile("bulk-", ".entry");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                byte[] buffer = new byte[8192];
+                long written = 0;
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    written += read;
+                    totalBytes += read;
+                    if (written > limits.maxEntryBytes()) {
+                        throw new IllegalArgumentException("'" + name + "' supera " + limits.maxEntryBytes()
+                                + " byte una volta estratto (app.ingestion.bulk.max-entry-bytes)");
+                    }
+                    if (totalBytes > limits.maxTotalBytes()) {
+                        throw new IllegalArgumentException("Archivio oltre " + limits.maxTotalBytes()
+                                + " byte estratti (app.ingestion.bulk.max-total-bytes)");
+                    }
+                    out.write(buffer, 0, read);
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            return temp;
+        }
+    }
+
+    // ── Nomi ──
+
+    private static String normalize(String name) {
+        String normalized = name.replace('\\', '/');
+        while (normalized.startsWith("./") || normalized.startsWith("/")) {
+            normalized = normalized.substring(normalized.startsWith("/") ? 1 : 2);
+        }
+        return normalized;
+    }
+
+    private static boolean isIgnored(String name) {
+        if (name.isEmpty()) {
+            return true;
+        }
+        for (String segment : name.split("/")) {
+            if (segment.startsWith(".") || segment.equals("__MACOSX")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
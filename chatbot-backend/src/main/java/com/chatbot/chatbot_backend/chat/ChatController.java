@@ -1,12 +1,16 @@
 package com.chatbot.chatbot_backend.chat;
 
+import com.chatbot.chatbot_backend.tenancy.TenantScope;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 
@@ -16,46 +20,96 @@ import reactor.core.publisher.Flux;
 public class ChatController {
 
     private final ChatService chatService;
+    private final ChatSessionStore sessionStore;
 
     // Endpoint 1:  Chat semplice
 
     @PostMapping("/message")
     public ResponseEntity<ChatResponse> sendMessage(@Valid @RequestBody ChatRequest request) {
-        String response;
+        ChatService.Reply reply;
+
+        if (hasSession(request)) {
+            reply = chatService.sendSessionMessage(request.getSessionId(), request.getMessage(),
+                    null, request.getContext(), scope(request));
+            return ResponseEntity.ok(new ChatResponse(reply.text(), true, reply.promptTokensSaved(), request.getSessionId()));
+        }
 
         if (request.getContext() != null && !request.getContext().isBlank()) {
-            response = chatService.sendMessageWithContext(request.getMessage(), request.getContext());
-            return ResponseEntity.ok(new ChatResponse(response, true));
+            reply = chatService.sendMessageWithContext(request.getMessage(), request.getContext());
+            return ResponseEntity.ok(new ChatResponse(reply.text(), true, reply.promptTokensSaved(), null));
         }
 
-        response = chatService.sendMessage(request.getMessage());
-        return ResponseEntity.ok(new ChatResponse(response, false));
+        reply = chatService.sendMessage(request.getMessage(), scope(request));
+        return ResponseEntity.ok(new ChatResponse(reply.text(), false, reply.promptTokensSaved(), null));
     }
 
     @PostMapping("/rag")
     public ResponseEntity<ChatResponse> sendMessageWithRag(@Valid @RequestBody ChatRequest request) {
-        String response = chatService.sendMessageWithRag(
+        if (hasSession(request)) {
+            ChatService.Reply reply = chatService.sendSessionMessage(request.getSessionId(), request.getMessage(),
+                    request.getSourceFile(), null, scope(request));
+            return ResponseEntity.ok(new ChatResponse(reply.text(), true, reply.promptTokensSaved(), request.getSessionId()));
+        }
+        ChatService.Reply reply = chatService.sendMessageWithRag(
                 request.getMessage(),
-                request.getSourceFile()
+                request.getSourceFile(),
+                scope(request)
         );
-        return ResponseEntity.ok(new ChatResponse(response, true));
+        return ResponseEntity.ok(new ChatResponse(reply.text(), true, reply.promptTokensSaved(), null));
     }
 
     // Endpoint streaming
 
     @PostMapping(value = "/message/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<String> streamMessage(@Valid @RequestBody ChatRequest request) {
+        if (hasSession(request)) {
+            return chatService.streamSessionMessage(request.getSessionId(), request.getMessage(),
+                    null, request.getContext(), scope(request));
+        }
         if (request.getContext() != null && !request.getContext().isBlank()) {
             return chatService.streamMessageWithContext(request.getMessage(), request.getContext());
         }
-        return chatService.streamMessage(request.getMessage());
+        return chatService.streamMessage(request.getMessage(), scope(request));
     }
 
     @PostMapping(value = "/rag/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<String> streamMessageWithRag(@Valid @RequestBody ChatRequest request) {
+        if (hasSession(request)) {
+            return chatService.streamSessionMessage(request.getSessionId(), request.getMessage(),
+                    request.getSourceFile(), null, scope(request));
+        }
         return chatService.streamMessageWithRag(
                 request.getMessage(),
-                request.getSourceFile()
+                request.getSourceFile(),
+                scope(request)
         );
     }
-}
\ No newline at end of file
+
+    // Sessioni multi-turno
+
+    // La sessione resta legata a tenant/workspace: le richieste successive devono indicare gli stessi
+    @PostMapping("/sessions")
+    public ResponseEntity<ChatSessionResponse> createSession(
+            @RequestParam(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "workspace", required = false) String workspace) {
+        return ResponseEntity.ok(new ChatSessionResponse(sessionStore.create(TenantScope.of(tenant, workspace))));
+    }
+
+    @DeleteMapping("/sessions/{sessionId}")
+    public ResponseEntity<Void> deleteSession(
+            @PathVariable String sessionId,
+            @RequestParam(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "workspace", required = false) String workspace) {
+        return sessionStore.delete(sessionId, TenantScope.of(tenant, workspace))
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    private static TenantScope scope(ChatRequest request) {
+        return TenantScope.of(request.getTenant(), request.getWorkspace());
+    }
+
+    private static boolean hasSession(ChatRequest request) {
+        return request.getSessionId() != null && !request.getSessionId().isBlank();
+    }
+}
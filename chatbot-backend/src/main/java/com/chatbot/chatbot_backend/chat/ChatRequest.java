@@ -14,4 +14,12 @@ public class ChatRequest {
     private String context;
 
     private String sourceFile;
+
+    // opzionale: conversazione multi-turno lato server (POST /api/chat/sessions, stessi tenant/workspace)
+    private String sessionId;
+
+    // opzionali: shard dei documenti (default/default); workspace "*" = tutti i workspace del tenant
+    private String tenant;
+
+    private String workspace;
 }
\ No newline at end of file
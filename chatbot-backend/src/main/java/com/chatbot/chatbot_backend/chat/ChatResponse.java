@@ -11,4 +11,9 @@ public class ChatResponse {
 
     private String response;
     private boolean hasContext;
+
+    // token di prompt (stimati) risparmiati da fusione, deduplica e budget del contesto
+    private int promptTokensSaved;
+
+    private String sessionId;
 }
\ No newline at end of file
@@ -1,16 +1,31 @@
 package com.chatbot.chatbot_backend.chat;
 
+import com.chatbot.chatbot_backend.concurrency.Downstream;
+import com.chatbot.chatbot_backend.concurrency.DownstreamLimiter;
+import com.chatbot.chatbot_backend.concurrency.Priority;
+import com.chatbot.chatbot_backend.concurrency.SingleFlight;
+import com.chatbot.chatbot_backend.observability.PipelineObservations;
+import com.chatbot.chatbot_backend.retrieval.HybridRetriever;
+import com.chatbot.chatbot_backend.tenancy.TenantScope;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.openai.OpenAiChatOptions;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -23,17 +38,27 @@ public class ChatService {
     @Value("${app.chat.max-tokens-simple:80}")
     private int maxTokensSimple;
 
-    @Value("${app.rag.top-k:3}")
-    private int topK;
+    private final ChatClient chatClient;
+    private final HybridRetriever hybridRetriever;
+    private final ContextAssembler contextAssembler;
+    private final ChatSessionStore sessionStore;
+    private final PipelineObservations observations;
+    private final SemanticResponseCache responseCache;
+    private final DownstreamLimiter downstreamLimiter;
+    private final Scheduler streamScheduler;
+    private final SingleFlight<String> inFlightCalls = new SingleFlight<>();
+    private final SingleFlight<String> inFlightStreams = new SingleFlight<>();
 
-    @Value("${app.rag.similarity-threshold:0.4}")
-    private double similarityThreshold;
+    @Value("${app.chat.stream.retrieval-timeout:5s}")
+    private Duration streamRetrievalTimeout;
 
-    private final ChatClient chatClient;
-    private final VectorStore vectorStore;
+    @Value("${app.chat.stream.idle-timeout:30s}")
+    private Duration streamIdleTimeout;
 
     // "RISPOSTA DETTAGLIATA:" guida Phi-3.5 a non troncare la risposta
-    // Il prefisso fisso favorisce il KV Cache di LM Studio
+    // Il prefisso fisso favorisce il KV Cache di LM Studio solo per le istruzioni: il
+    // contesto cambia a ogni domanda. Nelle sessioni (SESSION_SYSTEM_TEMPLATE) anche il
+    // contesto resta nel prefisso e ogni turno ricalcola solo i messaggi nuovi
     private static final String RAG_PROMPT_TEMPLATE =
             """
         Sei un assistente preciso. Rispondi SOLO usando le informazioni nel CONTESTO.
@@ -46,134 +71,333 @@ public class ChatService {
         DOMANDA: %s
         RISPOSTA:""";
 
-    public ChatService(ChatClient.Builder builder, VectorStore vectorStore) {
+    private static final String SESSION_SYSTEM_TEMPLATE =
+            """
+        Sei un assistente preciso. Rispondi SOLO usando le informazioni nel CONTESTO e nella conversazione.
+        Se l'informazione non è presente, rispondi: "Non ho informazioni su questo."
+        Non aggiungere spiegazioni sul tuo funzionamento. Rispondi in italiano.
+
+        CONTESTO:
+        %s""";
+
+    // Contesto recuperato per una domanda successiva: va nel turno utente, il system non cambia
+    private static final String SESSION_TURN_TEMPLATE =
+            """
+        CONTESTO AGGIUNTIVO:
+        %s
+
+        DOMANDA: %s""";
+
+    public ChatService(ChatClient.Builder builder, HybridRetriever hybridRetriever, ContextAssembler contextAssembler,
+                       ChatSessionStore sessionStore, PipelineObservations observations,
+                       SemanticResponseCache responseCache, DownstreamLimiter downstreamLimiter,
+                       @Value("${app.chat.stream.scheduler-threads:32}") int streamThreads,
+                       @Value("${app.chat.stream.scheduler-queue:256}") int streamQueue,
+                       @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
         // Nessun defaultSystem() → zero overhead KV Cache
         this.chatClient = builder.build();
-        this.vectorStore = vectorStore;
+        this.hybridRetriever = hybridRetriever;
+        this.contextAssembler = contextAssembler;
+        this.sessionStore = sessionStore;
+        this.observations = observations;
+        this.responseCache = responseCache;
+        this.downstreamLimiter = downstreamLimiter;
+        // Coda limitata: oltre streamThreads + streamQueue richieste in attesa la sottoscrizione fallisce
+        this.streamScheduler = virtualThreads
+                ? Schedulers.newBoundedElastic(streamThreads, streamQueue,
+                        Thread.ofVirtual().name("rag-stream-", 0).factory(), 60)
+                : Schedulers.newBoundedElastic(streamThreads, streamQueue, "rag-stream", 60, true);
+    }
+
+    /**
+     * Risposta del modello con i token di prompt risparmiati dall'assemblaggio del
+     * contesto (0 senza RAG).
+     */
+    public record Reply(String text, int promptTokensSaved) {
     }
 
-    public String sendMessage(String message) {
-        List<Document> docs = searchRelevantDocs(message, null);
+    public Reply sendMessage(String message, TenantScope scope) {
+        List<Document> docs = searchRelevantDocs(message, null, scope);
         if (!docs.isEmpty()) {
-            log.info("Auto-RAG sendMessage: '{}' → {} docs", message, docs.size());
-            return sendMessageWithContext(message, buildContext(docs));
+            ContextAssembler.Assembly context = assembleContext(docs);
+            log.info("Auto-RAG sendMessage: '{}' → {} docs, {} token di contesto", message, docs.size(), context.tokens());
+            return new Reply(responseCache.get(SemanticResponseCache.Scope.ofDocuments(null, docs), message,
+                    () -> callWithContext(message, context.text())), context.tokensSaved());
         }
-        return chatClient.prompt()
-                .user(message)
-                .options(OpenAiChatOptions.builder()
-                        .maxTokens(maxTokensSimple)
-                        .temperature(0.3)
-                        .build())
-                .call()
-                .content();
-    }
-
-    public String sendMessageWithRag(String message, String sourceFile) {
-        List<Document> docs = searchRelevantDocs(message, sourceFile);
+        return new Reply(responseCache.get(SemanticResponseCache.Scope.plain(), message,
+                () -> callPlain(message)), 0);
+    }
+
+    public Reply sendMessageWithRag(String message, String sourceFile, TenantScope scope) {
+        List<Document> docs = searchRelevantDocs(message, sourceFile, scope);
         if (docs.isEmpty()) {
             log.warn("RAG: nessun doc per '{}', fallback plain", message);
-            return chatClient.prompt()
-                    .user(message)
-                    .options(OpenAiChatOptions.builder()
-                            .maxTokens(maxTokensSimple)
-                            .temperature(0.3)
-                            .build())
-                    .call()
-                    .content();
+            return new Reply(responseCache.get(SemanticResponseCache.Scope.plain(), message,
+                    () -> callPlain(message)), 0);
         }
-        log.info("RAG '{}' (filter: {}) → {} docs", message, sourceFile, docs.size());
-        return sendMessageWithContext(message, buildContext(docs));
+        ContextAssembler.Assembly context = assembleContext(docs);
+        log.info("RAG '{}' (filter: {}) → {} docs, {} token di contesto", message, sourceFile, docs.size(), context.tokens());
+        return new Reply(responseCache.get(SemanticResponseCache.Scope.ofDocuments(sourceFile, docs), message,
+                () -> callWithContext(message, context.text())), context.tokensSaved());
     }
 
-    public String sendMessageWithContext(String message, String context) {
-        return chatClient.prompt()
-                .user(RAG_PROMPT_TEMPLATE.formatted(context, message))
-                .options(OpenAiChatOptions.builder()
-                        .maxTokens(maxTokens)
-                        .temperature(0.1)
-                        .build())
-                .call()
-                .content();
+    public Reply sendMessageWithContext(String message, String context) {
+        return new Reply(responseCache.get(SemanticResponseCache.Scope.ofContext(context), message,
+                () -> callWithContext(message, context)), 0);
     }
 
     // ── Streaming ────────────────────────────────────────────────────────────
+    // Nessun lavoro bloccante sul thread della richiesta: retrieval, lookup in cache e
+    // attesa del permesso LLM avvengono alla sottoscrizione, sullo scheduler limitato
+    // rag-stream; i token partono appena il contesto è pronto. Il controllo di ammissione
+    // è invece sincrono: una volta aperto lo stream SSE non si può più rispondere 429.
 
-    public Flux<String> streamMessage(String message) {
-        List<Document> docs = searchRelevantDocs(message, null);
-        if (!docs.isEmpty()) {
-            log.info("Auto-RAG stream: '{}' → {} docs", message, docs.size());
-            return streamMessageWithContext(message, buildContext(docs));
-        }
-        return chatClient.prompt()
-                .user(message)
-                .options(OpenAiChatOptions.builder()
-                        .maxTokens(maxTokensSimple)
-                        .temperature(0.3)
-                        .build())
-                .stream()
-                .content();
-    }
-
-    public Flux<String> streamMessageWithRag(String message, String sourceFile) {
-        List<Document> docs = searchRelevantDocs(message, sourceFile);
-        if (docs.isEmpty()) {
-            log.warn("RAG stream: nessun doc per '{}', fallback plain", message);
-            return chatClient.prompt()
-                    .user(message)
-                    .options(OpenAiChatOptions.builder()
-                            .maxTokens(maxTokensSimple)
-                            .temperature(0.3)
-                            .build())
-                    .stream()
-                    .content();
-        }
-        log.info("RAG stream '{}' → {} docs", message, docs.size());
-        return streamMessageWithContext(message, buildContext(docs));
+    public Flux<String> streamMessage(String message, TenantScope scope) {
+        downstreamLimiter.checkAdmission(Downstream.LLM, Priority.INTERACTIVE);
+        return retrieveAsync(message, null, scope)
+                .flatMapMany(docs -> {
+                    if (!docs.isEmpty()) {
+                        ContextAssembler.Assembly context = assembleContext(docs);
+                        log.info("Auto-RAG stream: '{}' → {} docs, {} token di contesto ({} risparmiati)",
+                                message, docs.size(), context.tokens(), context.tokensSaved());
+                        return responseCache.stream(SemanticResponseCache.Scope.ofDocuments(null, docs), message,
+                                () -> streamWithContext(message, context.text()));
+                    }
+                    return responseCache.stream(SemanticResponseCache.Scope.plain(), message,
+                            () -> streamPlain(message));
+                });
+    }
+
+    public Flux<String> streamMessageWithRag(String message, String sourceFile, TenantScope scope) {
+        downstreamLimiter.checkAdmission(Downstream.LLM, Priority.INTERACTIVE);
+        return retrieveAsync(message, sourceFile, scope)
+                .flatMapMany(docs -> {
+                    if (docs.isEmpty()) {
+                        log.warn("RAG stream: nessun doc per '{}', fallback plain", message);
+                        return responseCache.stream(SemanticResponseCache.Scope.plain(), message,
+                                () -> streamPlain(message));
+                    }
+                    ContextAssembler.Assembly context = assembleContext(docs);
+                    log.info("RAG stream '{}' → {} docs, {} token di contesto ({} risparmiati)",
+                            message, docs.size(), context.tokens(), context.tokensSaved());
+                    return responseCache.stream(SemanticResponseCache.Scope.ofDocuments(sourceFile, docs), message,
+                            () -> streamWithContext(message, context.text()));
+                });
     }
 
     public Flux<String> streamMessageWithContext(String message, String context) {
-        return chatClient.prompt()
-                .user(RAG_PROMPT_TEMPLATE.formatted(context, message))
-                .options(OpenAiChatOptions.builder()
-                        .maxTokens(maxTokens)
-                        .temperature(0.1)
-                        .build())
-                .stream()
-                .content();
+        downstreamLimiter.checkAdmission(Downstream.LLM, Priority.INTERACTIVE);
+        return responseCache.stream(SemanticResponseCache.Scope.ofContext(context), message,
+                        () -> streamWithContext(message, context))
+                .subscribeOn(streamScheduler);
+    }
+
+    // ── Sessioni ─────────────────────────────────────────────────────────────
+    // Niente response cache né coalescing: la risposta dipende dallo storico della sessione.
+
+    public Reply sendSessionMessage(String sessionId, String message, String sourceFile, String context,
+                                    TenantScope scope) {
+        ChatSession session = sessionStore.getOrCreate(sessionId, scope);
+        session.begin();
+        try {
+            SessionTurn turn = prepareTurn(session, message, sourceFile, context, scope);
+            String answer = downstreamLimiter.call(Downstream.LLM, Priority.INTERACTIVE, () -> generate(chatClient.prompt()
+                    .messages(turn.messages())
+                    .options(turn.options())));
+            session.append(turn.user(), answer, turn.documentIds());
+            return new Reply(answer, turn.promptTokensSaved());
+        } finally {
+            session.end();
+        }
+    }
+
+    public Flux<String> streamSessionMessage(String sessionId, String message, String sourceFile, String context,
+                                             TenantScope scope) {
+        ChatSession session = sessionStore.getOrCreate(sessionId, scope);
+        downstreamLimiter.checkAdmission(Downstream.LLM, Priority.INTERACTIVE);
+        // begin() alla sottoscrizione, in coppia con end() in doFinally: un Flux mai
+        // sottoscritto non lascia la sessione occupata (la 409 arriva come errore dello stream)
+        return Flux.defer(() -> {
+            session.begin();
+            return Mono.fromCallable(() -> prepareTurn(session, message, sourceFile, context, scope))
+                    .subscribeOn(streamScheduler)
+                    .flatMapMany(turn -> {
+                        StringBuilder answer = new StringBuilder();
+                        return downstreamLimiter.stream(Downstream.LLM, Priority.INTERACTIVE, () -> generateStream(chatClient.prompt()
+                                        .messages(turn.messages())
+                                        .options(turn.options())))
+                                .doOnNext(answer::append)
+                                // Solo risposte complete nello storico: uno stream interrotto non lascia il turno a metà
+                                .doOnComplete(() -> session.append(turn.user(), answer.toString(), turn.documentIds()));
+                    })
+                    .doFinally(signal -> session.end());
+        });
+    }
+
+    /** Richieste (bloccanti + streaming) servite da una generazione già in corso. */
+    public long coalescedCount() {
+        return inFlightCalls.coalescedCount() + inFlightStreams.coalescedCount();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamScheduler.dispose();
+    }
+
+    // ── Chiamate al LLM ──────────────────────────────────────────────────────
+    // Richieste identiche in corso (stesso prompt normalizzato, contesto e opzioni)
+    // condividono una sola chiamata; quella chiamata passa dal limite LLM, perché
+    // LM Studio genera una risposta alla volta e le altre attendono qui, non nella sua coda HTTP.
+    // Priorità: risposte brevi e stream prima delle risposte RAG complete
+
+    private String callPlain(String message) {
+        return call(message, maxTokensSimple, 0.3, Priority.INTERACTIVE);
+    }
+
+    private String callWithContext(String message, String context) {
+        return call(RAG_PROMPT_TEMPLATE.formatted(context, message), maxTokens, 0.1, Priority.NORMAL);
+    }
+
+    private Flux<String> streamPlain(String message) {
+        return stream(message, maxTokensSimple, 0.3);
+    }
+
+    private Flux<String> streamWithContext(String message, String context) {
+        return stream(RAG_PROMPT_TEMPLATE.formatted(context, message), maxTokens, 0.1);
+    }
+
+    private String call(String prompt, int maxTokens, double temperature, Priority priority) {
+        return inFlightCalls.call(flightKey(prompt, maxTokens, temperature),
+                () -> downstreamLimiter.call(Downstream.LLM, priority, () -> generate(chatClient.prompt()
+                        .user(prompt)
+                        .options(OpenAiChatOptions.builder()
+                                .maxTokens(maxTokens)
+                                .temperature(temperature)
+                                .build()))));
+    }
+
+    private Flux<String> stream(String prompt, int maxTokens, double temperature) {
+        return inFlightStreams.stream(flightKey(prompt, maxTokens, temperature),
+                () -> downstreamLimiter.stream(Downstream.LLM, Priority.INTERACTIVE, () -> generateStream(chatClient.prompt()
+                        .user(prompt)
+                        .options(OpenAiChatOptions.builder()
+                                .maxTokens(maxTokens)
+                                .temperature(temperature)
+                                .build()))));
+    }
+
+    // Tempo totale, primo token (stream) e token/s in chatbot.llm; l'attesa del permesso
+    // LLM resta fuori, misurata da DownstreamLimiter
+
+    private String generate(ChatClient.ChatClientRequestSpec request) {
+        ChatResponse response = observations.llmCall(() -> request.call().chatResponse(), ChatService::completionTokens);
+        return text(response);
+    }
+
+    private Flux<String> generateStream(ChatClient.ChatClientRequestSpec request) {
+        return observations.llmStream(request.stream().content())
+                .transform(this::guardStream);
     }
 
     // ── Helper ───────────────────────────────────────────────────────────────
 
+    private record SessionTurn(List<Message> messages, String user, Set<String> documentIds,
+                               OpenAiChatOptions options, int promptTokensSaved) {
+    }
+
     /**
-     * FIX-1 (Security): sourceFile viene sanitizzato prima di essere interpolato
-     * nella filterExpression per prevenire injection sul parser di ChromaDB.
+     * Primo turno: il contesto (esplicito o recuperato) viene fissato nel system.
+     * Turni successivi: retrieval sulla nuova domanda e solo i documenti non ancora
+     * nella sessione, aggiunti al messaggio utente.
      */
-    private List<Document> searchRelevantDocs(String message, String sourceFile) {
-        SearchRequest.Builder builder = SearchRequest.builder()
-                .query(message)
-                .topK(topK)
-                .similarityThreshold(similarityThreshold);
-
-        if (sourceFile != null && !sourceFile.isBlank()) {
-            String safeSource = sanitizeFilterValue(sourceFile);
-            builder.filterExpression("source == '" + safeSource + "'");
+    private SessionTurn prepareTurn(ChatSession session, String message, String sourceFile, String context,
+                                    TenantScope scope) {
+        String user = message;
+        Set<String> turnDocumentIds = Set.of();
+        int saved = 0;
+        if (session.isNew()) {
+            if (context != null && !context.isBlank()) {
+                session.pin(SESSION_SYSTEM_TEMPLATE.formatted(context), Set.of());
+            } else {
+                List<Document> docs = searchRelevantDocs(message, sourceFile, scope);
+                if (!docs.isEmpty()) {
+                    ContextAssembler.Assembly assembly = assembleContext(docs);
+                    session.pin(SESSION_SYSTEM_TEMPLATE.formatted(assembly.text()), documentIds(docs));
+                    saved = assembly.tokensSaved();
+                }
+            }
+        } else {
+            List<Document> docs = searchRelevantDocs(message, sourceFile, scope).stream()
+                    .filter(doc -> !session.containsDocument(doc.getId()))
+                    .toList();
+            if (!docs.isEmpty()) {
+                ContextAssembler.Assembly assembly = assembleContext(docs);
+                user = SESSION_TURN_TEMPLATE.formatted(assembly.text(), message);
+                turnDocumentIds = documentIds(docs);     // registrati con il turno, in append()
+                saved = assembly.tokensSaved();
+            }
         }
+        log.info("Sessione {}: turno {}, {} token di storico", session.id(), session.turnCount() + 1,
+                session.historyTokens());
+
+        boolean rag = session.hasContext() || !turnDocumentIds.isEmpty();
+        OpenAiChatOptions options = OpenAiChatOptions.builder()
+                .maxTokens(rag ? maxTokens : maxTokensSimple)
+                .temperature(rag ? 0.1 : 0.3)
+                .build();
+        return new SessionTurn(session.prompt(user), user, turnDocumentIds, options, saved);
+    }
+
+    private static Set<String> documentIds(List<Document> docs) {
+        return docs.stream().map(Document::getId).collect(Collectors.toSet());
+    }
 
-        return vectorStore.similaritySearch(builder.build());
+    private List<Document> searchRelevantDocs(String message, String sourceFile, TenantScope scope) {
+        return observations.rag("retrieval", () -> hybridRetriever.retrieve(message, sourceFile, scope));
     }
 
-    private String buildContext(List<Document> docs) {
-        return docs.stream()
-                .map(Document::getText)
-                .collect(Collectors.joining("\n---\n"));
+    private ContextAssembler.Assembly assembleContext(List<Document> docs) {
+        return observations.rag("context", () -> contextAssembler.assemble(docs));
+    }
+
+    private static String text(ChatResponse response) {
+        return response == null || response.getResult() == null ? null : response.getResult().getOutput().getText();
+    }
+
+    // Token generati secondo LM Studio; stima dal testo se la risposta non riporta l'usage
+    private static int completionTokens(ChatResponse response) {
+        Integer tokens = response.getMetadata() != null && response.getMetadata().getUsage() != null
+                ? response.getMetadata().getUsage().getCompletionTokens()
+                : null;
+        return tokens != null && tokens > 0 ? tokens : ContextAssembler.estimateTokens(text(response));
     }
 
     /**
-     * Sanitizza i valori interpolati nelle filterExpression di ChromaDB.
-     * Escape dell'apice singolo per prevenire injection sul filtro.
+     * Retrieval sullo scheduler rag-stream, con timeout: oltre la soglia si risponde
+     * senza contesto come quando non ci sono documenti. Il resto della catena (lookup in
+     * cache, permesso LLM) è bloccante, quindi prosegue sullo stesso scheduler.
      */
-    private String sanitizeFilterValue(String value) {
-        if (value == null) return "";
-        return value.replace("'", "\\'");
+    private Mono<List<Document>> retrieveAsync(String message, String sourceFile, TenantScope scope) {
+        return Mono.fromCallable(() -> searchRelevantDocs(message, sourceFile, scope))
+                .subscribeOn(streamScheduler)
+                .timeout(streamRetrievalTimeout)
+                .onErrorResume(TimeoutException.class, e -> {
+                    log.warn("Retrieval stream oltre {} per '{}', nessun contesto", streamRetrievalTimeout, message);
+                    return Mono.just(List.<Document>of());
+                })
+                .publishOn(streamScheduler);
+    }
+
+    // Token fermi oltre idle-timeout → errore; client disconnesso → il cancel risale fino
+    // alla connessione HTTP verso LM Studio, che interrompe la generazione
+    private Flux<String> guardStream(Flux<String> tokens) {
+        return tokens
+                .timeout(streamIdleTimeout)
+                .doOnCancel(() -> log.info("Stream cancellato dal client: generazione LLM interrotta"));
+    }
+
+    private static String flightKey(String prompt, int maxTokens, double temperature) {
+        return maxTokens + "|" + temperature + "|"
+                + prompt.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
     }
-}
\ No newline at end of file
+}
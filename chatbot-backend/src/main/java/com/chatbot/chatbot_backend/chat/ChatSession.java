@@ -0,0 +1,199 @@
+package com.chatbot.chatbot_backend.chat;
+
+import com.chatbot.chatbot_backend.tenancy.TenantScope;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conversazione multi-turno con prompt a prefisso stabile:
+ *
+ *   [system: istruzioni + contesto fissato al primo turno]
+ *   [user 1] [assistant 1] … [user N] [assistant N]   ← solo append
+ *   [user N+1]                                          ← turno corrente
+ *
+ * Ogni turno riusa byte per byte il prompt del turno precedente, così LM Studio
+ * ritrova il prefisso nel KV cache e calcola il prefill solo dei messaggi nuovi.
+ * Il contesto recuperato per una domanda successiva va nel messaggio utente di quel
+ * turno, mai nel system. Quando lo storico supera il budget di token i turni più vecchi
+ * vengono scartati in blocco fino a metà budget: il prefisso cambia una volta ogni
+ * tanti turni invece che a ogni turno.
+ *
+ * I documenti del system restano nella sessione per tutta la sua durata; quelli di un
+ * turno successivo solo finché il turno resta nello storico, poi una nuova domanda che li
+ * recupera li rimette nel proprio messaggio.
+ *
+ * Un solo turno alla volta per sessione ({@link #begin()}).
+ *
+ * La sessione appartiene al tenant/workspace con cui è stata creata: il contesto
+ * fissato viene da quello shard e una richiesta con uno scope diverso è rifiutata.
+ */
+final class ChatSession {
+
+    record Turn(String user, String assistant, int tokens, Set<String> documentIds) {
+    }
+
+    private final String id;
+    private final TenantScope scope;
+    private final int maxHistoryTokens;
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Stato protetto da lock
+    private String system;                                  // null = nessun contesto fissato
+    private final Set<String> pinnedDocumentIds = new HashSet<>();   // nel system
+    private final Map<String, Integer> turnDocumentIds = new HashMap<>(); // nei turni: id → turni che lo contengono
+    private final Deque<Turn> turns = new ArrayDeque<>();
+    private int historyTokens;
+
+    ChatSession(String id, TenantScope scope, int maxHistoryTokens) {
+        this.id = id;
+        this.scope = scope;
+        this.maxHistoryTokens = maxHistoryTokens;
+    }
+
+    String id() {
+        return id;
+    }
+
+    TenantScope scope() {
+        return scope;
+    }
+
+    /** Richiesta con tenant/workspace diversi da quelli della sessione → 409. */
+    void checkScope(TenantScope requested) {
+        if (!scope.equals(requested)) {
+            throw new IllegalStateException("La sessione " + id + " appartiene a un altro tenant/workspace");
+        }
+    }
+
+    /** Inizio di un turno; una seconda domanda mentre la prima è in corso → 409. */
+    void begin() {
+        if (!busy.compareAndSet(false, true)) {
+            throw new IllegalStateException("La sessione " + id + " sta già elaborando una domanda");
+        }
+    }
+
+    void end() {
+        busy.set(false);
+    }
+
+    /** Prima domanda della sessione: nessun turno e nessun contesto fissato. */
+    boolean isNew() {
+        lock.lock();
+        try {
+            return system == null && turns.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean hasContext() {
+        lock.lock();
+        try {
+            return system != null || !pinnedDocumentIds.isEmpty() || !turnDocumentIds.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Fissa il system prompt; solo prima del primo turno, poi il prefisso non cambia più. */
+    void pin(String system, Set<String> documentIds) {
+        lock.lock();
+        try {
+            if (!isNew()) {
+                throw new IllegalStateException("Contesto della sessione " + id + " già fissato");
+            }
+            this.system = system;
+            pinnedDocumentIds.addAll(documentIds);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean containsDocument(String documentId) {
+        lock.lock();
+        try {
+            return pinnedDocumentIds.contains(documentId) || turnDocumentIds.containsKey(documentId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** System + storico + nuovo messaggio utente, nell'ordine stabile descritto sopra. */
+    List<Message> prompt(String user) {
+        lock.lock();
+        try {
+            List<Message> messages = new ArrayList<>(turns.size() * 2 + 2);
+            if (system != null) {
+                messages.add(new SystemMessage(system));
+            }
+            for (Turn turn : turns) {
+                messages.add(new UserMessage(turn.user()));
+                messages.add(new AssistantMessage(turn.assistant()));
+            }
+            messages.add(new UserMessage(user));
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Turno completato, con i documenti aggiunti al suo messaggio utente. */
+    void append(String user, String assistant, Set<String> documentIds) {
+        lock.lock();
+        try {
+            Turn turn = new Turn(user, assistant,
+                    ContextAssembler.estimateTokens(user) + ContextAssembler.estimateTokens(assistant),
+                    Set.copyOf(documentIds));
+            turns.addLast(turn);
+            historyTokens += turn.tokens();
+            turn.documentIds().forEach(docId -> turnDocumentIds.merge(docId, 1, Integer::sum));
+            if (historyTokens > maxHistoryTokens) {
+                while (turns.size() > 1 && historyTokens > maxHistoryTokens / 2) {
+                    drop(turns.removeFirst());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Un documento uscito dallo storico torna recuperabile nei turni successivi
+    private void drop(Turn turn) {
+        historyTokens -= turn.tokens();
+        for (String docId : turn.documentIds()) {
+            turnDocumentIds.computeIfPresent(docId, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    int turnCount() {
+        lock.lock();
+        try {
+            return turns.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int historyTokens() {
+        lock.lock();
+        try {
+            return historyTokens;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.chatbot.chatbot_backend.chat;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class ChatSessionResponse {
+
+    // id da inviare come sessionId nelle richieste di chat successive
+
+    private String sessionId;
+}
@@ -0,0 +1,77 @@
+package com.chatbot.chatbot_backend.chat;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import com.chatbot.chatbot_backend.tenancy.TenantScope;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Sessioni di chat in memoria. Eviction per numero di sessioni (Caffeine, vicina a LRU)
+ * e per inattività; una sessione scaduta o sconosciuta riparte da zero con lo stesso id.
+ * Ogni sessione è legata al tenant/workspace con cui nasce ({@link ChatSession#checkScope}).
+ */
+@Slf4j
+@Component
+public class ChatSessionStore implements MeterBinder {
+
+    private static final Pattern SESSION_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final Cache<String, ChatSession> sessions;
+    private final int maxHistoryTokens;
+
+    public ChatSessionStore(@Value("${app.chat.session.max-sessions:1000}") long maxSessions,
+                            @Value("${app.chat.session.idle-timeout:30m}") Duration idleTimeout,
+                            @Value("${app.chat.session.history-max-tokens:2048}") int maxHistoryTokens) {
+        this.maxHistoryTokens = maxHistoryTokens;
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(maxSessions)
+                .expireAfterAccess(idleTimeout)
+                .recordStats()
+                .build();
+    }
+
+    public String create(TenantScope scope) {
+        String id = UUID.randomUUID().toString();
+        sessions.put(id, new ChatSession(id, scope, maxHistoryTokens));
+        return id;
+    }
+
+    ChatSession getOrCreate(String id, TenantScope scope) {
+        if (!SESSION_ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Id di sessione non valido: " + id);
+        }
+        ChatSession session = sessions.get(id, key -> {
+            log.info("Sessione '{}' sconosciuta o scaduta: nuova conversazione", key);
+            return new ChatSession(key, scope, maxHistoryTokens);
+        });
+        session.checkScope(scope);
+        return session;
+    }
+
+    public boolean delete(String id, TenantScope scope) {
+        ChatSession session = sessions.getIfPresent(id);
+        if (session == null) {
+            return false;
+        }
+        session.checkScope(scope);
+        return sessions.asMap().remove(id, session);
+    }
+
+    public long size() {
+        return sessions.estimatedSize();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, sessions, "chat-sessions");
+    }
+}
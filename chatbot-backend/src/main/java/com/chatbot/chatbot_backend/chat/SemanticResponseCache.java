@@ -0,0 +1,348 @@
+package com.chatbot.chatbot_backend.chat;
+
+import com.chatbot.chatbot_backend.document.DocumentIngestedEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import com.chatbot.chatbot_backend.concurrency.Priority;
+import com.chatbot.chatbot_backend.vectorstore.VectorKernels;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Cache delle risposte del LLM per domande semanticamente equivalenti.
+ *
+ * Una risposta è riutilizzabile solo nello stesso {@link Scope}: stessa modalità,
+ * stesso filtro sourceFile e stesso insieme di chunk recuperati (o stesso contesto
+ * esplicito). Dentro lo scope una nuova domanda colpisce la cache se la similarità
+ * coseno con una domanda già risposta supera la soglia configurata.
+ *
+ * L'embedding della domanda arriva dal CachingEmbeddingModel, già calcolato per la
+ * ricerca su Chroma. Eviction per numero di entry e TTL (Caffeine); le risposte
+ * derivate da una sorgente vengono invalidate quando quella sorgente viene reindicizzata.
+ *
+ * L'embedding ha un tempo massimo ({@code app.chat.response-cache.lookup-timeout}): se il
+ * modello di embedding è lento o il suo circuito è aperto resta solo il confronto esatto
+ * della domanda e il resto va direttamente al LLM, invece di legare ogni risposta alla
+ * latenza dell'embedding.
+ */
+@Slf4j
+@Component
+public class SemanticResponseCache implements MeterBinder {
+
+    // Suddivisione per il replay in streaming: ogni pezzo porta con sé gli spazi che lo precedono
+    private static final Pattern REPLAY_SPLIT = Pattern.compile("(?<=\\S)(?=\\s)");
+
+    private final EmbeddingModel embeddingModel;
+    private final double similarityThreshold;
+    private final Cache<String, Entry> entries;
+    private final Map<String, Set<String>> keysByScope = new ConcurrentHashMap<>();
+
+    // Incrementata a ogni invalidazione: una risposta calcolata prima non viene salvata
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final Duration lookupTimeout;
+    private final ExecutorService lookupExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("response-cache-", 0).factory());
+
+    public SemanticResponseCache(EmbeddingModel embeddingModel,
+                                 @Value("${app.chat.response-cache.similarity-threshold:0.95}") double similarityThreshold,
+                                 @Value("${app.chat.response-cache.max-size:1000}") long maxSize,
+                                 @Value("${app.chat.response-cache.expire-after-write:1h}") Duration expireAfterWrite,
+                                 @Value("${app.chat.response-cache.lookup-timeout:1s}") Duration lookupTimeout) {
+        this.embeddingModel = embeddingModel;
+        this.similarityThreshold = similarityThreshold;
+        this.lookupTimeout = lookupTimeout;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWrite)
+                .executor(Runnable::run)                // indice per scope aggiornato in modo sincrono
+                .removalListener(this::onRemoval)
+                .build();
+    }
+
+    /**
+     * Ambito in cui una risposta è valida.
+     * @param key     modalità + filtro + chunk recuperati (o hash del contesto)
+     * @param sources sorgenti da cui dipende la risposta, per l'invalidazione
+     */
+    public record Scope(String key, Set<String> sources) {
+
+        public static Scope plain() {
+            return new Scope("plain", Set.of());
+        }
+
+        public static Scope ofDocuments(String sourceFile, List<Document> docs) {
+            Set<String> ids = new TreeSet<>();
+            Set<String> sources = new HashSet<>();
+            if (sourceFile != null && !sourceFile.isBlank()) {
+                sources.add(sourceFile);
+            }
+            for (Document doc : docs) {
+                ids.add(doc.getId());
+                Object source = doc.getMetadata().get("source");
+                if (source != null) {
+                    sources.add(source.toString());
+                }
+            }
+            String filter = sourceFile == null || sourceFile.isBlank() ? "*" : sourceFile;
+            return new Scope("rag\u0000" + filter + "\u0000" + String.join(",", ids), Set.copyOf(sources));
+        }
+
+        public static Scope ofContext(String context) {
+            return new Scope("context\u0000" + sha256(context), Set.of());
+        }
+
+        private static String sha256(String text) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+                return HexFormat.of().formatHex(digest);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 non disponibile", e);
+            }
+        }
+    }
+
+    private record Entry(String key, String scope, float[] vector, String answer, Set<String> sources) {
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PUBLIC API
+    // ─────────────────────────────────────────────────────────────────────────
+
+    public String get(Scope scope, String question, Supplier<String> llmCall) {
+        long startGeneration = generation.get();
+        float[] vector = embeddingWithinTimeout(question);
+        if (vector == null) {
+            Entry exact = exactLookup(scope, question);
+            return exact != null ? exact.answer() : llmCall.get();
+        }
+        Entry cached = lookup(scope, question, vector);
+        if (cached != null) {
+            return cached.answer();
+        }
+        String answer = llmCall.get();
+        put(scope, question, vector, answer, startGeneration);
+        return answer;
+    }
+
+    /**
+     * Variante streaming: un hit viene rigiocato come Flux a pezzi (parola + spazi),
+     * un miss viene salvato solo se lo stream del LLM termina senza errori.
+     * Pigro: embedding e lookup avvengono alla sottoscrizione, sul thread di chi sottoscrive.
+     */
+    public Flux<String> stream(Scope scope, String question, Supplier<Flux<String>> llmStream) {
+        return Flux.defer(() -> {
+            long startGeneration = generation.get();
+            float[] vector = embeddingWithinTimeout(question);
+            if (vector == null) {
+                Entry exact = exactLookup(scope, question);
+                return exact != null ? Flux.fromArray(REPLAY_SPLIT.split(exact.answer())) : llmStream.get();
+            }
+            Entry cached = lookup(scope, question, vector);
+            if (cached != null) {
+                return Flux.fromArray(REPLAY_SPLIT.split(cached.answer()));
+            }
+            StringBuilder answer = new StringBuilder();
+            return llmStream.get()
+                    .doOnNext(answer::append)
+                    .doOnComplete(() -> put(scope, question, vector, answer.toString(), startGeneration));
+        });
+    }
+
+    @EventListener
+    public void onDocumentIngested(DocumentIngestedEvent event) {
+        generation.incrementAndGet();
+        List<String> stale = new ArrayList<>();
+        entries.asMap().forEach((key, entry) -> {
+            if (entry.sources().contains(event.source())) {
+                stale.add(key);
+            }
+        });
+        entries.invalidateAll(stale);
+        log.info("Response cache: {} risposte invalidate per '{}'", stale.size(), event.source());
+    }
+
+    // Stessi nomi delle cache Caffeine (cache.gets, cache.size): hit = risposta semantica riusata
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cache.gets", hits, LongAdder::sum)
+                .tags("cache", "response", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", misses, LongAdder::sum)
+                .tags("cache", "response", "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("chatbot.response.cache.bypassed", bypassed, LongAdder::sum)
+                .description("Domande inviate al LLM senza lookup: embedding oltre lookup-timeout o non disponibile")
+                .register(registry);
+        Gauge.builder("cache.size", entries, Cache::estimatedSize)
+                .tag("cache", "response")
+                .register(registry);
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long size() {
+        return entries.estimatedSize();
+    }
+
+    /** Domande servite senza cache perché l'embedding non è arrivato in tempo. */
+    public long bypassCount() {
+        return bypassed.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lookupExecutor.shutdownNow();
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PRIVATE HELPERS
+    // ─────────────────────────────────────────────────────────────────────────
+
+    private Entry lookup(Scope scope, String question, float[] vector) {
+        // 1. Stessa domanda (normalizzata) → O(1)
+        Entry exact = exactLookup(scope, question);
+        if (exact != null) {
+            return exact;
+        }
+        // 2. Domanda simile nello stesso scope
+        Entry best = null;
+        double bestScore = similarityThreshold;
+        for (String key : keysByScope.getOrDefault(scope.key(), Set.of())) {
+            Entry candidate = entries.getIfPresent(key);
+            if (candidate == null) {
+                continue;
+            }
+            double score = candidate.vector().length == vector.length
+                    ? VectorKernels.dot(vector, candidate.vector()) : -1;
+            if (score >= bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        if (best != null) {
+            hits.increment();
+            log.debug("Response cache HIT (similarità {}) per '{}'", bestScore, question);
+        } else {
+            misses.increment();
+        }
+        return best;
+    }
+
+    // Non richiede l'embedding: resta disponibile anche quando la cache semantica è saltata
+    private Entry exactLookup(Scope scope, String question) {
+        Entry exact = entries.getIfPresent(entryKey(scope, question));
+        if (exact != null) {
+            hits.increment();
+        }
+        return exact;
+    }
+
+    private void put(Scope scope, String question, float[] vector, String answer, long startGeneration) {
+        if (answer == null || answer.isBlank() || generation.get() != startGeneration) {
+            return;
+        }
+        String key = entryKey(scope, question);
+        keysByScope.computeIfAbsent(scope.key(), k -> ConcurrentHashMap.newKeySet()).add(key);
+        entries.put(key, new Entry(key, scope.key(), vector, answer, scope.sources()));
+    }
+
+    private void onRemoval(String key, Entry entry, RemovalCause cause) {
+        if (entry == null || cause == RemovalCause.REPLACED) {
+            return;
+        }
+        keysByScope.computeIfPresent(entry.scope(), (scope, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private static String entryKey(Scope scope, String question) {
+        return scope.key() + "\u0000" + question.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Embedding su un thread virtuale con attesa limitata; null = cache saltata. Se scade
+     * il tempo l'embedding prosegue e finisce nel CachingEmbeddingModel per la prossima volta.
+     */
+    private float[] embeddingWithinTimeout(String question) {
+        Priority priority = Priority.current();
+        Future<float[]> future = lookupExecutor.submit(() -> {
+            try (Priority.Scope ignored = Priority.scoped(priority)) {
+                return normalizedEmbedding(question);
+            }
+        });
+        try {
+            return future.get(lookupTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            bypassed.increment();
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            log.debug("Response cache saltata per '{}': {}", question, cause.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Lookup nella response cache interrotto", e);
+        }
+    }
+
+    // Vettori normalizzati in ingresso: il prodotto scalare è la similarità coseno
+    private float[] normalizedEmbedding(String question) {
+        float[] vector = Objects.requireNonNull(embeddingModel.embed(question)).clone();
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= (float) norm;
+            }
+        }
+        return vector;
+    }
+}
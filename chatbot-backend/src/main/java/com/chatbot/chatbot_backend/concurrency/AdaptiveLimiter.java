@@ -0,0 +1,222 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Limite di concorrenza adattivo con coda a priorità (algoritmo a gradiente).
+ *
+ * A ogni chiamata conclusa confronta la latenza recente (media mobile breve) con
+ * quella a vuoto (minimo osservato): se la recente cresce il server sta accodando
+ * internamente, il gradiente scende sotto 1 e il limite si riduce; a latenza stabile
+ * il limite sale gradualmente fino a {@code maxLimit}. Un errore riduce il limite
+ * del 10%. Con {@code minLimit == maxLimit} il limite è fisso.
+ *
+ * I posti liberi vengono assegnati per priorità e, a parità, in ordine di arrivo.
+ */
+final class AdaptiveLimiter {
+
+    enum Outcome { SUCCESS, FAILURE, IGNORED }
+
+    private static final double SHORT_RTT_WEIGHT = 0.3;     // ~ ultime 3-4 chiamate
+    private static final double LONG_RTT_WEIGHT = 0.02;     // ~ ultime 50 chiamate
+    private static final double BASELINE_DRIFT = 1.01;
+    private static final double SMOOTHING = 0.2;
+    private static final double FAILURE_BACKOFF = 0.9;
+    private static final double WAIT_WEIGHT = 0.1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongSupplier clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+            Comparator.comparing((Waiter waiter) -> waiter.priority).thenComparingLong(waiter -> waiter.sequence));
+
+    // Stato protetto da lock
+    private double limit;
+    private int inFlight;
+    private long sequence;
+    private double shortRttNanos;                           // 0 = nessun campione
+    private double longRttNanos;                            // durata media di una chiamata, per le stime
+    private double noLoadRttNanos;
+    private double averageWaitNanos;
+    private long maxWaitNanos;
+
+    private static final class Waiter {
+        private final Priority priority;
+        private final long sequence;
+        private final Condition signal;
+        private boolean admitted;
+
+        private Waiter(Priority priority, long sequence, Condition signal) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.signal = signal;
+        }
+    }
+
+    AdaptiveLimiter(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, System::nanoTime);
+    }
+
+    AdaptiveLimiter(int minLimit, int maxLimit, LongSupplier clock) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limiti non validi: min " + minLimit + ", max " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.clock = clock;
+        this.limit = maxLimit;
+    }
+
+    /** @return false se il posto non si libera entro il timeout (la richiesta esce dalla coda) */
+    boolean acquire(Priority priority, long timeoutNanos) throws InterruptedException {
+        long start = clock.getAsLong();
+        lock.lock();
+        try {
+            if (queue.isEmpty() && inFlight < currentLimit()) {
+                inFlight++;
+                recordWait(0);
+                return true;
+            }
+            Waiter waiter = new Waiter(priority, sequence++, lock.newCondition());
+            queue.add(waiter);
+            long remaining = timeoutNanos;
+            try {
+                while (!waiter.admitted && remaining > 0) {
+                    remaining = waiter.signal.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                abandon(waiter);
+                throw e;
+            }
+            if (!waiter.admitted) {
+                queue.remove(waiter);
+                return false;
+            }
+            recordWait(clock.getAsLong() - start);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (queue.isEmpty() && inFlight < currentLimit()) {
+                inFlight++;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(long rttNanos, Outcome outcome) {
+        lock.lock();
+        try {
+            if (outcome != Outcome.IGNORED) {
+                update(rttNanos, outcome);
+            }
+            inFlight--;
+            admitWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Attesa stimata per una nuova richiesta con questa priorità: richieste davanti
+     * in coda / limite × durata media di una chiamata. 0 finché non ci sono campioni.
+     */
+    long estimatedWaitNanos(Priority priority) {
+        lock.lock();
+        try {
+            if (inFlight < currentLimit() && queue.isEmpty()) {
+                return 0;
+            }
+            long ahead = queue.stream().filter(waiter -> waiter.priority.compareTo(priority) <= 0).count();
+            return (long) ((ahead + 1) / (double) currentLimit() * longRttNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ── Statistiche ──────────────────────────────────────────────────────────
+
+    record Snapshot(int limit, int inFlight, int queued, long averageWaitMs, long maxWaitMs, long averageRttMs) {
+    }
+
+    Snapshot snapshot() {
+        lock.lock();
+        try {
+            return new Snapshot(currentLimit(), inFlight, queue.size(),
+                    TimeUnit.NANOSECONDS.toMillis((long) averageWaitNanos),
+                    TimeUnit.NANOSECONDS.toMillis(maxWaitNanos),
+                    TimeUnit.NANOSECONDS.toMillis((long) longRttNanos));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ── Helper (chiamati con lock acquisito) ─────────────────────────────────
+
+    private int currentLimit() {
+        return Math.max(minLimit, (int) limit);
+    }
+
+    private void admitWaiters() {
+        while (!queue.isEmpty() && inFlight < currentLimit()) {
+            Waiter waiter = queue.poll();
+            waiter.admitted = true;
+            inFlight++;
+            waiter.signal.signal();
+        }
+    }
+
+    // Interrotto in attesa: se il posto era già stato assegnato va restituito
+    private void abandon(Waiter waiter) {
+        if (waiter.admitted) {
+            inFlight--;
+            admitWaiters();
+        } else {
+            queue.remove(waiter);
+        }
+    }
+
+    private void update(long rttNanos, Outcome outcome) {
+        if (outcome == Outcome.FAILURE) {
+            limit = Math.max(minLimit, limit * FAILURE_BACKOFF);
+            return;
+        }
+        shortRttNanos = shortRttNanos == 0 ? rttNanos : ewma(shortRttNanos, rttNanos, SHORT_RTT_WEIGHT);
+        longRttNanos = longRttNanos == 0 ? rttNanos : ewma(longRttNanos, rttNanos, LONG_RTT_WEIGHT);
+        // Latenza "a vuoto": il minimo osservato, che risale dell'1% a campione così da
+        // seguire un carico di lavoro diventato stabilmente più lento
+        noLoadRttNanos = noLoadRttNanos == 0 ? rttNanos : Math.min(noLoadRttNanos * BASELINE_DRIFT, rttNanos);
+
+        double gradient = Math.max(0.5, Math.min(1.0, noLoadRttNanos / shortRttNanos));
+        double target = limit * gradient + 1;
+        // Con meno della metà dei posti occupati la latenza non dice nulla sul limite: non si sale
+        if (inFlight < limit / 2) {
+            target = Math.min(target, limit);
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, ewma(limit, target, SMOOTHING)));
+    }
+
+    private void recordWait(long waitNanos) {
+        averageWaitNanos = ewma(averageWaitNanos, waitNanos, WAIT_WEIGHT);
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+    }
+
+    private static double ewma(double current, double sample, double weight) {
+        return current * (1 - weight) + sample * weight;
+    }
+}
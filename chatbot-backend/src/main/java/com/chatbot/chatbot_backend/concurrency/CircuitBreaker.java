@@ -0,0 +1,169 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker a finestra di conteggio.
+ *
+ * CLOSED: registra l'esito delle ultime {@code windowSize} chiamate; con almeno
+ * {@code minimumCalls} esiti e una quota di fallimenti (errori o chiamate lente) oltre
+ * la soglia passa a OPEN. OPEN: nessuna chiamata per {@code openDuration}, il chiamante
+ * ripiega subito invece di attendere un timeout. HALF_OPEN: passa una sola chiamata di
+ * prova; se riesce il circuito si richiude, altrimenti si riapre.
+ */
+final class CircuitBreaker {
+
+    enum State { CLOSED, HALF_OPEN, OPEN }
+
+    enum Permission { DENIED, GRANTED, TRIAL }
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final LongSupplier clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Stato protetto da lock
+    private final boolean[] window;                         // true = fallimento
+    private int next;
+    private int recorded;
+    private int failures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openNanos) {
+        this(windowSize, minimumCalls, failureRateThreshold, openNanos, System::nanoTime);
+    }
+
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openNanos, LongSupplier clock) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("Finestra non valida: size " + windowSize + ", minimo " + minimumCalls);
+        }
+        this.window = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openNanos;
+        this.clock = clock;
+    }
+
+    Permission tryAcquire() {
+        lock.lock();
+        try {
+            switch (state) {
+                case CLOSED:
+                    return Permission.GRANTED;
+                case OPEN:
+                    if (clock.getAsLong() - openedAt < openNanos) {
+                        return Permission.DENIED;
+                    }
+                    state = State.HALF_OPEN;
+                    trialInFlight = true;
+                    return Permission.TRIAL;
+                default:
+                    if (trialInFlight) {
+                        return Permission.DENIED;
+                    }
+                    trialInFlight = true;
+                    return Permission.TRIAL;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Esito di una chiamata ammessa. {@code failed == null}: esito non significativo
+     * (chiamata annullata o rifiutata prima di partire), la prova va ripetuta.
+     */
+    void release(Permission permission, Boolean failed) {
+        lock.lock();
+        try {
+            if (permission == Permission.TRIAL) {
+                trialInFlight = false;
+                if (failed == null || state != State.HALF_OPEN) {
+                    return;
+                }
+                if (failed) {
+                    open();
+                } else {
+                    close();
+                }
+                return;
+            }
+            // Esiti di chiamate partite prima dell'apertura: il circuito ha già deciso
+            if (failed == null || state != State.CLOSED) {
+                return;
+            }
+            record(failed);
+            if (recorded >= minimumCalls && failures >= failureRateThreshold * recorded) {
+                open();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Vero se una chiamata ora verrebbe rifiutata, senza consumare la prova di HALF_OPEN. */
+    boolean wouldDeny() {
+        lock.lock();
+        try {
+            return state == State.OPEN && clock.getAsLong() - openedAt < openNanos
+                    || state == State.HALF_OPEN && trialInFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    State state() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Secondi alla prossima chiamata di prova, almeno 1. */
+    long retryAfterSeconds() {
+        lock.lock();
+        try {
+            long remaining = state == State.OPEN ? openNanos - (clock.getAsLong() - openedAt) : 0;
+            return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining) + 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ── Helper (con lock) ────────────────────────────────────────────────────
+
+    private void record(boolean failed) {
+        if (recorded == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+}
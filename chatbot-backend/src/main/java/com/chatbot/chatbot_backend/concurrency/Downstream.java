@@ -0,0 +1,36 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+/**
+ * Servizi esterni chiamati in modo bloccante, ognuno con il proprio limite di
+ * concorrenza ({@code app.downstream.<nome>.max-concurrent}).
+ * Il limite è adattivo solo per i servizi di LM Studio, la cui latenza cresce
+ * con il carico; per gli altri resta fisso.
+ */
+public enum Downstream {
+    LLM("llm", 4, true),
+    EMBEDDING("embedding", 8, true),
+    VECTOR_STORE("vector-store", 16, false),
+    TIKA("tika", 4, false);
+
+    private final String propertyName;
+    private final int defaultMaxConcurrent;
+    private final boolean adaptive;
+
+    Downstream(String propertyName, int defaultMaxConcurrent, boolean adaptive) {
+        this.propertyName = propertyName;
+        this.defaultMaxConcurrent = defaultMaxConcurrent;
+        this.adaptive = adaptive;
+    }
+
+    public String propertyName() {
+        return propertyName;
+    }
+
+    public int defaultMaxConcurrent() {
+        return defaultMaxConcurrent;
+    }
+
+    public boolean adaptive() {
+        return adaptive;
+    }
+}
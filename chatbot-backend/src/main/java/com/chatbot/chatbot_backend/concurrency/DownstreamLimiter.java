@@ -0,0 +1,311 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+import com.chatbot.chatbot_backend.exceptions.DownstreamBusyException;
+import com.chatbot.chatbot_backend.exceptions.DownstreamUnavailableException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bulkhead per servizio esterno: un {@link AdaptiveLimiter} per {@link Downstream}.
+ *
+ * Con i thread virtuali il numero di richieste servite in parallelo non è più
+ * limitato dal pool di Tomcat, quindi il limite va messo davanti a ciò che
+ * non scala: LM Studio serializza le generazioni, Tika e Chroma hanno pool propri.
+ *
+ * LLM ed embedding (LM Studio) hanno un limite adattivo tra min e max-concurrent
+ * guidato dalla latenza osservata; Tika e vector store un limite fisso. In coda si
+ * passa per {@link Priority}: chi attende oltre {@code max-queue-time}, o chi
+ * attenderebbe oltre secondo la stima, riceve subito {@link DownstreamBusyException}
+ * (→ 429 con Retry-After) invece di accumulare latenza. Le chiamate BACKGROUND
+ * non hanno SLO e attendono fino a {@code app.downstream.acquire-timeout}.
+ *
+ * Davanti al limite c'è un {@link CircuitBreaker} per servizio: troppi errori, o chiamate
+ * interattive oltre {@code app.downstream.<nome>.slow-call-threshold}, lo aprono e per
+ * {@code open-duration} le chiamate falliscono subito con
+ * {@link DownstreamUnavailableException} (→ 503) o, con {@link #tryAcquire}, lasciano
+ * scegliere al chiamante una risposta degradata.
+ */
+@Slf4j
+@Component
+public class DownstreamLimiter {
+
+    private final Map<Downstream, AdaptiveLimiter> limiters = new EnumMap<>(Downstream.class);
+    private final Map<Downstream, Duration> maxQueueTimes = new EnumMap<>(Downstream.class);
+    private final Map<Downstream, LongAdder> rejected = new EnumMap<>(Downstream.class);
+    private final Map<Downstream, Map<Priority, Timer>> waitTimers = new EnumMap<>(Downstream.class);
+    private final Map<Downstream, CircuitBreaker> breakers = new EnumMap<>(Downstream.class);
+    private final Map<Downstream, Long> slowCallNanos = new EnumMap<>(Downstream.class);
+    private final Map<Downstream, LongAdder> shortCircuited = new EnumMap<>(Downstream.class);
+    private final Duration acquireTimeout;
+
+    public DownstreamLimiter(Environment environment,
+                             ObjectProvider<MeterRegistry> meterRegistry,
+                             @Value("${app.downstream.acquire-timeout:30s}") Duration acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        for (Downstream downstream : Downstream.values()) {
+            String prefix = "app.downstream." + downstream.propertyName();
+            int max = environment.getProperty(prefix + ".max-concurrent", Integer.class, downstream.defaultMaxConcurrent());
+            // Limite adattivo solo verso LM Studio: per gli altri min = max
+            int min = downstream.adaptive()
+                    ? environment.getProperty(prefix + ".min-concurrent", Integer.class, 1)
+                    : max;
+            limiters.put(downstream, new AdaptiveLimiter(Math.min(min, max), max));
+            maxQueueTimes.put(downstream,
+                    environment.getProperty(prefix + ".max-queue-time", Duration.class, acquireTimeout));
+            rejected.put(downstream, new LongAdder());
+            breakers.put(downstream, new CircuitBreaker(
+                    environment.getProperty("app.downstream.circuit-breaker.window-size", Integer.class, 20),
+                    environment.getProperty("app.downstream.circuit-breaker.minimum-calls", Integer.class, 10),
+                    environment.getProperty("app.downstream.circuit-breaker.failure-rate-threshold", Double.class, 0.5),
+                    environment.getProperty("app.downstream.circuit-breaker.open-duration", Duration.class,
+                            Duration.ofSeconds(10)).toNanos()));
+            // 0 = nessuna soglia: la durata di una chiamata non conta come fallimento
+            slowCallNanos.put(downstream,
+                    environment.getProperty(prefix + ".slow-call-threshold", Duration.class, Duration.ZERO).toNanos());
+            shortCircuited.put(downstream, new LongAdder());
+            if (registry != null) {
+                registerMetrics(registry, downstream);
+            }
+        }
+    }
+
+    /**
+     * Permesso acquisito: va chiuso (una sola volta) al termine della chiamata.
+     * La durata di una chiamata riuscita alimenta il limite adattivo.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final Downstream downstream;
+        private final Priority priority;
+        private final CircuitBreaker.Permission permission;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile AdaptiveLimiter.Outcome outcome = AdaptiveLimiter.Outcome.IGNORED;
+
+        private Permit(Downstream downstream, Priority priority, CircuitBreaker.Permission permission) {
+            this.downstream = downstream;
+            this.priority = priority;
+            this.permission = permission;
+        }
+
+        public void succeeded() {
+            outcome = AdaptiveLimiter.Outcome.SUCCESS;
+        }
+
+        public void failed() {
+            outcome = AdaptiveLimiter.Outcome.FAILURE;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                long rtt = System.nanoTime() - start;
+                limiters.get(downstream).release(rtt, outcome);
+                breakers.get(downstream).release(permission, breakerFailure(rtt));
+            }
+        }
+
+        // Una chiamata interattiva lenta conta come fallita; l'ingestion non ha SLO di latenza
+        private Boolean breakerFailure(long rtt) {
+            return switch (outcome) {
+                case FAILURE -> true;
+                case SUCCESS -> priority != Priority.BACKGROUND
+                        && slowCallNanos.get(downstream) > 0 && rtt > slowCallNanos.get(downstream);
+                case IGNORED -> null;
+            };
+        }
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PUBLIC API
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /** Priorità ereditata dal thread ({@link Priority#current()}). */
+    public <T> T call(Downstream downstream, Supplier<T> call) {
+        return call(downstream, Priority.current(), call);
+    }
+
+    public <T> T call(Downstream downstream, Priority priority, Supplier<T> call) {
+        try (Permit permit = acquire(downstream, priority)) {
+            try {
+                T result = call.get();
+                permit.succeeded();
+                return result;
+            } catch (RuntimeException e) {
+                permit.failed();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Il permesso resta occupato finché lo stream non termina, fallisce o viene cancellato;
+     * uno stream cancellato dal client non conta come campione di latenza.
+     */
+    public <T> Flux<T> stream(Downstream downstream, Priority priority, Supplier<Flux<T>> call) {
+        return Flux.using(() -> acquire(downstream, priority),
+                permit -> call.get()
+                        .doOnComplete(permit::succeeded)
+                        .doOnError(e -> permit.failed()),
+                Permit::close);
+    }
+
+    public Permit acquire(Downstream downstream) {
+        return acquire(downstream, Priority.current());
+    }
+
+    public Permit acquire(Downstream downstream, Priority priority) {
+        CircuitBreaker.Permission permission = breakers.get(downstream).tryAcquire();
+        if (permission == CircuitBreaker.Permission.DENIED) {
+            throw shortCircuit(downstream);
+        }
+        AdaptiveLimiter limiter = limiters.get(downstream);
+        Duration maxWait = priority == Priority.BACKGROUND ? acquireTimeout : maxQueueTimes.get(downstream);
+        boolean admitted = false;
+        try {
+            // Scarto anticipato: se la coda davanti non si smaltirà entro lo SLO è inutile attendere
+            long estimatedWait = limiter.estimatedWaitNanos(priority);
+            if (priority != Priority.BACKGROUND && estimatedWait > maxWait.toNanos()) {
+                throw reject(downstream, priority, estimatedWait);
+            }
+
+            long start = System.nanoTime();
+            if (limiter.acquire(priority, maxWait.toNanos())) {
+                recordWait(downstream, priority, System.nanoTime() - start);
+                admitted = true;
+                return new Permit(downstream, priority, permission);
+            }
+            throw reject(downstream, priority, limiter.estimatedWaitNanos(priority));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Attesa su " + downstream.propertyName() + " interrotta", e);
+        } finally {
+            if (!admitted) {
+                breakers.get(downstream).release(permission, null);
+            }
+        }
+    }
+
+    /**
+     * Senza attesa: null se il limite è già raggiunto o il circuito è aperto
+     * (il chiamante sceglie il fallback).
+     */
+    public Permit tryAcquire(Downstream downstream) {
+        CircuitBreaker breaker = breakers.get(downstream);
+        CircuitBreaker.Permission permission = breaker.tryAcquire();
+        if (permission == CircuitBreaker.Permission.DENIED) {
+            shortCircuited.get(downstream).increment();
+            return null;
+        }
+        if (limiters.get(downstream).tryAcquire()) {
+            return new Permit(downstream, Priority.current(), permission);
+        }
+        breaker.release(permission, null);
+        rejected.get(downstream).increment();
+        return null;
+    }
+
+    /**
+     * Verifica senza accodarsi, per chi deve rifiutare prima di aver iniziato la risposta
+     * (gli endpoint SSE non possono più cambiare lo status dopo il primo byte).
+     */
+    public void checkAdmission(Downstream downstream, Priority priority) {
+        if (breakers.get(downstream).wouldDeny()) {
+            throw shortCircuit(downstream);
+        }
+        long estimatedWait = limiters.get(downstream).estimatedWaitNanos(priority);
+        if (estimatedWait > maxQueueTimes.get(downstream).toNanos()) {
+            throw reject(downstream, priority, estimatedWait);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Downstream downstream : Downstream.values()) {
+            AdaptiveLimiter.Snapshot snapshot = limiters.get(downstream).snapshot();
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("limit", snapshot.limit());
+            entry.put("inUse", snapshot.inFlight());
+            entry.put("queued", snapshot.queued());
+            entry.put("queueWaitAvgMs", snapshot.averageWaitMs());
+            entry.put("queueWaitMaxMs", snapshot.maxWaitMs());
+            entry.put("latencyAvgMs", snapshot.averageRttMs());
+            entry.put("rejected", rejected.get(downstream).sum());
+            entry.put("circuit", breakers.get(downstream).state().name());
+            entry.put("shortCircuited", shortCircuited.get(downstream).sum());
+            stats.put(downstream.propertyName(), entry);
+        }
+        return stats;
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private DownstreamBusyException reject(Downstream downstream, Priority priority, long estimatedWaitNanos) {
+        rejected.get(downstream).increment();
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(estimatedWaitNanos) + 1);
+        log.warn("{}: richiesta {} scartata, attesa stimata {} s oltre lo SLO",
+                downstream.propertyName(), priority, retryAfter);
+        return new DownstreamBusyException(downstream.propertyName(), retryAfter);
+    }
+
+    private DownstreamUnavailableException shortCircuit(Downstream downstream) {
+        shortCircuited.get(downstream).increment();
+        CircuitBreaker breaker = breakers.get(downstream);
+        log.debug("{}: circuito {}, chiamata rifiutata", downstream.propertyName(), breaker.state());
+        return new DownstreamUnavailableException(downstream.propertyName(), breaker.retryAfterSeconds());
+    }
+
+    private void recordWait(Downstream downstream, Priority priority, long waitNanos) {
+        Map<Priority, Timer> timers = waitTimers.get(downstream);
+        if (timers != null) {
+            timers.get(priority).record(waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Esposte solo se è presente un MeterRegistry (es. con spring-boot-starter-actuator)
+    private void registerMetrics(MeterRegistry registry, Downstream downstream) {
+        AdaptiveLimiter limiter = limiters.get(downstream);
+        String name = downstream.propertyName();
+        Gauge.builder("chatbot.downstream.queue.depth", limiter, l -> l.snapshot().queued())
+                .tag("downstream", name).register(registry);
+        Gauge.builder("chatbot.downstream.limit", limiter, l -> l.snapshot().limit())
+                .tag("downstream", name).register(registry);
+        Gauge.builder("chatbot.downstream.in.flight", limiter, l -> l.snapshot().inFlight())
+                .tag("downstream", name).register(registry);
+        FunctionCounter.builder("chatbot.downstream.rejected", rejected.get(downstream), LongAdder::doubleValue)
+                .tag("downstream", name).register(registry);
+        // 0 = CLOSED, 1 = HALF_OPEN, 2 = OPEN
+        Gauge.builder("chatbot.downstream.circuit.state", breakers.get(downstream), b -> b.state().ordinal())
+                .tag("downstream", name).register(registry);
+        FunctionCounter.builder("chatbot.downstream.short.circuited", shortCircuited.get(downstream), LongAdder::doubleValue)
+                .tag("downstream", name).register(registry);
+
+        Map<Priority, Timer> timers = new EnumMap<>(Priority.class);
+        for (Priority priority : Priority.values()) {
+            timers.put(priority, Timer.builder("chatbot.downstream.queue.wait")
+                    .tag("downstream", name)
+                    .tag("priority", priority.name().toLowerCase(Locale.ROOT))
+                    .register(registry));
+        }
+        waitTimers.put(downstream, timers);
+    }
+}
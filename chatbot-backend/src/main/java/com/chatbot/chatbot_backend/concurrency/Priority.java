@@ -0,0 +1,35 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+/**
+ * Priorità di una chiamata verso LM Studio, in ordine di servizio.
+ *
+ * I chiamanti che non la passano esplicitamente (es. gli embedding richiesti da
+ * VectorStore.add) ereditano quella del thread, impostata con {@link #scoped(Priority)}.
+ */
+public enum Priority {
+    /** Risposte brevi (maxTokensSimple) e stream: l'utente sta aspettando il primo token. */
+    INTERACTIVE,
+    /** Risposte RAG complete non in streaming. */
+    NORMAL,
+    /** Ingestion: può attendere che le richieste degli utenti siano servite. */
+    BACKGROUND;
+
+    private static final ThreadLocal<Priority> CURRENT = ThreadLocal.withInitial(() -> NORMAL);
+
+    public static Priority current() {
+        return CURRENT.get();
+    }
+
+    /** Imposta la priorità del thread corrente fino alla chiusura dello scope. */
+    public static Scope scoped(Priority priority) {
+        Priority previous = CURRENT.get();
+        CURRENT.set(priority);
+        return () -> CURRENT.set(previous);
+    }
+
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
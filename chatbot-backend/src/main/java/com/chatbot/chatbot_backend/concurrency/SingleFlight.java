@@ -0,0 +1,87 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalescing delle chiamate identiche in corso ("single-flight"): la prima richiesta
+ * per una chiave esegue la chiamata, le altre che arrivano prima che termini ne
+ * condividono il risultato (o l'errore). A chiamata conclusa la chiave si libera:
+ * non è una cache, le richieste successive ripartono da capo.
+ *
+ * La chiave deve includere tutto ciò che determina la risposta (prompt, opzioni, contesto).
+ */
+public class SingleFlight<T> {
+
+    private final ConcurrentHashMap<String, CompletableFuture<T>> calls = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Flux<T>> streams = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    public T call(String key, Supplier<T> call) {
+        CompletableFuture<T> own = new CompletableFuture<>();
+        CompletableFuture<T> inFlight = calls.putIfAbsent(key, own);
+        if (inFlight != null) {
+            coalesced.increment();
+            return await(inFlight);
+        }
+        try {
+            T result = call.get();
+            own.complete(result);
+            return result;
+        } catch (Throwable t) {
+            own.completeExceptionally(t);            // anche un Error: chi attende non resta bloccato
+            throw t;
+        } finally {
+            calls.remove(key, own);
+        }
+    }
+
+    /**
+     * Variante streaming: un solo stream a monte, condiviso con replay. Chi si aggiunge
+     * in ritardo riceve prima i token già prodotti, poi quelli nuovi. Lo stream a monte
+     * viene cancellato solo quando tutti i sottoscrittori se ne sono andati.
+     */
+    public Flux<T> stream(String key, Supplier<Flux<T>> call) {
+        return Flux.defer(() -> {
+            AtomicReference<Flux<T>> self = new AtomicReference<>();
+            Flux<T> shared = Flux.defer(call)
+                    .doFinally(signal -> streams.remove(key, self.get()))
+                    .replay()
+                    .refCount();
+            self.set(shared);
+
+            Flux<T> inFlight = streams.putIfAbsent(key, shared);
+            if (inFlight != null) {
+                coalesced.increment();
+                return inFlight;
+            }
+            return shared;
+        });
+    }
+
+    /** Richieste servite da una chiamata già in corso invece che da una nuova. */
+    public long coalescedCount() {
+        return coalesced.sum();
+    }
+
+    /** Attende un risultato condiviso rilanciando l'eccezione originale, non avvolta in CompletionException. */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
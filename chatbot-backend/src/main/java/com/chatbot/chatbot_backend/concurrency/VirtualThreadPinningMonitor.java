@@ -0,0 +1,88 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Diagnostica del pinning: un thread virtuale che si blocca dentro un blocco
+ * {@code synchronized} o una chiamata nativa tiene occupato il carrier thread, e con
+ * pochi carrier (= core) bastano poche chiamate lente per fermare tutte le richieste.
+ *
+ * Attivo solo con {@code spring.threads.virtual.enabled=true}: ascolta in-process
+ * l'evento JFR {@code jdk.VirtualThreadPinned} e logga durata e stack applicativo
+ * di ogni pinning oltre {@code app.virtual-threads.pinned-threshold}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int LOGGED_FRAMES = 8;
+
+    private final Duration threshold;
+    private final AtomicLong pinnedEvents = new AtomicLong();
+    private RecordingStream recording;
+
+    public VirtualThreadPinningMonitor(
+            @Value("${app.virtual-threads.pinned-threshold:20ms}") Duration threshold) {
+        this.threshold = threshold;
+    }
+
+    @PostConstruct
+    public void start() {
+        recording = new RecordingStream();
+        recording.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        recording.onEvent(PINNED_EVENT, this::onPinned);
+        recording.startAsync();
+        log.info("Monitor pinning thread virtuali attivo (soglia {})", threshold);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    public long pinnedEvents() {
+        return pinnedEvents.get();
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private void onPinned(RecordedEvent event) {
+        pinnedEvents.incrementAndGet();
+        log.warn("Thread virtuale bloccato sul carrier per {} ms:\n{}",
+                event.getDuration().toMillis(), describe(event.getStackTrace()));
+    }
+
+    // Prima i frame dell'applicazione: sono quelli da correggere (synchronized → ReentrantLock)
+    private static String describe(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "\t(stack non disponibile)";
+        }
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        List<RecordedFrame> ownFrames = frames.stream()
+                .filter(frame -> frame.getMethod().getType().getName().startsWith("com.chatbot"))
+                .toList();
+        return (ownFrames.isEmpty() ? frames : ownFrames).stream()
+                .limit(LOGGED_FRAMES)
+                .map(frame -> "\tat " + frame.getMethod().getType().getName() + "."
+                        + frame.getMethod().getName() + ":" + frame.getLineNumber())
+                .collect(Collectors.joining("\n"));
+    }
+}
@@ -1,27 +1,58 @@
 package com.chatbot.chatbot_backend.config;
 
-import com.github.benmanes.caffeine.cache.Caffeine;
-import org.springframework.cache.CacheManager;
-import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.caffeine.CaffeineCacheManager;
+import com.chatbot.chatbot_backend.concurrency.DownstreamLimiter;
+import com.chatbot.chatbot_backend.observability.PipelineObservations;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.util.unit.DataSize;
 
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 
 @Configuration
-@EnableCaching
 public class CacheConfig {
 
+    @Value("${spring.ai.openai.embedding.options.model}")
+    private String embeddingModelName;
+
+    @Value("${app.embedding.cache.max-size:64MB}")
+    private DataSize maxSize;                       // limite in byte, non in numero di entry
+
+    @Value("${app.embedding.cache.expire-after-write:30m}")
+    private Duration expireAfterWrite;
+
+    // @Primary: ChromaVectorStore e ogni altro consumer di EmbeddingModel
+    // passano dalla cache invece di chiamare direttamente LM Studio
     @Bean
-    public CacheManager cacheManager() {
-        CaffeineCacheManager manager = new CaffeineCacheManager("embeddings");
-        manager.setCaffeine(
-                Caffeine.newBuilder()
-                        .maximumSize(200)           // max 200 query cachate
-                        .expireAfterWrite(30, TimeUnit.MINUTES)
-                        .recordStats()              // per monitoraggio
+    @Primary
+    public CachingEmbeddingModel cachingEmbeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel,
+                                                       ObjectProvider<MappedEmbeddingStore> embeddingStore,
+                                                       DownstreamLimiter downstreamLimiter,
+                                                       PipelineObservations observations) {
+        return new CachingEmbeddingModel(
+                openAiEmbeddingModel,
+                embeddingModelName,
+                maxSize.toBytes(),
+                expireAfterWrite,
+                embeddingStore.getIfAvailable(),
+                downstreamLimiter,
+                observations
         );
-        return manager;
     }
-}
\ No newline at end of file
+
+    // Secondo livello su disco: dopo un riavvio gli embedding arrivano dal file, non da LM Studio
+    @Bean
+    @ConditionalOnProperty(name = "app.embedding.store.enabled", havingValue = "true")
+    public MappedEmbeddingStore mappedEmbeddingStore(
+            @Value("${app.embedding.store.path}") Path path,
+            @Value("${app.embedding.store.max-size:256MB}") DataSize storeMaxSize,
+            @Value("${app.embedding.store.retain-on-compaction:0.5}") double retainOnCompaction) throws IOException {
+        return new MappedEmbeddingStore(path, storeMaxSize.toBytes(), retainOnCompaction);
+    }
+}
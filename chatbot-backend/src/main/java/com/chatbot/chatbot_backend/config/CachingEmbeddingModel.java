@@ -0,0 +1,315 @@
+package com.chatbot.chatbot_backend.config;
+
+import com.chatbot.chatbot_backend.concurrency.Downstream;
+import com.chatbot.chatbot_backend.concurrency.DownstreamLimiter;
+import com.chatbot.chatbot_backend.concurrency.Priority;
+import com.chatbot.chatbot_backend.concurrency.SingleFlight;
+import com.chatbot.chatbot_backend.observability.PipelineObservations;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decoratore di {@link EmbeddingModel} con cache a due livelli:
+ * Caffeine on-heap limitata in byte, poi (opzionale) {@link MappedEmbeddingStore} su disco.
+ *
+ * Tutti i percorsi dell'interfaccia (embed singolo, embed(List), embed dei Document
+ * usato da ChromaVectorStore.add) convergono su {@link #call(EmbeddingRequest)}:
+ * qui i testi già noti vengono serviti dalla cache e solo i mancanti
+ * vengono inviati a LM Studio in un'unica richiesta batch.
+ *
+ * Chiave: nome modello + testo normalizzato (minuscolo, spazi collassati).
+ * Le chiamate a LM Studio (solo i miss) passano dal {@link DownstreamLimiter}; un testo
+ * già in calcolo per un'altra richiesta concorrente non viene ricalcolato.
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel, MeterBinder {
+
+    // Overhead stimato per entry: header array, String chiave, nodo Caffeine
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final EmbeddingModel delegate;
+    private final String defaultModelName;
+    private final Cache<String, float[]> cache;
+    private final MappedEmbeddingStore diskStore;   // null = solo cache in memoria
+    private final DownstreamLimiter limiter;        // null = nessun limite di concorrenza
+    private final PipelineObservations observations;
+
+    // Embedding in calcolo: chiave → risultato atteso da tutte le richieste che la contengono
+    private final ConcurrentHashMap<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, String defaultModelName,
+                                 long maxBytes, Duration expireAfterWrite) {
+        this(delegate, defaultModelName, maxBytes, expireAfterWrite, null, null, PipelineObservations.noop());
+    }
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, String defaultModelName,
+                                 long maxBytes, Duration expireAfterWrite,
+                                 MappedEmbeddingStore diskStore, DownstreamLimiter limiter,
+                                 PipelineObservations observations) {
+        this.delegate = delegate;
+        this.observations = observations;
+        this.defaultModelName = defaultModelName;
+        this.diskStore = diskStore;
+        this.limiter = limiter;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(CachingEmbeddingModel::weigh)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+    }
+
+    // Stadio "embedding" della risposta; gli embedding dell'ingestion (BACKGROUND) sono
+    // già dentro lo stadio "embed" di chatbot.ingestion
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return Priority.current() == Priority.BACKGROUND
+                ? embedCached(request)
+                : observations.rag("embedding", () -> embedCached(request));
+    }
+
+    private EmbeddingResponse embedCached(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        String model = resolveModel(request.getOptions());
+        float[][] vectors = new float[texts.size()][];
+
+        // chiave → posizioni nella richiesta (testi duplicati nello stesso batch = 1 sola embed)
+        Map<String, List<Integer>> missing = new LinkedHashMap<>();
+        List<String> missingTexts = new ArrayList<>();
+
+        for (int i = 0; i < texts.size(); i++) {
+            String key = cacheKey(model, texts.get(i));
+            float[] cached = lookup(key);
+            if (cached != null) {
+                vectors[i] = cached;
+                continue;
+            }
+            List<Integer> positions = missing.get(key);
+            if (positions == null) {
+                positions = new ArrayList<>(1);
+                missing.put(key, positions);
+                missingTexts.add(texts.get(i));
+            }
+            positions.add(i);
+        }
+
+        if (!missing.isEmpty()) {
+            log.debug("Embedding cache MISS: {} testi su {} (model: {})", missingTexts.size(), texts.size(), model);
+            Map<String, CompletableFuture<float[]>> pending =
+                    embedMissing(List.copyOf(missing.keySet()), missingTexts, request.getOptions());
+
+            for (Map.Entry<String, List<Integer>> entry : missing.entrySet()) {
+                float[] vector = SingleFlight.await(pending.get(entry.getKey()));
+                for (int position : entry.getValue()) {
+                    vectors[position] = vector;
+                }
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    /** Embedding già calcolato (memoria o disco) per il modello di default; null se manca, senza chiamare LM Studio. */
+    public float[] cached(String text) {
+        return lookup(cacheKey(defaultModelName, text));
+    }
+
+    /**
+     * L1 (heap) → L2 (file mappato). Un hit su disco viene promosso in L1,
+     * così dopo un riavvio le query frequenti non tornano su LM Studio.
+     */
+    private float[] lookup(String key) {
+        float[] cached = cache.getIfPresent(key);
+        if (cached != null || diskStore == null) {
+            return cached;
+        }
+        float[] stored = diskStore.get(key);
+        if (stored != null) {
+            cache.put(key, stored);
+        }
+        return stored;
+    }
+
+    /**
+     * Single-flight sugli embedding: un testo già in calcolo per un'altra richiesta non
+     * viene rispedito a LM Studio, si attende quel risultato. I testi rimasti partono
+     * in un'unica chiamata batch, il cui esito viene condiviso con chi li attende.
+     */
+    private Map<String, CompletableFuture<float[]>> embedMissing(List<String> keys, List<String> texts,
+                                                              EmbeddingOptions options) {
+        Map<String, CompletableFuture<float[]>> results = new HashMap<>();
+        List<String> ownKeys = new ArrayList<>();
+        List<String> ownTexts = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            CompletableFuture<float[]> own = new CompletableFuture<>();
+            CompletableFuture<float[]> inFlightEmbedding = inFlight.putIfAbsent(key, own);
+            if (inFlightEmbedding != null) {
+                coalesced.increment();
+                results.put(key, inFlightEmbedding);
+                continue;
+            }
+            results.put(key, own);
+            // Calcolato da un'altra richiesta tra il lookup in cache e la putIfAbsent
+            float[] cached = cache.getIfPresent(key);
+            if (cached != null) {
+                own.complete(cached);
+                inFlight.remove(key, own);
+                continue;
+            }
+            ownKeys.add(key);
+            ownTexts.add(texts.get(i));
+        }
+        if (ownKeys.isEmpty()) {
+            return results;
+        }
+
+        try {
+            EmbeddingRequest ownRequest = new EmbeddingRequest(ownTexts, options);
+            List<Embedding> computed = (limiter == null
+                    ? delegate.call(ownRequest)
+                    : limiter.call(Downstream.EMBEDDING, () -> delegate.call(ownRequest)))
+                    .getResults();
+            for (int i = 0; i < ownKeys.size(); i++) {
+                String key = ownKeys.get(i);
+                float[] vector = computed.get(i).getOutput();
+                cache.put(key, vector);
+                if (diskStore != null) {
+                    diskStore.put(key, vector);
+                }
+                results.get(key).complete(vector);
+            }
+        } catch (Throwable t) {
+            // Anche un Error (OOM, StackOverflow): chi attende questi future non resta bloccato
+            ownKeys.forEach(key -> results.get(key).completeExceptionally(t));
+            throw t;
+        } finally {
+            ownKeys.forEach(key -> inFlight.remove(key, results.get(key)));
+        }
+        return results;
+    }
+
+    // ── Statistiche ──────────────────────────────────────────────────────────
+
+    // Registrato dall'actuator come ogni MeterBinder: cache.gets/puts/evictions{cache=embedding}
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "embedding");
+        Gauge.builder("chatbot.embedding.cache.size", this, CachingEmbeddingModel::weightedSizeBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("chatbot.embedding.coalesced", coalesced, LongAdder::sum)
+                .description("Testi non inviati a LM Studio perché già in calcolo")
+                .register(registry);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /** Testi non inviati a LM Studio perché già in calcolo per un'altra richiesta. */
+    public long coalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    public long weightedSizeBytes() {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+
+    public MappedEmbeddingStore diskStore() {
+        return diskStore;
+    }
+
+    public long maxSizeBytes() {
+        return cache.policy().eviction()
+                .map(Policy.Eviction::getMaximum)
+                .orElse(0L);
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private String resolveModel(EmbeddingOptions options) {
+        if (options != null && options.getModel() != null) {
+            return options.getModel();
+        }
+        return defaultModelName;
+    }
+
+    static String cacheKey(String model, String text) {
+        return model + '\u0000' + normalize(text);
+    }
+
+    /**
+     * Lowercase + trim, con in più il collasso degli spazi interni:
+     * "Orari  ufficio" e "orari ufficio" condividono lo stesso embedding.
+     */
+    static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = !sb.isEmpty();
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static int weigh(String key, float[] vector) {
+        long bytes = (long) vector.length * Float.BYTES + (long) key.length() * 2 + ENTRY_OVERHEAD_BYTES;
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+}
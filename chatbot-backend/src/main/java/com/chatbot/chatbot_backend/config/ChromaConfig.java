@@ -1,38 +1,52 @@
 package com.chatbot.chatbot_backend.config;
 
+import com.chatbot.chatbot_backend.tenancy.ShardStoreFactory;
 import org.springframework.ai.chroma.vectorstore.ChromaApi;
 import org.springframework.ai.chroma.vectorstore.ChromaVectorStore;
-import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestClient;
+import reactor.netty.http.HttpProtocol;
 
+import java.time.Duration;
+import java.util.List;
+
+// Backend vettoriale di default; app.vectorstore.backend=hnsw lo sostituisce con HnswConfig
 @Configuration
+@ConditionalOnProperty(name = "app.vectorstore.backend", havingValue = "chroma", matchIfMissing = true)
 public class ChromaConfig {
 
-    // Bean: client HTTP con timeout espliciti
+    // Client HTTP sul pool condiviso, con timeout propri. Non è un bean RestClient.Builder:
+    // sostituirebbe quello di Spring Boot usato anche da Spring AI per LM Studio
     @Bean
-    public RestClient.Builder chromaRestClientBuilder() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(5000);  // 5s per connettersi
-        factory.setReadTimeout(10000);    // 10s per leggere la risposta
-        return RestClient.builder().requestFactory(factory);
-    }
-
-    @Bean
-    public ChromaApi chromaApi(RestClient.Builder chromaRestClientBuilder) {
+    public ChromaApi chromaApi(DownstreamHttpTransport transport,
+                               @Value("${app.vectorstore.chroma.url:http://localhost:8000}") String chromaUrl,
+                               @Value("${app.http.chroma.read-timeout:10s}") Duration readTimeout,
+                               @Value("${app.http.chroma.protocols:HTTP11}") List<HttpProtocol> protocols) {
         return ChromaApi.builder()
-                .baseUrl("http://localhost:8000")
-                .restClientBuilder(chromaRestClientBuilder)
+                .baseUrl(chromaUrl)
+                .restClientBuilder(RestClient.builder().requestFactory(transport.requestFactory(readTimeout, protocols)))
                 .build();
     }
 
+    // Embedding delle query e dei chunk sempre tramite la cache (CacheConfig)
     @Bean
-    public ChromaVectorStore vectorStore(ChromaApi chromaApi, EmbeddingModel embeddingModel) {
+    public ChromaVectorStore vectorStore(ChromaApi chromaApi, CachingEmbeddingModel embeddingModel) {
         return ChromaVectorStore.builder(chromaApi, embeddingModel)
                 .collectionName("documents")
                 .initializeSchema(true)
                 .build();
     }
+
+    // Collection degli altri tenant/workspace, create su Chroma al primo uso (ShardRouter)
+    @Bean
+    public ShardStoreFactory shardStoreFactory(ChromaApi chromaApi, CachingEmbeddingModel embeddingModel) {
+        return shard -> ChromaVectorStore.builder(chromaApi, embeddingModel)
+                .collectionName(shard.collectionName())
+                .initializeSchema(true)
+                .initializeImmediately(true)
+                .build();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package com.chatbot.chatbot_backend.config;
+
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ReactorClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Trasporto HTTP condiviso verso i servizi esterni (LM Studio, Chroma, Tika).
+ *
+ * Un solo pool di connessioni Reactor Netty, separato per host: le connessioni restano
+ * aperte (keep-alive) fino a {@code app.http.pool.max-idle-time} e vengono riusate, così
+ * retrieval, embedding ed estrazione non pagano l'handshake TCP a ogni chiamata.
+ * Ogni servizio (route) ha il proprio timeout di lettura e i propri protocolli
+ * ({@code HTTP11}, {@code H2C} in chiaro, {@code H2} su TLS) sopra lo stesso pool.
+ *
+ * Con Micrometer il pool pubblica per host le connessioni totali, attive, inattive e in
+ * attesa ({@code reactor.netty.connection.provider.*}) e il client i tempi di connessione
+ * e di risposta ({@code reactor.netty.http.client.*}, tag {@code remote.address} e {@code uri}).
+ */
+@Component
+public class DownstreamHttpTransport {
+
+    // Id nei path (collezioni Chroma, job): un solo valore di tag per endpoint
+    private static final Pattern ID_SEGMENT = Pattern.compile("/[0-9a-fA-F-]{16,}(?=/|$)");
+
+    private final ConnectionProvider connectionProvider;
+    private final HttpClient httpClient;
+
+    public DownstreamHttpTransport(@Value("${app.http.pool.max-connections:50}") int maxConnections,
+                                   @Value("${app.http.pool.pending-acquire-timeout:10s}") Duration pendingAcquireTimeout,
+                                   @Value("${app.http.pool.max-idle-time:30s}") Duration maxIdleTime,
+                                   @Value("${app.http.pool.max-life-time:5m}") Duration maxLifeTime,
+                                   @Value("${app.http.connect-timeout:5s}") Duration connectTimeout) {
+        this.connectionProvider = ConnectionProvider.builder("downstream")
+                .maxConnections(maxConnections)                 // per host
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                // Chiude in background le connessioni inattive: non si scopre al primo
+                // utilizzo che il server le ha già chiuse
+                .evictInBackground(maxIdleTime)
+                .metrics(true)
+                .build();
+        this.httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .keepAlive(true)
+                .metrics(true, DownstreamHttpTransport::uriTag);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        connectionProvider.disposeLater().block(Duration.ofSeconds(5));
+    }
+
+    // ─── PUBLIC API ──────────────────────────────────────────────────────────
+
+    /** Client bloccante (RestClient) per una route, sul pool condiviso. */
+    public ClientHttpRequestFactory requestFactory(Duration readTimeout, List<HttpProtocol> protocols) {
+        ReactorClientHttpRequestFactory factory = new ReactorClientHttpRequestFactory(route(protocols));
+        factory.setReadTimeout(readTimeout);
+        return factory;
+    }
+
+    /**
+     * Client reattivo (WebClient) per una route, sul pool condiviso.
+     * {@code responseTimeout} è l'attesa massima tra due letture: per uno stream è la
+     * pausa massima tra due chunk, non la durata dell'intera risposta.
+     */
+    public ClientHttpConnector connector(Duration responseTimeout, List<HttpProtocol> protocols) {
+        return new ReactorClientHttpConnector(route(protocols).responseTimeout(responseTimeout));
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private HttpClient route(List<HttpProtocol> protocols) {
+        return protocols.isEmpty() ? httpClient : httpClient.protocol(protocols.toArray(HttpProtocol[]::new));
+    }
+
+    static String uriTag(String uri) {
+        int query = uri.indexOf('?');
+        String path = query >= 0 ? uri.substring(0, query) : uri;
+        return ID_SEGMENT.matcher(path).replaceAll("/{id}");
+    }
+}
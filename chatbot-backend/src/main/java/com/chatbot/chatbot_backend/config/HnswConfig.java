@@ -0,0 +1,60 @@
+package com.chatbot.chatbot_backend.config;
+
+import com.chatbot.chatbot_backend.tenancy.ShardStoreFactory;
+import com.chatbot.chatbot_backend.vectorstore.HnswVectorStore;
+import com.chatbot.chatbot_backend.vectorstore.Quantization;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+// Backend vettoriale in-process, alternativo a ChromaConfig
+@Configuration
+@ConditionalOnProperty(name = "app.vectorstore.backend", havingValue = "hnsw")
+public class HnswConfig {
+
+    // Embedding dei chunk e delle query sempre tramite la cache (CacheConfig)
+    @Bean
+    public HnswVectorStore vectorStore(CachingEmbeddingModel embeddingModel,
+                                       @Value("${app.vectorstore.hnsw.path}") Path path,
+                                       @Value("${app.vectorstore.hnsw.m:16}") int m,
+                                       @Value("${app.vectorstore.hnsw.ef-construction:100}") int efConstruction,
+                                       @Value("${app.vectorstore.hnsw.ef-search:64}") int efSearch,
+                                       @Value("${app.vectorstore.hnsw.snapshot-interval:30s}") Duration snapshotInterval,
+                                       @Value("${app.vectorstore.hnsw.quantization:NONE}") Quantization quantization,
+                                       @Value("${app.vectorstore.hnsw.oversampling:4}") int oversampling) throws IOException {
+        return new HnswVectorStore(embeddingModel, path, m, efConstruction, efSearch, snapshotInterval,
+                quantization, oversampling);
+    }
+
+    // Un indice (e uno snapshot) per tenant/workspace accanto a quello di default:
+    // hnsw-index.bin → hnsw-index-<tenant>-<workspace>.bin
+    @Bean
+    public ShardStoreFactory shardStoreFactory(CachingEmbeddingModel embeddingModel,
+                                               @Value("${app.vectorstore.hnsw.path}") Path path,
+                                               @Value("${app.vectorstore.hnsw.m:16}") int m,
+                                               @Value("${app.vectorstore.hnsw.ef-construction:100}") int efConstruction,
+                                               @Value("${app.vectorstore.hnsw.ef-search:64}") int efSearch,
+                                               @Value("${app.vectorstore.hnsw.snapshot-interval:30s}") Duration snapshotInterval,
+                                               @Value("${app.vectorstore.hnsw.quantization:NONE}") Quantization quantization,
+                                               @Value("${app.vectorstore.hnsw.oversampling:4}") int oversampling) {
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String stem = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        return shard -> {
+            Path shardPath = path.resolveSibling(stem + "-" + shard.tenant() + "-" + shard.workspace() + extension);
+            try {
+                return new HnswVectorStore(embeddingModel, shardPath, m, efConstruction, efSearch, snapshotInterval,
+                        quantization, oversampling);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Indice HNSW " + shardPath + " non leggibile", e);
+            }
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package com.chatbot.chatbot_backend.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.restclient.RestClientCustomizer;
+import org.springframework.boot.webclient.WebClientCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.netty.http.HttpProtocol;
+
+import java.time.Duration;
+import java.util.List;
+
+// RestClient e WebClient di Spring Boot (usati da Spring AI per LM Studio) sul pool condiviso
+@Configuration
+public class HttpClientConfig {
+
+    // Chat ed embedding bloccanti: la generazione di una risposta lunga può durare minuti
+    @Bean
+    public RestClientCustomizer llmRestClientCustomizer(DownstreamHttpTransport transport,
+                                                        @Value("${app.http.llm.read-timeout:120s}") Duration readTimeout,
+                                                        @Value("${app.http.llm.protocols:HTTP11}") List<HttpProtocol> protocols) {
+        return builder -> builder.requestFactory(transport.requestFactory(readTimeout, protocols));
+    }
+
+    // Streaming: timeout tra due chunk, la durata totale la limita ChatService
+    @Bean
+    public WebClientCustomizer llmWebClientCustomizer(DownstreamHttpTransport transport,
+                                                      @Value("${app.http.llm.read-timeout:120s}") Duration readTimeout,
+                                                      @Value("${app.http.llm.protocols:HTTP11}") List<HttpProtocol> protocols) {
+        return builder -> builder.clientConnector(transport.connector(readTimeout, protocols));
+    }
+}
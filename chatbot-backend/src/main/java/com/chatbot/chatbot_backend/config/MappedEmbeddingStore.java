@@ -0,0 +1,274 @@
+package com.chatbot.chatbot_backend.config;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Secondo livello della cache embedding, sotto Caffeine: tabella di vettori
+ * a larghezza fissa su un file memory-mapped, sopravvive ai riavvii.
+ *
+ * Layout del file (little endian):
+ *   header  [magic:int][dimensions:int][count:int][reserved:int]
+ *   record  [sha256(chiave):32 byte][dimensions × float]
+ *
+ * I record sono solo appesi in coda; quando il file è pieno la compattazione
+ * conserva i record più recenti spostandoli in testa. I vettori restano fuori
+ * heap: una lettura alloca solo il float[] restituito.
+ */
+@Slf4j
+public class MappedEmbeddingStore implements Closeable {
+
+    private static final int MAGIC = 0x454D4231;       // "EMB1"
+    private static final int HEADER_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+    private static final int OFFSET_DIMENSIONS = 4;
+    private static final int OFFSET_COUNT = 8;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long capacityBytes;
+    private final double retainOnCompaction;
+
+    // primi 8 byte dello SHA-256 → indice del record (l'hash completo è verificato in lettura)
+    private final Map<Long, Integer> index = new ConcurrentHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+
+    private volatile int dimensions;
+    private volatile int count;
+
+    public MappedEmbeddingStore(Path file, long maxBytes, double retainOnCompaction) throws IOException {
+        if (maxBytes <= HEADER_BYTES || maxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Dimensione embedding store non valida: " + maxBytes);
+        }
+        this.file = file;
+        this.capacityBytes = maxBytes;
+        this.retainOnCompaction = retainOnCompaction;
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Il file viene esteso (sparse) fino a maxBytes: nessun remap durante le scritture
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        loadIndex();
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PUBLIC API
+    // ─────────────────────────────────────────────────────────────────────────
+
+    public float[] get(String key) {
+        byte[] hash = sha256(key);
+        lock.readLock().lock();
+        try {
+            Integer record = index.get(prefix(hash));
+            if (record == null || !hashMatches(record, hash)) {
+                misses.increment();
+                return null;
+            }
+            float[] vector = new float[dimensions];
+            int offset = recordOffset(record) + HASH_BYTES;
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = buffer.getFloat(offset + i * Float.BYTES);
+            }
+            hits.increment();
+            return vector;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(String key, float[] vector) {
+        byte[] hash = sha256(key);
+        lock.writeLock().lock();
+        try {
+            if (index.containsKey(prefix(hash))) {
+                return;
+            }
+            if (dimensions == 0) {
+                dimensions = vector.length;
+                buffer.putInt(OFFSET_DIMENSIONS, dimensions);
+            } else if (vector.length != dimensions) {
+                // Modello embedding cambiato: il file va rigenerato (cancellarlo)
+                log.debug("Embedding store: dimensione {} diversa da {}, vettore non persistito",
+                        vector.length, dimensions);
+                return;
+            }
+            if (maxRecords() == 0) {
+                return;                                 // file troppo piccolo per un solo record
+            }
+            if (count >= maxRecords()) {
+                compact();
+            }
+
+            int offset = recordOffset(count);
+            buffer.put(offset, hash);
+            offset += HASH_BYTES;
+            for (float value : vector) {
+                buffer.putFloat(offset, value);
+                offset += Float.BYTES;
+            }
+            index.put(prefix(hash), count);
+            count++;
+            // il contatore nell'header si aggiorna solo dopo il record completo
+            buffer.putInt(OFFSET_COUNT, count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Conserva solo la quota più recente dei record (retainOnCompaction),
+     * spostandoli in testa al file, e ricostruisce l'indice.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            int keep = Math.max(0, Math.min((int) (count * retainOnCompaction), maxRecords() - 1));
+            int from = count - keep;
+            if (from > 0 && keep > 0) {
+                int recordBytes = recordBytes();
+                byte[] chunk = new byte[recordBytes];
+                for (int i = 0; i < keep; i++) {
+                    buffer.get(recordOffset(from + i), chunk);
+                    buffer.put(recordOffset(i), chunk);
+                }
+            }
+            count = keep;
+            buffer.putInt(OFFSET_COUNT, count);
+            buffer.force();
+            rebuildIndex();
+            compactions.increment();
+            log.info("Embedding store compattato: {} record conservati", count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long usedBytes() {
+        return dimensions == 0 ? HEADER_BYTES : recordOffset(count);
+    }
+
+    public long capacityBytes() {
+        return capacityBytes;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long compactionCount() {
+        return compactions.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PRIVATE HELPERS
+    // ─────────────────────────────────────────────────────────────────────────
+
+    private void loadIndex() {
+        int magic = buffer.getInt(0);
+        if (magic != MAGIC) {
+            // File nuovo o formato sconosciuto: si riparte da vuoto
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(OFFSET_DIMENSIONS, 0);
+            buffer.putInt(OFFSET_COUNT, 0);
+            dimensions = 0;
+            count = 0;
+            return;
+        }
+        dimensions = buffer.getInt(OFFSET_DIMENSIONS);
+        count = dimensions == 0 ? 0 : Math.min(buffer.getInt(OFFSET_COUNT), maxRecords());
+        rebuildIndex();
+        log.info("Embedding store caricato da {}: {} vettori (dim {})", file, count, dimensions);
+    }
+
+    private void rebuildIndex() {
+        index.clear();
+        for (int i = 0; i < count; i++) {
+            index.put(buffer.getLong(recordOffset(i)), i);
+        }
+    }
+
+    private boolean hashMatches(int record, byte[] hash) {
+        int offset = recordOffset(record);
+        for (int i = 0; i < HASH_BYTES; i++) {
+            if (buffer.get(offset + i) != hash[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int maxRecords() {
+        return dimensions == 0 ? 0 : (int) ((capacityBytes - HEADER_BYTES) / recordBytes());
+    }
+
+    private int recordBytes() {
+        return HASH_BYTES + dimensions * Float.BYTES;
+    }
+
+    private int recordOffset(int record) {
+        return HEADER_BYTES + record * recordBytes();
+    }
+
+    // Stessa lettura di buffer.getLong(offset) sui primi 8 byte dell'hash
+    private static long prefix(byte[] hash) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (hash[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static byte[] sha256(String key) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+}
@@ -1,17 +1,25 @@
 package com.chatbot.chatbot_backend.document;
 
+import com.chatbot.chatbot_backend.tenancy.Shard;
+import com.chatbot.chatbot_backend.tenancy.TenantScope;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.parameters.RequestBody;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
+import java.net.URI;
+import java.util.List;
 
 @RestController
 @RequestMapping("/api/document")
@@ -19,18 +27,80 @@ import java.io.IOException;
 public class DocumentController {
 
     private final DocumentService documentService;
+    private final IngestionJobRegistry ingestionJobRegistry;
 
     @Operation(summary = "Carica un documento PDF o Excel")
     @RequestBody(content = @Content(mediaType = MediaType.MULTIPART_FORM_DATA_VALUE))
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<DocumentResponse> uploadDocument(
-            @RequestParam("file") MultipartFile file) throws IOException {
+    public ResponseEntity<?> uploadDocument(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "async", defaultValue = "false") boolean async,
+            @RequestParam(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "workspace", required = false) String workspace) throws IOException {
 
         if (file.isEmpty()) {
             throw new IllegalArgumentException("Il file non può essere vuoto");
         }
+        // Senza tenant/workspace: collection storica "documents"
+        Shard shard = TenantScope.of(tenant, workspace).shard();
 
-        DocumentResponse response = documentService.processFile(file);
+        // async=true → 202 con jobId, avanzamento su GET /jobs/{id}
+        if (async) {
+            IngestionJob job = ingestionJobRegistry.submit(file, shard);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/document/jobs/" + job.getId()))
+                    .body(job.toResponse());
+        }
+
+        DocumentResponse response = documentService.processFile(file, shard);
         return ResponseEntity.ok(response);
     }
-}
\ No newline at end of file
+
+    @Operation(summary = "Documenti indicizzati in un workspace")
+    @GetMapping
+    public List<IndexedDocumentResponse> listDocuments(
+            @RequestParam(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "workspace", required = false) String workspace) {
+        return documentService.listDocuments(TenantScope.of(tenant, workspace).shard());
+    }
+
+    @Operation(summary = "Sostituisce un documento: ricalcola solo i chunk modificati")
+    @RequestBody(content = @Content(mediaType = MediaType.MULTIPART_FORM_DATA_VALUE))
+    @PutMapping(value = "/{*source}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<DocumentResponse> replaceDocument(
+            @PathVariable String source,
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "workspace", required = false) String workspace) throws IOException {
+
+        if (file.isEmpty()) {
+            throw new IllegalArgumentException("Il file non può essere vuoto");
+        }
+        return documentService.replaceFile(file, sourceName(source), TenantScope.of(tenant, workspace).shard())
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @Operation(summary = "Rimuove un documento e tutti i suoi chunk")
+    @DeleteMapping("/{*source}")
+    public ResponseEntity<Void> deleteDocument(
+            @PathVariable String source,
+            @RequestParam(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "workspace", required = false) String workspace) {
+        boolean removed = documentService.deleteDocument(TenantScope.of(tenant, workspace).shard(), sourceName(source));
+        return removed ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    @Operation(summary = "Stato di un'ingestion asincrona")
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<IngestionJobResponse> getJob(@PathVariable String jobId) {
+        return ingestionJobRegistry.find(jobId)
+                .map(job -> ResponseEntity.ok(job.toResponse()))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    // {*source}: anche percorsi con '/' (file di un archivio caricato in blocco), con '/' iniziale
+    private static String sourceName(String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+}
@@ -0,0 +1,9 @@
+package com.chatbot.chatbot_backend.document;
+
+/**
+ * Pubblicato da DocumentService quando una (nuova versione di una) sorgente
+ * è stata salvata in Chroma o rimossa: chi tiene risposte derivate da quella sorgente
+ * deve considerarle obsolete.
+ */
+public record DocumentIngestedEvent(String source) {
+}
@@ -3,15 +3,18 @@ package com.chatbot.chatbot_backend.document;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
-import java.util.List;
-
 @Data
 @AllArgsConstructor
 public class DocumentResponse {
 
+    // Solo riepilogo: testo estratto e chunk restano lato server
+
     private String fileName;
     private String fileType;
-    private String extractedText;
-    private List<String> chunks;
+    private int chunkCount;
+    private int charCount;
+    // Nuova versione di un file già indicizzato: chunk invariati e chunk obsoleti rimossi
+    private int chunksReused;
+    private int chunksRemoved;
     private boolean success;
-}
\ No newline at end of file
+}
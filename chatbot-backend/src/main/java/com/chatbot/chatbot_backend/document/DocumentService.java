@@ -1,31 +1,52 @@
 package com.chatbot.chatbot_backend.document;
 
+import com.chatbot.chatbot_backend.concurrency.Downstream;
+import com.chatbot.chatbot_backend.concurrency.DownstreamLimiter;
+import com.chatbot.chatbot_backend.config.DownstreamHttpTransport;
+import com.chatbot.chatbot_backend.observability.PipelineObservations;
+import com.chatbot.chatbot_backend.retrieval.Bm25Index;
+import com.chatbot.chatbot_backend.tenancy.Shard;
+import com.chatbot.chatbot_backend.tenancy.ShardRouter;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.ai.vectorstore.SearchRequest;
+import reactor.netty.http.HttpProtocol;
 
+import java.io.FilterReader;
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class DocumentService {
 
+    private static final String EXTRACT_SPLIT = PipelineObservations.INGESTION + ".extract.split";
+
     @Value("${app.tika.server-url}")
     private String tikaServerUrl;
 
@@ -35,250 +56,348 @@ public class DocumentService {
     @Value("${app.rag.chunk-overlap}")
     private int chunkOverlap;
 
+    // Confini dei chunk ancorati al contenuto: una modifica rinnova solo i chunk vicini
+    @Value("${app.rag.chunk-anchors:false}")
+    private boolean chunkAnchors;
+
+    // Id per chiamata di delete al vector store (Chroma: una richiesta HTTP per batch)
+    @Value("${app.ingestion.delete-batch-size:256}")
+    private int deleteBatchSize;
+
     // FIX-3: timeout esplicito — evita che il thread resti bloccato
     // indefinitamente se Tika Server è irraggiungibile
-    private final HttpClient httpClient = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofSeconds(5))
-            .build();
-
-    private final VectorStore vectorStore;
+    @Value("${app.http.tika.read-timeout:30s}")
+    private Duration tikaReadTimeout;
+
+    @Value("${app.http.tika.protocols:HTTP11}")
+    private List<HttpProtocol> tikaProtocols;
+
+    // Pool di connessioni condiviso (DownstreamHttpTransport): keep-alive tra un upload e l'altro
+    private RestClient tikaClient;
+
+    private final ShardRouter shardRouter;
+    private final IngestionPipeline ingestionPipeline;
+    private final IngestionIndex ingestionIndex;
+    private final Bm25Index bm25Index;
+    private final ApplicationEventPublisher eventPublisher;
+    private final DownstreamLimiter downstreamLimiter;
+    private final PipelineObservations observations;
+    private final DownstreamHttpTransport httpTransport;
+
+    @PostConstruct
+    void initTikaClient() {
+        tikaClient = RestClient.builder()
+                .baseUrl(tikaServerUrl)
+                .requestFactory(httpTransport.requestFactory(tikaReadTimeout, tikaProtocols))
+                .build();
+    }
 
     // ─────────────────────────────────────────────────────────────────────────
     // PUBLIC API
     // ─────────────────────────────────────────────────────────────────────────
 
-    public DocumentResponse processFile(MultipartFile file) throws IOException {
-        String filename = file.getOriginalFilename();
+    public DocumentResponse processFile(MultipartFile file, Shard shard) throws IOException {
+        IngestionJob job = new IngestionJob(
+                UUID.randomUUID().toString(), file.getOriginalFilename(), file.getContentType());
+        return processFile(file.getOriginalFilename(), file.getContentType(), file, job, shard);
+    }
+
+    /**
+     * Pipeline completa su un contenuto generico (upload multipart o file temporaneo
+     * di un job asincrono); ogni stadio aggiorna il job per l'API di avanzamento.
+     *
+     * Il controllo duplicati usa l'IngestionIndex locale (SHA-256 del contenuto)
+     * invece di una similaritySearch su Chroma: nessun embedding e nessun falso
+     * negativo quando Chroma è lento o irraggiungibile.
+     *
+     * I chunk vanno nella collection dello shard (tenant/workspace), creata al primo
+     * upload, entro la quota del tenant.
+     */
+    public DocumentResponse processFile(String filename, String contentType, InputStreamSource content,
+                                        IngestionJob job, Shard shard) throws IOException {
         log.debug("Processing file via Tika Server: {}", filename);
 
-        if (isFileAlreadyIndexed(filename)) {
-            throw new IllegalStateException(
-                    "Il file '" + filename + "' è già presente in memoria. " +
-                            "Rimuoverlo prima di caricarlo nuovamente."
-            );
+        // 0. Hash del contenuto: stesso file già indicizzato → 409 senza estrazione né embedding
+        String fileHash;
+        try (InputStream in = content.getInputStream()) {
+            fileHash = IngestionIndex.sha256(in);
+        }
+        IngestionIndex.Entry previous = ingestionIndex.begin(shard, fileHash, filename).orElse(null);
+        try {
+            return ingest(filename, contentType, content, job, shard, fileHash, previous);
+        } finally {
+            // Unico rilascio della riserva, anche dopo complete(): fino a qui nessun'altra
+            // ingestion o rimozione della stessa sorgente tocca i chunk della versione precedente
+            ingestionIndex.release(shard, fileHash, filename);
         }
+    }
 
-        // 1. Estrazione testo via Tika
-        String rawText = extractTextViaTika(file);
+    /**
+     * Nuova versione di un file già indicizzato, con il nome della sorgente esistente
+     * (non quello del file caricato): vengono calcolati gli embedding solo dei chunk
+     * con testo nuovo, quelli invariati mantengono id e vettore.
+     *
+     * @return vuoto se la sorgente non è indicizzata nello shard
+     */
+    public Optional<DocumentResponse> replaceFile(MultipartFile file, String source, Shard shard) throws IOException {
+        if (ingestionIndex.find(shard, source).isEmpty()) {
+            return Optional.empty();
+        }
+        IngestionJob job = new IngestionJob(UUID.randomUUID().toString(), source, file.getContentType());
+        return Optional.of(processFile(source, file.getContentType(), file, job, shard));
+    }
 
-        // Pulizia artefatti Word/PDF prima del chunking
-        String extractedText = cleanTikaOutput(rawText);
-        log.debug("Testo pulito: {} char (raw: {} char)", extractedText.length(), rawText.length());
+    public List<IndexedDocumentResponse> listDocuments(Shard shard) {
+        return ingestionIndex.entries(shard).stream()
+                .map(entry -> new IndexedDocumentResponse(
+                        entry.fileName(),
+                        entry.fileType(),
+                        entry.chunks().size(),
+                        entry.indexedAt().toString(),
+                        shard.tenant(),
+                        shard.workspace()))
+                .toList();
+    }
 
-        if (extractedText.isBlank()) {
+    /**
+     * Rimuove i chunk di una sorgente dal vector store dello shard e dall'indice BM25,
+     * poi la voce dall'indice di ingestion. Se il vector store fallisce a metà la voce
+     * resta: ripetere la richiesta rimuove i chunk rimasti.
+     *
+     * @return false se la sorgente non è indicizzata nello shard
+     */
+    public boolean deleteDocument(Shard shard, String source) {
+        IngestionIndex.Entry entry = ingestionIndex.beginRemoval(shard, source).orElse(null);
+        if (entry == null) {
+            return false;
+        }
+        try {
+            List<String> ids = entry.chunks().stream().map(IngestionIndex.Chunk::id).toList();
+            deleteChunks(shardRouter.store(shard), ids);
+            ingestionIndex.completeRemoval(entry);
+        } catch (RuntimeException e) {
+            ingestionIndex.releaseRemoval(shard, source);
+            throw e;
+        }
+        eventPublisher.publishEvent(new DocumentIngestedEvent(source));
+        log.info("Rimosso '{}' da {}: {} chunk", source, shard.key(), entry.chunks().size());
+        return true;
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PRIVATE HELPERS
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Estrazione, pulizia e chunking avvengono in streaming mentre Tika risponde:
+     * i chunk pronti partono subito verso embedding/upsert (IngestionPipeline).
+     * Se esiste una versione precedente dello stesso file, i chunk con testo
+     * identico mantengono il loro id in Chroma e non vengono ricalcolati.
+     * Oltre la quota di chunk del tenant l'ingestion si interrompe e i chunk già
+     * salvati vengono rimossi.
+     */
+    private DocumentResponse ingest(String filename, String contentType, InputStreamSource content,
+                                    IngestionJob job, Shard shard, String fileHash,
+                                    IngestionIndex.Entry previous) throws IOException {
+        int chunkBudget = shardRouter.chunkBudget(shard, previous != null ? previous.chunks().size() : 0);
+        VectorStore vectorStore = shardRouter.store(shard);
+
+        // SHA-256 testo → id dei chunk della versione precedente (testi ripetuti = più id)
+        Map<String, Deque<String>> reusable = new HashMap<>();
+        if (previous != null) {
+            for (IngestionIndex.Chunk chunk : previous.chunks()) {
+                reusable.computeIfAbsent(chunk.hash(), k -> new ArrayDeque<>()).add(chunk.id());
+            }
+        }
+        List<IngestionIndex.Chunk> chunks = new ArrayList<>();
+
+        // 1-2. Estrazione via Tika + pulizia + chunking, chunk per chunk
+        job.stage(IngestionJob.Stage.EXTRACTING);
+        IngestionPipeline.Writer writer = ingestionPipeline.newWriter(vectorStore, filename, job);
+        AtomicLong handoffNanos = new AtomicLong();     // tempo nel sink: consegna alla pipeline di embedding
+        StreamingTextChunker chunker = new StreamingTextChunker(chunkSize, chunkOverlap, chunkAnchors, text -> {
+            long handoffStart = System.nanoTime();
+            if (chunks.size() == chunkBudget) {
+                throw new IllegalStateException("'" + filename + "' supera la quota del tenant '"
+                        + shard.tenant() + "'");
+            }
+            String hash = IngestionIndex.sha256(text);
+            Deque<String> ids = reusable.get(hash);
+            String reusedId = ids != null ? ids.poll() : null;
+            if (reusedId != null) {
+                writer.reuse();
+                chunks.add(new IngestionIndex.Chunk(reusedId, hash));
+            } else {
+                Document document = toDocument(text, filename, contentType, shard);
+                writer.add(document);
+                chunks.add(new IngestionIndex.Chunk(document.getId(), hash));
+            }
+            handoffNanos.addAndGet(System.nanoTime() - handoffStart);
+        });
+
+        long extractedChars;
+        try {
+            extractedChars = observations.ingestion("extract",
+                    () -> extractTextViaTika(filename, content, chunker, handoffNanos));
+        } catch (IOException | RuntimeException e) {
+            writer.abort(e);
+            throw e;
+        }
+        log.debug("Testo estratto: {} char, {} chunk", extractedChars, chunker.chunkCount());
+
+        if (chunker.chunkCount() == 0) {
             throw new IllegalStateException(
                     "Nessun testo estraibile dal file: " + filename
             );
         }
 
-        // 2. Chunking semantico del testo
-        List<String> chunks = chunkText(extractedText);
-        log.debug("Testo diviso in {} chunk", chunks.size());
+        // 3. Attesa degli ultimi micro-batch di embedding + salvataggio in ChromaDB
+        job.stage(IngestionJob.Stage.EMBEDDING);
+        int stored = writer.finish();
+        log.debug("Salvati {} chunk in ChromaDB, {} riutilizzati", stored, writer.chunksReused());
 
-        // 3. Salvataggio chunk in ChromaDB con embedding
-        saveToVectorStore(chunks, filename, file.getContentType());
-        log.debug("Salvati {} chunk in ChromaDB", chunks.size());
+        // 4. La nuova versione diventa quella di riferimento; i chunk spariti vengono rimossi
+        ingestionIndex.complete(new IngestionIndex.Entry(
+                fileHash, filename, contentType, Instant.now(), List.copyOf(chunks), shard.key()));
+        int removed = removeStaleChunks(vectorStore, filename, reusable);
+        eventPublisher.publishEvent(new DocumentIngestedEvent(filename));
 
         return new DocumentResponse(
                 filename,
-                file.getContentType(),
-                extractedText.trim(),
-                chunks,
+                contentType,
+                stored + writer.chunksReused(),
+                (int) Math.min(extractedChars, Integer.MAX_VALUE),
+                writer.chunksReused(),
+                removed,
                 true
         );
     }
 
-    // ─────────────────────────────────────────────────────────────────────────
-    // PRIVATE HELPERS
-    // ─────────────────────────────────────────────────────────────────────────
-
-    /**
-     * Verifica se un file è già indicizzato filtrando per source == filename.
-     * FIX-1 (Security): il filename viene sanitizzato prima di essere interpolato
-     * nella filterExpression per prevenire injection sul parser di ChromaDB.
-     */
-    private boolean isFileAlreadyIndexed(String filename) {
+    private int removeStaleChunks(VectorStore vectorStore, String filename, Map<String, Deque<String>> reusable) {
+        List<String> stale = reusable.values().stream()
+                .flatMap(Deque::stream)
+                .toList();
+        if (stale.isEmpty()) {
+            return 0;
+        }
         try {
-            String safeFilename = sanitizeFilterValue(filename);
-            List<Document> existing = vectorStore.similaritySearch(
-                    SearchRequest.builder()
-                            .query(filename)
-                            .topK(1)
-                            .similarityThreshold(0.0)
-                            .filterExpression("source == '" + safeFilename + "'")
-                            .build()
-            );
-            return !existing.isEmpty();
+            deleteChunks(vectorStore, stale);
+            log.debug("Nuova versione di '{}': rimossi {} chunk obsoleti", filename, stale.size());
         } catch (Exception e) {
-            log.warn("Impossibile verificare duplicato per '{}': {}", filename, e.getMessage());
-            return false;
+            log.error("Rimozione chunk obsoleti di '{}' non riuscita: {}", filename, e.getMessage());
         }
+        return stale.size();
     }
 
-    /**
-     * Estrae il testo grezzo dal file tramite Apache Tika Server.
-     * FIX-3: timeout di 30s sulla singola richiesta per evitare blocchi prolungati.
-     */
-    private String extractTextViaTika(MultipartFile file) throws IOException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(tikaServerUrl + "/tika"))
-                .header("Accept", "text/plain")
-                .header("Content-Type", "application/octet-stream")
-                .timeout(Duration.ofSeconds(30)) // FIX-3: timeout per-request
-                .PUT(HttpRequest.BodyPublishers.ofByteArray(file.getBytes()))
-                .build();
-
-        try {
-            HttpResponse<String> response = httpClient.send(
-                    request,
-                    HttpResponse.BodyHandlers.ofString()
-            );
-
-            if (response.statusCode() != 200) {
-                throw new IllegalStateException(
-                        "Tika Server error - status: " + response.statusCode()
-                );
-            }
-
-            log.debug("Tika extraction OK: {}", file.getOriginalFilename());
-            return response.body();
-
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IllegalStateException("Richiesta a Tika Server interrotta", e);
+    // A batch: una sorgente con migliaia di chunk non diventa un'unica richiesta enorme
+    private void deleteChunks(VectorStore vectorStore, List<String> ids) {
+        bm25Index.remove(ids);
+        for (int from = 0; from < ids.size(); from += deleteBatchSize) {
+            vectorStore.delete(ids.subList(from, Math.min(from + deleteBatchSize, ids.size())));
         }
     }
 
     /**
-     * Rimuove gli artefatti prodotti da Tika sui file Word/PDF:
-     *   - tag immagine:  [image: qualcosa]
-     *   - bookmark Word: [bookmark: _Toc...]
-     *   - watermark AI:  "AI-generated content may be incorrect."
-     *   - righe vuote multiple e righe prive di contenuto alfanumerico
+     * Invia il file a Apache Tika Server in streaming e passa la risposta testuale,
+     * letta in modo incrementale, al chunker: né il binario né il testo completo
+     * vengono mai caricati interamente in memoria.
+     * FIX-3: timeout di lettura ({@code app.http.tika.read-timeout}) per evitare blocchi prolungati.
      *
-     * Riduce il token count del prompt di circa il 30%, migliorando
-     * la qualità del retrieval e la velocità del prompt processing.
-     */
-    private String cleanTikaOutput(String raw) {
-        return raw
-                .replaceAll("\\[image:[^]]*]", "")
-                .replaceAll("\\[bookmark:[^]]*]", "")
-                .replaceAll("AI-generated content may be incorrect\\.?]?", "")
-                .replaceAll("\n{3,}", "\n\n")
-                .replaceAll("(?m)^[^a-zA-Z0-9àèìòùÀÈÌÒÙ\\s]*$", "")
-                .strip();
-    }
-
-    /**
-     * Chunking semantico a cascata:
-     *   1. Divide per paragrafo (\n\n)
-     *   2. Se un paragrafo supera chunkSize, lo divide per frasi (. ! ?)
-     *   3. Aggrega le unità piccole in chunk fino a chunkSize con overlap semantico
+     * Estrazione, pulizia e chunking sono interlacciati sullo stesso stream: il tempo
+     * dello stadio viene diviso in attesa di Tika (risposta + letture) e pulizia/chunking
+     * (il resto, esclusa la consegna dei chunk alla pipeline di embedding).
+     *
+     * @return numero di caratteri estratti
      */
-    private List<String> chunkText(String text) {
-        String normalized = text
-                .replaceAll("\r\n", "\n")
-                .replaceAll("\n{3,}", "\n\n")
-                .strip();
-
-        List<String> paragraphs = Arrays.stream(normalized.split("\n\n"))
-                .map(String::strip)
-                .filter(p -> !p.isBlank())
-                .toList();
-
-        List<String> sentences = new ArrayList<>();
-        for (String paragraph : paragraphs) {
-            if (paragraph.length() <= chunkSize) {
-                sentences.add(paragraph);
-            } else {
-                String[] parts = paragraph.split("(?<=[.!?])\\s+");
-                sentences.addAll(Arrays.asList(parts));
+    private long extractTextViaTika(String filename, InputStreamSource content,
+                                    StreamingTextChunker chunker, AtomicLong handoffNanos) throws IOException {
+        // Il permesso copre anche la lettura: la connessione a Tika resta aperta fino alla fine
+        try (DownstreamLimiter.Permit ignored = downstreamLimiter.acquire(Downstream.TIKA)) {
+            long requestStart = System.nanoTime();
+            return tikaClient.put()
+                    .uri("/tika")
+                    .header("Accept", "text/plain")
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .body(out -> {
+                        try (InputStream in = content.getInputStream()) {
+                            in.transferTo(out);
+                        }
+                    })
+                    .exchange((request, response) -> {
+                        long responseNanos = System.nanoTime() - requestStart;
+                        try (TimedReader reader = new TimedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+                            if (response.getStatusCode().value() != 200) {
+                                throw new IllegalStateException(
+                                        "Tika Server error - status: " + response.getStatusCode().value()
+                                );
+                            }
+
+                            long processStart = System.nanoTime();
+                            long chars = chunker.process(reader);
+                            long processNanos = System.nanoTime() - processStart;
+                            observations.record(EXTRACT_SPLIT, "tika", responseNanos + reader.readNanos());
+                            observations.record(EXTRACT_SPLIT, "clean-chunk",
+                                    Math.max(0, processNanos - reader.readNanos() - handoffNanos.get()));
+                            log.debug("Tika extraction OK: {}", filename);
+                            return chars;
+                        }
+                    });
+
+        } catch (ResourceAccessException e) {
+            // Errore di I/O verso Tika o durante la lettura: stessa eccezione di prima del pool
+            if (e.getCause() instanceof IOException io) {
+                throw io;
             }
+            throw e;
         }
-
-        return aggregateIntoChunks(sentences);
     }
 
-    /**
-     * Aggrega le unità di testo in chunk con overlap semantico basato
-     * su frasi complete (non su caratteri arbitrari).
-     */
-    private List<String> aggregateIntoChunks(List<String> units) {
-        List<String> chunks = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        List<String> currentUnits = new ArrayList<>();
-
-        for (String unit : units) {
-            boolean wouldExceed = (current.length() + unit.length() + 1) > chunkSize;
-
-            if (wouldExceed && !current.isEmpty()) {
-                // 1. Salva il chunk corrente
-                String chunk = current.toString().strip();
-                if (!chunk.isBlank()) {
-                    chunks.add(chunk);
-                }
-
-                // 2. Calcola quante unità tenere come overlap
-                //    scorrendo all'indietro finché non accumulo chunkOverlap caratteri
-                int overlapChars = 0;
-                int overlapStart = currentUnits.size(); // parte dalla fine
-
-                for (int i = currentUnits.size() - 1; i >= 0; i--) {
-                    overlapChars += currentUnits.get(i).length();
-                    overlapStart = i;
-                    if (overlapChars >= chunkOverlap) {
-                        break;
-                    }
-                }
-
-                // 3. Ricostruisce current con il for classico (no lambda → no errore)
-                current = new StringBuilder();
-                for (int i = overlapStart; i < currentUnits.size(); i++) {
-                    current.append(currentUnits.get(i)).append(" ");
-                }
-
-                // 4. Aggiorna la lista delle unità correnti tenendo solo l'overlap
-                currentUnits = new ArrayList<>(currentUnits.subList(overlapStart, currentUnits.size()));
-            }
+    // Tempo speso dentro read(): attesa dei byte da Tika + decodifica UTF-8
+    private static final class TimedReader extends FilterReader {
 
-            current.append(unit).append(" ");
-            currentUnits.add(unit);
-        }
+        private long readNanos;
 
-        // Ultimo chunk residuo
-        String last = current.toString().strip();
-        if (!last.isBlank()) {
-            chunks.add(last);
+        private TimedReader(Reader in) {
+            super(in);
         }
 
-        return chunks;
-    }
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
 
-    /**
-     * Converte i chunk in Document objects con metadata e li salva in ChromaDB.
-     */
-    private void saveToVectorStore(List<String> chunks, String filename, String contentType) {
-        List<Document> documents = chunks.stream()
-                .map(chunk -> new Document(
-                        chunk,
-                        Map.of(
-                                "source",   filename,
-                                "chunkId",  UUID.randomUUID().toString(),
-                                "fileType", contentType != null ? contentType : "unknown"
-                        )
-                ))
-                .toList();
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(buffer, offset, length);
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
 
-        vectorStore.add(documents);
+        private long readNanos() {
+            return readNanos;
+        }
     }
 
-    /**
-     * FIX-1 (Security): sanitizza i valori interpolati nelle filterExpression
-     * di ChromaDB, che usa un parser simil-SQL sensibile agli apici singoli.
-     * Escape dell'apice singolo → \' per prevenire injection sul filtro.
-     */
-    private String sanitizeFilterValue(String value) {
-        if (value == null) return "";
-        return value.replace("'", "\\'");
+    // id del Document = chunkId: è l'id che l'indice usa per riuso e rimozione
+    private Document toDocument(String chunk, String filename, String contentType, Shard shard) {
+        String chunkId = UUID.randomUUID().toString();
+        return new Document(
+                chunkId,
+                chunk,
+                Map.of(
+                        "source",   filename,
+                        "chunkId",  chunkId,
+                        "fileType", contentType != null ? contentType : "unknown",
+                        "shard",    shard.key()
+                )
+        );
     }
-}
\ No newline at end of file
+}
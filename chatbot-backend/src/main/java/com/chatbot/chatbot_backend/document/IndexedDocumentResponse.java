@@ -0,0 +1,16 @@
+package com.chatbot.chatbot_backend.document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class IndexedDocumentResponse {
+
+    private String fileName;
+    private String fileType;
+    private int chunkCount;
+    private String indexedAt;
+    private String tenant;
+    private String workspace;
+}
@@ -0,0 +1,459 @@
+package com.chatbot.chatbot_backend.document;
+
+import com.chatbot.chatbot_backend.exceptions.DuplicateDocumentException;
+import com.chatbot.chatbot_backend.tenancy.Shard;
+import com.chatbot.chatbot_backend.tenancy.ShardCatalog;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Indice locale dei file indicizzati, persistito in JSON accanto all'embedding store.
+ *
+ * Chiave primaria: SHA-256 del contenuto del file → lookup O(1) prima dell'estrazione,
+ * senza embedding né round-trip verso Chroma. Per ogni file conserva nome, data
+ * e la lista (id, SHA-256 testo) dei chunk: una nuova versione dello stesso file
+ * riusa i chunk invariati e rimuove solo quelli spariti.
+ *
+ * Ogni file appartiene a uno shard (tenant/workspace): hash e nomi sono unici solo
+ * all'interno dello shard, e l'indice è anche il catalogo degli shard con documenti
+ * (fan-out e quote di ShardRouter). Le voci scritte prima dei tenant sono dello shard
+ * di default.
+ *
+ * Persistenza: il JSON è uno snapshot, le modifiche successive vanno in sola aggiunta in
+ * {@code <path>.journal} (una riga per file indicizzato o rimosso, invece di riscrivere
+ * l'intero indice a ogni file). Quando il journal supera la dimensione dell'indice
+ * (minimo {@value #COMPACT_MIN_CHANGES} righe) viene compattato in un nuovo snapshot;
+ * all'avvio snapshot + journal, e dopo un crash si perde al più la riga in scrittura.
+ *
+ * Thread-safe: mappe e riserve sono protette da un ReentrantLock, il journal è scritto
+ * fuori da quel lock (nell'ordine delle modifiche), così begin()/find() non attendono
+ * l'I/O dei caricamenti concorrenti. La riserva di hash e nome impedisce due ingestion
+ * concorrenti dello stesso file, o un'ingestion e una rimozione.
+ */
+@Slf4j
+@Component
+public class IngestionIndex implements ShardCatalog {
+
+    private static final TypeReference<List<Entry>> ENTRIES = new TypeReference<>() {};
+    private static final int COMPACT_MIN_CHANGES = 1024;
+
+    private final Path file;
+    private final Path journal;
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+
+    // Chiavi qualificate con lo shard: "<tenant>/<workspace>|<hash o nome>"
+    private final Map<String, Entry> byFileHash = new HashMap<>();
+    private final Map<String, String> fileHashBySource = new HashMap<>();
+    private final Set<String> inFlightHashes = new HashSet<>();
+    private final Set<String> inFlightSources = new HashSet<>();
+
+    // Modifiche non ancora nel journal, nell'ordine in cui sono avvenute
+    private final List<Change> unwritten = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Solo I/O: si acquisisce prima di lock, mai dentro
+    private final ReentrantLock journalLock = new ReentrantLock();
+    private BufferedWriter journalWriter;
+    private int journalChanges;
+
+    public IngestionIndex(@Value("${app.ingestion.index.path:./data/ingestion-index.json}") Path file) {
+        this.file = file;
+        this.journal = file.resolveSibling(file.getFileName() + ".journal");
+        load();
+    }
+
+    public record Chunk(String id, String hash) {
+    }
+
+    public record Entry(String fileHash, String fileName, String fileType,
+                        Instant indexedAt, List<Chunk> chunks, String shard) {
+    }
+
+    // Riga del journal: nuova versione di un file, o sua rimozione (solo le chiavi)
+    private record Change(boolean removed, Entry entry) {
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PUBLIC API
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Riserva hash e nome per un'ingestion. Fallisce (→ 409) se lo stesso contenuto
+     * è già indicizzato, anche con un altro nome, o se è già in corso.
+     *
+     * @return la versione precedente dello stesso file, se presente
+     */
+    public Optional<Entry> begin(Shard shard, String fileHash, String fileName) {
+        String hashKey = key(shard.key(), fileHash);
+        String sourceKey = key(shard.key(), fileName);
+        lock.lock();
+        try {
+            Entry existing = byFileHash.get(hashKey);
+            if (existing != null) {
+                throw new DuplicateDocumentException(
+                        "Il contenuto di '" + fileName + "' è già presente in memoria" +
+                                (existing.fileName().equals(fileName) ? "." : " come '" + existing.fileName() + "'.")
+                );
+            }
+            if (inFlightHashes.contains(hashKey) || inFlightSources.contains(sourceKey)) {
+                throw new IllegalStateException("Il file '" + fileName + "' è già in fase di indicizzazione.");
+            }
+            inFlightHashes.add(hashKey);
+            inFlightSources.add(sourceKey);
+
+            return find(shard, fileName);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registra la nuova versione (sostituendo la precedente). La riserva resta fino a
+     * release(): il chiamante rimuove ancora i chunk obsoleti della versione precedente.
+     */
+    public void complete(Entry entry) {
+        lock.lock();
+        try {
+            put(entry);
+            unwritten.add(new Change(false, entry));
+        } finally {
+            lock.unlock();
+        }
+        persist();
+    }
+
+    /** Fine dell'ingestion, riuscita o fallita: rilascio della riserva (una sola volta). */
+    public void release(Shard shard, String fileHash, String fileName) {
+        lock.lock();
+        try {
+            inFlightHashes.remove(key(shard.key(), fileHash));
+            inFlightSources.remove(key(shard.key(), fileName));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Riserva il nome per una rimozione, come begin() per un'ingestion.
+     *
+     * @return la voce da rimuovere, vuoto se il file non è indicizzato nello shard
+     * @throws IllegalStateException se il file è in fase di indicizzazione o rimozione
+     */
+    public Optional<Entry> beginRemoval(Shard shard, String fileName) {
+        String sourceKey = key(shard.key(), fileName);
+        lock.lock();
+        try {
+            Entry entry = find(shard, fileName).orElse(null);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            if (!inFlightSources.add(sourceKey)) {
+                throw new IllegalStateException("Il file '" + fileName + "' è in fase di indicizzazione.");
+            }
+            return Optional.of(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Chunk rimossi: la voce esce dall'indice (e lo shard dal catalogo se era l'ultima). */
+    public void completeRemoval(Entry entry) {
+        lock.lock();
+        try {
+            remove(entry);
+            inFlightSources.remove(key(entry.shard(), entry.fileName()));
+            unwritten.add(new Change(true, new Entry(entry.fileHash(), entry.fileName(), null, null,
+                    List.of(), entry.shard())));
+        } finally {
+            lock.unlock();
+        }
+        persist();
+    }
+
+    /** Rimozione fallita: la voce resta, la riserva viene rilasciata. */
+    public void releaseRemoval(Shard shard, String fileName) {
+        lock.lock();
+        try {
+            inFlightSources.remove(key(shard.key(), fileName));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Optional<Entry> find(Shard shard, String fileName) {
+        lock.lock();
+        try {
+            String hash = fileHashBySource.get(key(shard.key(), fileName));
+            return Optional.ofNullable(hash).map(h -> byFileHash.get(key(shard.key(), h)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** File indicizzati nello shard, in ordine di nome. */
+    public List<Entry> entries(Shard shard) {
+        lock.lock();
+        try {
+            List<Entry> entries = new ArrayList<>();
+            for (Entry entry : byFileHash.values()) {
+                if (entry.shard().equals(shard.key())) {
+                    entries.add(entry);
+                }
+            }
+            entries.sort(Comparator.comparing(Entry::fileName));
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return byFileHash.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Shard> shards(String tenant) {
+        lock.lock();
+        try {
+            List<Shard> shards = new ArrayList<>();
+            for (Entry entry : byFileHash.values()) {
+                Shard shard = Shard.fromKey(entry.shard());
+                if (shard.tenant().equals(tenant) && !shards.contains(shard)) {
+                    shards.add(shard);
+                }
+            }
+            return shards;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int chunkCount(String tenant) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (Entry entry : byFileHash.values()) {
+                if (Shard.fromKey(entry.shard()).tenant().equals(tenant)) {
+                    count += entry.chunks().size();
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        persist();
+        journalLock.lock();
+        try {
+            closeJournal();
+        } catch (IOException e) {
+            log.warn("Chiusura journal {} non riuscita: {}", journal, e.getMessage());
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    public static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static String sha256(String text) {
+        return HexFormat.of().formatHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PRIVATE HELPERS
+    // ─────────────────────────────────────────────────────────────────────────
+
+    private void load() {
+        if (Files.exists(file)) {
+            try {
+                List<Entry> entries = jsonMapper.readValue(file.toFile(), ENTRIES);
+                for (Entry entry : entries) {
+                    put(entry.shard() != null ? entry : new Entry(entry.fileHash(), entry.fileName(),
+                            entry.fileType(), entry.indexedAt(), entry.chunks(), Shard.DEFAULT.key()));
+                }
+            } catch (JacksonException e) {
+                // Indice illeggibile: si riparte da vuoto, i file andranno ricaricati
+                log.warn("Indice ingestion {} non leggibile, ignorato: {}", file, e.getMessage());
+            }
+        }
+        int replayed = replayJournal();
+        log.info("Indice ingestion caricato da {}: {} file ({} modifiche dal journal)",
+                file, byFileHash.size(), replayed);
+        if (replayed > 0) {
+            journalLock.lock();
+            try {
+                compact();                           // si riparte da un journal vuoto
+            } catch (IOException | JacksonException e) {
+                log.error("Compattazione indice ingestion {} non riuscita: {}", file, e.getMessage());
+            } finally {
+                journalLock.unlock();
+            }
+        }
+    }
+
+    private int replayJournal() {
+        if (!Files.exists(journal)) {
+            return 0;
+        }
+        int replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Change change;
+                try {
+                    change = jsonMapper.readValue(line, Change.class);
+                } catch (JacksonException e) {
+                    log.warn("Journal {}: riga {} troncata, ignorata con le successive", journal, replayed + 1);
+                    break;
+                }
+                if (change.removed()) {
+                    remove(change.entry());
+                } else {
+                    put(change.entry());
+                }
+                replayed++;
+            }
+        } catch (IOException e) {
+            log.warn("Journal {} non leggibile, ignorato: {}", journal, e.getMessage());
+        }
+        return replayed;
+    }
+
+    // Sostituisce la versione precedente dello stesso file nello stesso shard
+    private void put(Entry entry) {
+        String previousHash = fileHashBySource.put(key(entry.shard(), entry.fileName()), entry.fileHash());
+        if (previousHash != null) {
+            byFileHash.remove(key(entry.shard(), previousHash));
+        }
+        byFileHash.put(key(entry.shard(), entry.fileHash()), entry);
+    }
+
+    private void remove(Entry entry) {
+        byFileHash.remove(key(entry.shard(), entry.fileHash()));
+        fileHashBySource.remove(key(entry.shard(), entry.fileName()), entry.fileHash());
+    }
+
+    private static String key(String shard, String value) {
+        return shard + "|" + value;
+    }
+
+    // Chiamato dopo ogni modifica, senza lock: scrive le righe ancora in attesa (anche di
+    // altri thread, che le troveranno già scritte) e compatta quando il journal è lungo
+    private void persist() {
+        journalLock.lock();
+        try {
+            List<Change> changes;
+            lock.lock();
+            try {
+                changes = List.copyOf(unwritten);
+                unwritten.clear();
+            } finally {
+                lock.unlock();
+            }
+            if (changes.isEmpty()) {
+                return;
+            }
+            if (journalWriter == null) {
+                journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            for (Change change : changes) {
+                journalWriter.write(jsonMapper.writeValueAsString(change));
+                journalWriter.newLine();
+            }
+            journalWriter.flush();
+            journalChanges += changes.size();
+            if (journalChanges >= Math.max(COMPACT_MIN_CHANGES, size())) {
+                compact();
+            }
+        } catch (IOException | JacksonException e) {
+            log.error("Salvataggio indice ingestion {} non riuscito: {}", journal, e.getMessage());
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    // Con journalLock. Lo snapshot include anche le modifiche non ancora nel journal; se il
+    // processo cade prima della cancellazione del journal, rigiocarlo dà lo stesso stato
+    private void compact() throws IOException {
+        List<Entry> entries;
+        lock.lock();
+        try {
+            entries = List.copyOf(byFileHash.values());
+            unwritten.clear();
+        } finally {
+            lock.unlock();
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        // Scrittura su file temporaneo + move atomico: mai uno snapshot scritto a metà
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        jsonMapper.writeValue(temp.toFile(), entries);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        closeJournal();
+        Files.deleteIfExists(journal);
+        journalChanges = 0;
+    }
+
+    private void closeJournal() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+            journalWriter = null;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.chatbot.chatbot_backend.document;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stato di un'ingestion (asincrona o sincrona), aggiornato dai vari stadi
+ * della pipeline e letto da GET /api/document/jobs/{id}.
+ */
+public class IngestionJob {
+
+    public enum Stage { QUEUED, EXTRACTING, EMBEDDING, COMPLETED, FAILED }
+
+    private final String id;
+    private final String fileName;
+    private final String fileType;
+    private final Instant submittedAt = Instant.now();
+
+    private final AtomicInteger chunksTotal = new AtomicInteger();
+    private final AtomicInteger chunksDone = new AtomicInteger();
+
+    private volatile Stage stage = Stage.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    public IngestionJob(String id, String fileName, String fileType) {
+        this.id = id;
+        this.fileName = fileName;
+        this.fileType = fileType;
+    }
+
+    public void stage(Stage next) {
+        if (startedAt == null && next != Stage.QUEUED) {
+            startedAt = Instant.now();
+        }
+        this.stage = next;
+    }
+
+    public void chunkProduced() {
+        chunksTotal.incrementAndGet();
+    }
+
+    public void chunksStored(int count) {
+        chunksDone.addAndGet(count);
+    }
+
+    public void complete() {
+        finishedAt = Instant.now();
+        stage = Stage.COMPLETED;
+    }
+
+    public void fail(String message) {
+        finishedAt = Instant.now();
+        error = message;
+        stage = Stage.FAILED;
+    }
+
+    public boolean isFinished() {
+        return stage == Stage.COMPLETED || stage == Stage.FAILED;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getFileType() {
+        return fileType;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public int getChunksTotal() {
+        return chunksTotal.get();
+    }
+
+    public int getChunksDone() {
+        return chunksDone.get();
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    /** Chunk salvati al secondo dall'inizio dell'elaborazione. */
+    public double chunksPerSecond() {
+        Instant start = startedAt;
+        if (start == null) {
+            return 0.0;
+        }
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long millis = Math.max(Duration.between(start, end).toMillis(), 1);
+        return chunksDone.get() * 1000.0 / millis;
+    }
+
+    public IngestionJobResponse toResponse() {
+        return new IngestionJobResponse(
+                id,
+                fileName,
+                stage.name(),
+                chunksDone.get(),
+                chunksTotal.get(),
+                Math.round(chunksPerSecond() * 100) / 100.0,
+                submittedAt.toString(),
+                finishedAt != null ? finishedAt.toString() : null,
+                error
+        );
+    }
+}
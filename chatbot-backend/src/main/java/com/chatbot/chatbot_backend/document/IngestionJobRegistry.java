@@ -0,0 +1,108 @@
+package com.chatbot.chatbot_backend.document;
+
+import com.chatbot.chatbot_backend.tenancy.Shard;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingestion asincrona: l'upload viene copiato su un file temporaneo e la
+ * richiesta HTTP termina subito con il jobId; l'elaborazione gira su un
+ * executor limitato (worker + coda) invece che sul thread Tomcat.
+ */
+@Slf4j
+@Component
+public class IngestionJobRegistry {
+
+    private final DocumentService documentService;
+    private final ThreadPoolExecutor executor;
+    private final Duration retention;
+    private final Map<String, IngestionJob> jobs = new ConcurrentHashMap<>();
+
+    public IngestionJobRegistry(DocumentService documentService,
+                                @Value("${app.ingestion.jobs.workers:2}") int workers,
+                                @Value("${app.ingestion.jobs.queue-capacity:20}") int queueCapacity,
+                                @Value("${app.ingestion.jobs.retention:1h}") Duration retention) {
+        this.documentService = documentService;
+        this.retention = retention;
+        this.executor = new ThreadPoolExecutor(
+                workers, workers,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("ingest-job-")
+        );
+    }
+
+    public IngestionJob submit(MultipartFile file, Shard shard) throws IOException {
+        evictExpired();
+
+        // Il multipart viene eliminato a fine richiesta: serve una copia propria
+        Path temp = Files.createTempFile("ingest-", ".upload");
+        file.transferTo(temp);
+
+        IngestionJob job = new IngestionJob(
+                UUID.randomUUID().toString(), file.getOriginalFilename(), file.getContentType());
+        jobs.put(job.getId(), job);
+
+        try {
+            executor.execute(() -> run(job, temp, shard));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            Files.deleteIfExists(temp);
+            throw new IllegalStateException("Troppi documenti in elaborazione, riprovare più tardi");
+        }
+        log.info("Ingestion job {} accodato per '{}'", job.getId(), job.getFileName());
+        return job;
+    }
+
+    public Optional<IngestionJob> find(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(IngestionJob job, Path temp, Shard shard) {
+        try {
+            documentService.processFile(
+                    job.getFileName(), job.getFileType(), new FileSystemResource(temp), job, shard);
+            job.complete();
+            log.info("Ingestion job {} completato: {} chunk", job.getId(), job.getChunksDone());
+        } catch (Exception e) {
+            job.fail(e.getMessage());
+            log.warn("Ingestion job {} fallito: {}", job.getId(), e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                log.warn("Impossibile eliminare il file temporaneo {}", temp);
+            }
+        }
+    }
+
+    // I job conclusi restano consultabili per 'retention', poi vengono rimossi
+    private void evictExpired() {
+        Instant limit = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(limit));
+    }
+}
@@ -0,0 +1,19 @@
+package com.chatbot.chatbot_backend.document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class IngestionJobResponse {
+
+    private String jobId;
+    private String fileName;
+    private String stage;
+    private int chunksDone;
+    private int chunksTotal;
+    private double chunksPerSecond;
+    private String submittedAt;
+    private String finishedAt;
+    private String error;
+}
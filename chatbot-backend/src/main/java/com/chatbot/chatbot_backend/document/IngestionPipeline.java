@@ -0,0 +1,408 @@
+package com.chatbot.chatbot_backend.document;
+
+import com.chatbot.chatbot_backend.concurrency.Priority;
+import com.chatbot.chatbot_backend.config.CachingEmbeddingModel;
+import com.chatbot.chatbot_backend.observability.PipelineObservations;
+import com.chatbot.chatbot_backend.retrieval.Bm25Index;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stadio embed → upsert dell'ingestion, a valle di estrazione/pulizia/chunking.
+ *
+ * I chunk vengono raggruppati in micro-batch da {@code app.ingestion.batch-size}
+ * ed eseguiti da un pool condiviso di {@code app.ingestion.parallelism} worker:
+ * ogni vectorStore.add() resta piccolo e ben sotto il read timeout di Chroma.
+ * Tra chunking e worker c'è una coda limitata: quando è piena il produttore si
+ * blocca (backpressure) invece di accumulare batch in memoria.
+ *
+ * Il VectorStore di destinazione (la collection dello shard del file) è per Writer;
+ * il pool di worker è condiviso tra tutti gli shard.
+ *
+ * L'ultimo batch di ogni file è quasi sempre parziale: con molti file piccoli (es. un
+ * caricamento massivo) sarebbe una chiamata di embedding per file. Se la cache degli
+ * embedding è attiva, i batch finali dei file che terminano insieme vengono uniti per
+ * al più {@code app.ingestion.embed-linger} (fino a batch-size chunk) e calcolati con
+ * una sola chiamata; l'upsert resta per file, con i vettori già in cache.
+ */
+@Slf4j
+@Component
+public class IngestionPipeline {
+
+    // Una sola istanza: il costruttore carica l'encoder BPE di JTokkit (centinaia di ms)
+    private static final TokenCountBatchingStrategy BATCHING = new TokenCountBatchingStrategy();
+
+    private final Bm25Index bm25Index;
+    private final EmbeddingModel embeddingModel;
+    private final PipelineObservations observations;
+    private final boolean embedBeforeUpsert;
+    private final int batchSize;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+    private final Duration embedLinger;
+    private final ScheduledExecutorService lingerScheduler;
+
+    // Batch finali in attesa di essere uniti: un solo embedding per più file
+    private final ReentrantLock tailLock = new ReentrantLock();
+    private List<Tail> tails = new ArrayList<>();
+    private int tailChunks;
+
+    public IngestionPipeline(Bm25Index bm25Index,
+                             EmbeddingModel embeddingModel, PipelineObservations observations,
+                             @Value("${app.ingestion.batch-size:32}") int batchSize,
+                             @Value("${app.ingestion.parallelism:2}") int parallelism,
+                             @Value("${app.ingestion.queue-capacity:4}") int queueCapacity,
+                             @Value("${app.ingestion.embed-linger:20ms}") Duration embedLinger) {
+        this.bm25Index = bm25Index;
+        this.embeddingModel = embeddingModel;
+        this.observations = observations;
+        // Embedding calcolati prima dell'upsert solo se la cache li trattiene: add() li
+        // ritrova lì e i due stadi si misurano separatamente, senza embedding doppi
+        this.embedBeforeUpsert = embeddingModel instanceof CachingEmbeddingModel caching
+                && caching.maxSizeBytes() > 0;
+        this.batchSize = batchSize;
+        // Il limite lo impone il semaforo (batch in esecuzione + batch in coda: oltre,
+        // submit() attende); la coda dell'executor non ha capienza propria perché un worker
+        // rilascia il permesso prima di tornare libero e una coda piena rifiuterebbe il batch
+        this.executor = new ThreadPoolExecutor(
+                parallelism, parallelism,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new CustomizableThreadFactory("ingest-")
+        );
+        this.slots = new Semaphore(parallelism + queueCapacity);
+        this.embedLinger = embedBeforeUpsert ? embedLinger : Duration.ZERO;
+        this.lingerScheduler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("ingest-linger-"));
+    }
+
+    public Writer newWriter(VectorStore vectorStore, String source, IngestionJob job) {
+        return new Writer(vectorStore, source, job);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lingerScheduler.shutdownNow();
+        flushTails();
+        executor.shutdown();
+    }
+
+    // ── Batch finali ─────────────────────────────────────────────────────────
+
+    private record Tail(Writer writer, List<Document> batch, CompletableFuture<Void> future) {
+    }
+
+    private void coalesce(Tail tail) {
+        List<Tail> ready = null;
+        tailLock.lock();
+        try {
+            tails.add(tail);
+            tailChunks += tail.batch().size();
+            if (tailChunks >= batchSize) {
+                ready = takeTails();
+            } else if (tails.size() == 1) {
+                lingerScheduler.schedule(this::flushTails, embedLinger.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            tailLock.unlock();
+        }
+        if (ready != null) {
+            flush(ready);                            // batch pieno: subito, dal produttore
+        }
+    }
+
+    // Allo scadere del linger; un timer rimasto da un gruppo già inviato anticipa solo il successivo
+    private void flushTails() {
+        List<Tail> ready;
+        tailLock.lock();
+        try {
+            ready = takeTails();
+        } finally {
+            tailLock.unlock();
+        }
+        if (!ready.isEmpty()) {
+            flush(ready);
+        }
+    }
+
+    private List<Tail> takeTails() {
+        List<Tail> ready = tails;
+        tails = new ArrayList<>();
+        tailChunks = 0;
+        return ready;
+    }
+
+    private void flush(List<Tail> group) {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            group.forEach(tail -> tail.writer().completeTail(tail, e));
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try (Priority.Scope ignored = Priority.scoped(Priority.BACKGROUND)) {
+                    List<Document> documents = group.stream()
+                            .filter(tail -> tail.writer().failure.get() == null)
+                            .flatMap(tail -> tail.batch().stream())
+                            .toList();
+                    Throwable embedError = null;
+                    try {
+                        if (!documents.isEmpty()) {
+                            embed(documents);
+                            log.debug("Embedding di {} chunk da {} file in una chiamata", documents.size(), group.size());
+                        }
+                    } catch (Throwable t) {
+                        embedError = t;
+                    }
+                    for (Tail tail : group) {
+                        tail.writer().completeTail(tail, embedError);
+                    }
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();                         // solo a executor chiuso (shutdown)
+            group.forEach(tail -> tail.writer().completeTail(tail, e));
+        }
+    }
+
+    private void embed(List<Document> documents) {
+        observations.ingestion("embed", () -> embeddingModel.embed(
+                documents, EmbeddingOptions.builder().build(), BATCHING));
+    }
+
+    /**
+     * Accumula i Document di un singolo file e li invia a micro-batch.
+     * Non thread-safe: un Writer per upload, usato dal solo thread produttore.
+     */
+    public class Writer {
+
+        private final VectorStore vectorStore;
+        private final String source;
+        private final IngestionJob job;
+        private final List<CompletableFuture<Void>> pending = new ArrayList<>();
+        private final List<String> writtenIds = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicInteger chunksStored = new AtomicInteger();
+        private List<Document> buffer = new ArrayList<>();
+        private int chunksSubmitted;
+        private int chunksReused;
+
+        private Writer(VectorStore vectorStore, String source, IngestionJob job) {
+            this.vectorStore = vectorStore;
+            this.source = source;
+            this.job = job;
+        }
+
+        public void add(Document document) {
+            if (failure.get() != null) {
+                return;                              // errore già registrato: lo riporta finish()
+            }
+            buffer.add(document);
+            job.chunkProduced();
+            if (buffer.size() >= batchSize) {
+                submit();
+            }
+        }
+
+        /**
+         * Chunk invariato rispetto alla versione precedente del file: già presente
+         * in Chroma con lo stesso id, conta come salvato senza nuovo embedding.
+         */
+        public void reuse() {
+            if (failure.get() != null) {
+                return;
+            }
+            chunksReused++;
+            job.chunkProduced();
+            job.chunksStored(1);
+        }
+
+        /**
+         * Invia l'ultimo batch parziale e attende tutti i worker.
+         * In caso di errore i chunk già salvati vengono rimossi, così il file
+         * non resta indicizzato a metà (e non blocca un nuovo upload).
+         */
+        public int finish() {
+            if (!buffer.isEmpty()) {
+                if (embedLinger.isPositive()) {
+                    submitTail();
+                } else {
+                    submit();
+                }
+            }
+            awaitPending();
+
+            Throwable error = failure.get();
+            if (error != null) {
+                rollback();
+                throw new IllegalStateException(
+                        "Indicizzazione di '" + source + "' fallita: " + error.getMessage(), error);
+            }
+            return chunksStored.get();
+        }
+
+        /**
+         * Interrompe l'ingestion per un errore a monte (es. Tika): scarta il batch
+         * non ancora inviato, attende quelli in corso e rimuove i chunk già salvati.
+         */
+        public void abort(Throwable cause) {
+            failure.compareAndSet(null, cause);
+            buffer.clear();
+            awaitPending();
+            rollback();
+        }
+
+        // Si attendono tutti i batch (anche dopo un errore) prima dell'eventuale rollback
+        private void awaitPending() {
+            for (CompletableFuture<Void> future : pending) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure.compareAndSet(null, e);
+                    break;
+                } catch (ExecutionException e) {
+                    failure.compareAndSet(null, e.getCause());
+                }
+            }
+        }
+
+        public int chunksSubmitted() {
+            return chunksSubmitted;
+        }
+
+        public int chunksStored() {
+            return chunksStored.get();
+        }
+
+        public int chunksReused() {
+            return chunksReused;
+        }
+
+        private void submit() {
+            List<Document> batch = buffer;
+            buffer = new ArrayList<>(batchSize);
+            try {
+                slots.acquire();                     // backpressure sul produttore
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ingestion interrotta: " + source, e);
+            }
+
+            chunksSubmitted += batch.size();
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            pending.add(future);
+            try {
+                executor.execute(() -> run(batch, future));
+            } catch (RejectedExecutionException e) {
+                slots.release();                     // solo a executor chiuso (shutdown)
+                failure.compareAndSet(null, e);
+                future.completeExceptionally(e);
+            }
+        }
+
+        private void run(List<Document> batch, CompletableFuture<Void> future) {
+            try {
+                if (failure.get() == null) {
+                    // Gli embedding dell'ingestion passano dopo quelli delle domande degli utenti
+                    try (Priority.Scope ignored = Priority.scoped(Priority.BACKGROUND)) {
+                        if (embedBeforeUpsert) {
+                            embed(batch);
+                        }
+                        store(batch);
+                    }
+                }
+                future.complete(null);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+                future.completeExceptionally(t);
+            } finally {
+                slots.release();
+            }
+        }
+
+        private void submitTail() {
+            List<Document> batch = buffer;
+            buffer = new ArrayList<>(batchSize);
+            chunksSubmitted += batch.size();
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            pending.add(future);
+            coalesce(new Tail(this, batch, future));
+        }
+
+        // Sul worker del gruppo, dopo l'embedding comune
+        private void completeTail(Tail tail, Throwable embedError) {
+            try {
+                if (embedError != null) {
+                    throw embedError;
+                }
+                if (failure.get() == null) {
+                    store(tail.batch());
+                }
+                tail.future().complete(null);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+                tail.future().completeExceptionally(t);
+            }
+        }
+
+        // Embedding (dalla cache) + upsert del micro-batch, poi ramo lessicale del retrieval ibrido
+        private void store(List<Document> batch) {
+            observations.ingestion("upsert", () -> {
+                vectorStore.add(batch);
+                return null;
+            });
+            bm25Index.add(batch);
+            batch.forEach(doc -> writtenIds.add(doc.getId()));
+            chunksStored.addAndGet(batch.size());
+            job.chunksStored(batch.size());
+            log.debug("Ingestion '{}': {} chunk salvati", source, chunksStored.get());
+        }
+
+        private void rollback() {
+            List<String> ids;
+            synchronized (writtenIds) {
+                ids = List.copyOf(writtenIds);
+            }
+            if (ids.isEmpty()) {
+                return;
+            }
+            bm25Index.remove(ids);
+            try {
+                vectorStore.delete(ids);
+                log.warn("Ingestion '{}' fallita: rimossi {} chunk parziali", source, ids.size());
+            } catch (Exception e) {
+                log.error("Rollback ingestion '{}' non riuscito: {}", source, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.chatbot.chatbot_backend.document;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Pulizia + chunking dell'output di Tika in streaming, riga per riga:
+ * la memoria occupata dipende da chunk e riga più lunga, non dalla dimensione del file.
+ *
+ * Produce gli stessi chunk della vecchia pipeline su stringa intera
+ * (cleanTikaOutput → chunkText → aggregateIntoChunks, 8 passate replaceAll/split
+ * con regex), ma in un'unica scansione dei caratteri:
+ *   1. pulizia di ogni riga (tag immagine/bookmark, watermark, righe di soli simboli)
+ *   2. paragrafi = gruppi di righe separati da almeno una riga vuota
+ *   3. paragrafi oltre chunkSize divisi per frasi (. ! ?) man mano che arrivano
+ *   4. aggregazione in chunk fino a chunkSize con overlap su unità complete
+ *
+ * Un tag [image:…]/[bookmark:…] aperto su più righe viene ricomposto fino a
+ * MAX_JOINED_LINE caratteri; oltre quel limite il tag resta nel testo.
+ *
+ * Con {@code anchored} i confini dipendono anche dal contenuto: un chunk pieno almeno
+ * al 60% si chiude dopo un'unità "àncora" (hash dell'unità, in media una su
+ * ANCHOR_PERIOD). Con la sola aggregazione greedy una frase inserita può spostare
+ * i confini di decine di chunk successivi (testo a frasi brevi e regolari); con le
+ * àncore i confini si riallineano alla prima àncora dopo la modifica e una nuova
+ * versione del file riusa tutti i chunk lontani dal punto modificato, al costo di
+ * chunk un po' più corti (~10-20% in più). Senza {@code anchored} l'output è quello della vecchia
+ * pipeline.
+ * Non thread-safe: un'istanza per documento.
+ */
+public class StreamingTextChunker {
+
+    private static final String IMAGE_TAG = "[image:";
+    private static final String BOOKMARK_TAG = "[bookmark:";
+    private static final String AI_WATERMARK = "AI-generated content may be incorrect";
+
+    // Solo per le righe con terminatori "rari" interni (\r, \u0085, \u2028, \u2029),
+    // dove ^ e $ della vecchia regex multilinea hanno più posizioni possibili
+    private static final Pattern SYMBOL_ONLY_LINE = Pattern.compile("(?m)^[^a-zA-Z0-9àèìòùÀÈÌÒÙ\\s]*$");
+
+    private static final int MAX_JOINED_LINE = 64 * 1024;
+
+    private static final int ANCHOR_PERIOD = 3;
+    private static final int ANCHOR_MIN_FILL_PERCENT = 60;
+
+    private final int chunkSize;
+    private final int chunkOverlap;
+    private final boolean anchored;
+    private final Consumer<String> sink;
+
+    // Paragrafo corrente (senza whitespace iniziale)
+    private final StringBuilder paragraph = new StringBuilder();
+    private int paragraphContentEnd;        // indice dopo l'ultimo carattere non-whitespace
+    private boolean splittingSentences;
+
+    // Chunk in costruzione
+    private final List<String> currentUnits = new ArrayList<>();
+    private int currentLength;              // = lunghezza di "u1 u2 … un " nella vecchia versione
+
+    private int chunkCount;
+
+    public StreamingTextChunker(int chunkSize, int chunkOverlap, Consumer<String> sink) {
+        this(chunkSize, chunkOverlap, false, sink);
+    }
+
+    public StreamingTextChunker(int chunkSize, int chunkOverlap, boolean anchored, Consumer<String> sink) {
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+        this.anchored = anchored;
+        this.sink = sink;
+    }
+
+    /**
+     * Consuma tutto il reader emettendo i chunk verso il sink.
+     * @return numero di caratteri letti
+     */
+    public long process(Reader reader) throws IOException {
+        char[] buffer = new char[8192];
+        StringBuilder line = new StringBuilder();
+        long charsRead = 0;
+        int read;
+
+        while ((read = reader.read(buffer)) != -1) {
+            charsRead += read;
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    line.append(buffer, start, i - start);
+                    start = i + 1;
+                    String current = line.toString();
+                    if (hasOpenTag(current) && line.length() < MAX_JOINED_LINE) {
+                        line.append('\n');          // il tag prosegue sulla riga successiva
+                    } else {
+                        acceptLogicalLine(current, true);
+                        line.setLength(0);
+                    }
+                }
+            }
+            line.append(buffer, start, read - start);
+        }
+        acceptLogicalLine(line.toString(), false);
+        finish();
+        return charsRead;
+    }
+
+    public int chunkCount() {
+        return chunkCount;
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // 1. Pulizia per riga
+    // ─────────────────────────────────────────────────────────────────────────
+
+    private static boolean hasOpenTag(String line) {
+        int open = Math.max(line.lastIndexOf(IMAGE_TAG), line.lastIndexOf(BOOKMARK_TAG));
+        return open >= 0 && line.indexOf(']', open) < 0;
+    }
+
+    private void acceptLogicalLine(String logicalLine, boolean terminated) {
+        // Stesso ordine delle vecchie replaceAll: immagini, bookmark, watermark
+        String cleaned = removeTags(logicalLine, IMAGE_TAG);
+        cleaned = removeTags(cleaned, BOOKMARK_TAG);
+        cleaned = removeWatermark(cleaned);
+
+        // Una riga logica può contenere '\n' rimasti da un tag non chiuso
+        int start = 0;
+        int nl;
+        while ((nl = cleaned.indexOf('\n', start)) >= 0) {
+            acceptLine(stripCarriageReturn(removeSymbolOnlyLine(cleaned.substring(start, nl))));
+            start = nl + 1;
+        }
+        String last = removeSymbolOnlyLine(cleaned.substring(start));
+        acceptLine(terminated ? stripCarriageReturn(last) : last);
+    }
+
+    /** Equivale a replaceAll("\\[image:[^]]*]", ""): da open fino alla prima ']' successiva. */
+    private static String removeTags(String line, String open) {
+        int idx = line.indexOf(open);
+        if (idx < 0) {
+            return line;
+        }
+        StringBuilder out = null;
+        int copied = 0;
+        while (idx >= 0) {
+            int close = line.indexOf(']', idx + open.length());
+            if (close < 0) {
+                break;                              // tag non chiuso: la regex non lo rimuove
+            }
+            if (out == null) {
+                out = new StringBuilder(line.length());
+            }
+            out.append(line, copied, idx);
+            copied = close + 1;
+            idx = line.indexOf(open, copied);
+        }
+        if (out == null) {
+            return line;
+        }
+        return out.append(line, copied, line.length()).toString();
+    }
+
+    /** Equivale a replaceAll("AI-generated content may be incorrect\\.?]?", ""). */
+    private static String removeWatermark(String line) {
+        int idx = line.indexOf(AI_WATERMARK);
+        if (idx < 0) {
+            return line;
+        }
+        StringBuilder out = new StringBuilder(line.length());
+        int copied = 0;
+        while (idx >= 0) {
+            int end = idx + AI_WATERMARK.length();
+            if (end < line.length() && line.charAt(end) == '.') {
+                end++;
+            }
+            if (end < line.length() && line.charAt(end) == ']') {
+                end++;
+            }
+            out.append(line, copied, idx);
+            copied = end;
+            idx = line.indexOf(AI_WATERMARK, end);
+        }
+        return out.append(line, copied, line.length()).toString();
+    }
+
+    /**
+     * Svuota una riga composta solo da simboli (niente lettere, cifre o spazi).
+     * Il \r finale di un CRLF non cambia l'esito; altri terminatori interni
+     * ricadono sulla regex originale per mantenerne la semantica esatta.
+     */
+    private static String removeSymbolOnlyLine(String line) {
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+        }
+        boolean onlySymbols = true;
+        for (int i = 0; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return SYMBOL_ONLY_LINE.matcher(line).replaceAll("");
+            }
+            if (onlySymbols && !isSymbol(c)) {
+                onlySymbols = false;
+            }
+        }
+        return onlySymbols && end > 0 ? line.substring(end) : line;
+    }
+
+    private static boolean isSymbol(char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+            return false;
+        }
+        return switch (c) {
+            case 'à', 'è', 'ì', 'ò', 'ù', 'À', 'È', 'Ì', 'Ò', 'Ù' -> false;
+            default -> !isRegexSpace(c);
+        };
+    }
+
+    // \r\n → \n
+    private static String stripCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // 2-3. Paragrafi e frasi
+    // ─────────────────────────────────────────────────────────────────────────
+
+    private void acceptLine(String line) {
+        if (line.isEmpty()) {
+            endParagraph();
+            return;
+        }
+        if (!paragraph.isEmpty()) {
+            appendToParagraph('\n');
+        }
+        for (int i = 0; i < line.length(); i++) {
+            appendToParagraph(line.charAt(i));
+        }
+        if (!splittingSentences && paragraphContentEnd > chunkSize) {
+            splittingSentences = true;
+        }
+        if (splittingSentences) {
+            emitCompleteSentences();
+        }
+    }
+
+    private void appendToParagraph(char c) {
+        boolean whitespace = Character.isWhitespace(c);
+        if (paragraph.isEmpty() && whitespace) {
+            return;                                 // strip iniziale del paragrafo
+        }
+        paragraph.append(c);
+        if (!whitespace) {
+            paragraphContentEnd = paragraph.length();
+        }
+    }
+
+    /**
+     * Emette le frasi già concluse: un separatore è una sequenza di whitespace
+     * preceduta da . ! ? e seguita da un carattere non-whitespace
+     * (equivalente a split("(?<=[.!?])\\s+")).
+     */
+    private void emitCompleteSentences() {
+        int from = 0;
+        int i = 1;
+        while (i < paragraph.length()) {
+            if (isRegexSpace(paragraph.charAt(i)) && isSentenceEnd(paragraph.charAt(i - 1))) {
+                int runEnd = i;
+                while (runEnd < paragraph.length() && isRegexSpace(paragraph.charAt(runEnd))) {
+                    runEnd++;
+                }
+                if (runEnd == paragraph.length()) {
+                    break;                          // il separatore potrebbe continuare
+                }
+                addUnit(paragraph.substring(from, i));
+                from = runEnd;
+                i = runEnd + 1;
+            } else {
+                i++;
+            }
+        }
+        if (from > 0) {
+            paragraph.delete(0, from);
+            paragraphContentEnd = Math.max(0, paragraphContentEnd - from);
+        }
+    }
+
+    private void endParagraph() {
+        if (paragraph.isEmpty()) {
+            return;
+        }
+        if (splittingSentences) {
+            emitCompleteSentences();
+        }
+        String unit = paragraph.substring(0, paragraphContentEnd);
+        if (!unit.isBlank()) {
+            addUnit(unit);
+        }
+        paragraph.setLength(0);
+        paragraphContentEnd = 0;
+        splittingSentences = false;
+    }
+
+    private static boolean isSentenceEnd(char c) {
+        return c == '.' || c == '!' || c == '?';
+    }
+
+    // \s delle regex Java: [ \t\n\x0B\f\r]
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // 4. Aggregazione con overlap
+    // ─────────────────────────────────────────────────────────────────────────
+
+    private void addUnit(String unit) {
+        boolean wouldExceed = (currentLength + unit.length() + 1) > chunkSize;
+
+        if (wouldExceed && !currentUnits.isEmpty()) {
+            emitChunk();
+            keepOverlap();
+        }
+
+        currentUnits.add(unit);
+        currentLength += unit.length() + 1;
+
+        if (anchored && currentLength >= chunkSize * ANCHOR_MIN_FILL_PERCENT / 100 && isAnchor(unit)) {
+            emitChunk();
+            keepOverlap();
+        }
+    }
+
+    // Overlap: unità finali fino ad accumulare chunkOverlap caratteri
+    private void keepOverlap() {
+        int overlapChars = 0;
+        int overlapStart = currentUnits.size();
+        for (int i = currentUnits.size() - 1; i >= 0; i--) {
+            overlapChars += currentUnits.get(i).length();
+            overlapStart = i;
+            if (overlapChars >= chunkOverlap) {
+                break;
+            }
+        }
+        currentUnits.subList(0, overlapStart).clear();
+        currentLength = 0;
+        for (String kept : currentUnits) {
+            currentLength += kept.length() + 1;
+        }
+    }
+
+    // String.hashCode è definito dalla specifica: stessi confini tra un riavvio e l'altro
+    private static boolean isAnchor(String unit) {
+        int h = unit.hashCode() * 0x9E3779B9;
+        return Integer.remainderUnsigned(h ^ (h >>> 16), ANCHOR_PERIOD) == 0;
+    }
+
+    private void emitChunk() {
+        StringBuilder sb = new StringBuilder(currentLength);
+        for (String unit : currentUnits) {
+            if (!sb.isEmpty()) {
+                sb.append(' ');
+            }
+            sb.append(unit);
+        }
+        String chunk = sb.toString().strip();
+        if (!chunk.isBlank()) {
+            chunkCount++;
+            sink.accept(chunk);
+        }
+    }
+
+    private void finish() {
+        endParagraph();
+        if (!currentUnits.isEmpty()) {
+            emitChunk();
+            currentUnits.clear();
+            currentLength = 0;
+        }
+    }
+}
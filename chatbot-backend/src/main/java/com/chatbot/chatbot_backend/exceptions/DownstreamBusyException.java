@@ -0,0 +1,18 @@
+package com.chatbot.chatbot_backend.exceptions;
+
+import lombok.Getter;
+
+/**
+ * Un servizio esterno (LLM, embedding, vector store, Tika) è saturo e l'attesa in coda
+ * supererebbe lo SLO: la richiesta viene scartata subito (→ 429 con Retry-After).
+ */
+@Getter
+public class DownstreamBusyException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public DownstreamBusyException(String downstream, long retryAfterSeconds) {
+        super("Servizio '" + downstream + "' sovraccarico, riprova tra " + retryAfterSeconds + " secondi");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,18 @@
+package com.chatbot.chatbot_backend.exceptions;
+
+import lombok.Getter;
+
+/**
+ * Circuit breaker aperto: il servizio esterno ha fallito (o risposto troppo lentamente)
+ * di recente e la chiamata viene rifiutata senza tentarla (→ 503 con Retry-After).
+ */
+@Getter
+public class DownstreamUnavailableException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public DownstreamUnavailableException(String downstream, long retryAfterSeconds) {
+        super("Servizio '" + downstream + "' non disponibile, riprova tra " + retryAfterSeconds + " secondi");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,12 @@
+package com.chatbot.chatbot_backend.exceptions;
+
+/**
+ * Contenuto già indicizzato nello stesso shard (→ 409 come ogni IllegalStateException);
+ * il caricamento massivo lo conta come file saltato, non come errore.
+ */
+public class DuplicateDocumentException extends IllegalStateException {
+
+    public DuplicateDocumentException(String message) {
+        super(message);
+    }
+}
@@ -1,5 +1,6 @@
 package com.chatbot.chatbot_backend.exceptions;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -30,6 +31,22 @@ public class ExceptionHandlerClass {
         return buildErrorResponse("Validation error", details, HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler(value = DownstreamBusyException.class)
+    protected ResponseEntity<Error> downstreamBusy(DownstreamBusyException ex) {
+        HttpStatus status = HttpStatus.TOO_MANY_REQUESTS;
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(new Error("Too many requests", ex.getMessage(), status.value()));
+    }
+
+    @ExceptionHandler(value = DownstreamUnavailableException.class)
+    protected ResponseEntity<Error> downstreamUnavailable(DownstreamUnavailableException ex) {
+        HttpStatus status = HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(new Error("Service unavailable", ex.getMessage(), status.value()));
+    }
+
     @ExceptionHandler(value = RuntimeException.class)
     protected ResponseEntity<Error> runtimeException(RuntimeException ex) {
         return buildErrorResponse("Runtime error", ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
@@ -0,0 +1,252 @@
+package com.chatbot.chatbot_backend.health;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stato dei servizi esterni (LM Studio, Chroma, Tika), verificato in background.
+ *
+ * Ogni {@code app.health.probe-interval} parte in parallelo una richiesta GET leggera per
+ * servizio ({@code /v1/models}, {@code /api/v2/heartbeat}, {@code /version}) con timeout
+ * {@code app.health.probe-timeout}; l'esito e la latenza restano in memoria, quindi gli
+ * endpoint di health e le richieste degli utenti non chiamano mai i servizi esterni.
+ *
+ * Un servizio diventa DOWN al primo probe fallito e torna UP dopo
+ * {@code app.health.recovery-threshold} probe riusciti di fila: l'istanza esce subito dal
+ * bilanciatore e non oscilla mentre il servizio riparte. Se è DOWN uno dei servizi in
+ * {@code app.health.readiness.required} l'istanza pubblica {@link ReadinessState#REFUSING_TRAFFIC}
+ * (anche /actuator/health/readiness).
+ * Tika serve solo per l'upload: di default un suo guasto rende l'istanza degradata, non
+ * indisponibile.
+ */
+@Slf4j
+@Component
+public class DownstreamHealthMonitor implements MeterBinder {
+
+    public static final String LM_STUDIO = "lm-studio";
+    public static final String CHROMA = "chroma";
+    public static final String TIKA = "tika";
+
+    public enum State { UNKNOWN, UP, DOWN }
+
+    /**
+     * @param latencyMs            durata dell'ultimo probe (anche se fallito per timeout)
+     * @param consecutiveFailures  probe falliti di fila
+     * @param error                causa dell'ultimo fallimento, null se riuscito
+     */
+    public record Status(String name, State state, boolean required, long latencyMs,
+                         Instant checkedAt, int consecutiveFailures, String error) {
+    }
+
+    private record Probe(String name, URI uri, boolean required) {
+    }
+
+    private final List<Probe> probes = new ArrayList<>();
+    private final Map<String, Status> statuses = new ConcurrentHashMap<>();
+    private final Map<String, Integer> successes = new ConcurrentHashMap<>();
+    private final Map<String, Timer> probeTimers = new ConcurrentHashMap<>();
+    private final ApplicationEventPublisher eventPublisher;
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService prober;
+    private final Duration probeInterval;
+    private final Duration probeTimeout;
+    private final int recoveryThreshold;
+    private volatile MeterRegistry meterRegistry;
+    private volatile Boolean ready;                          // null = nessun giro completato
+
+    public DownstreamHealthMonitor(ApplicationEventPublisher eventPublisher,
+                                   @Value("${spring.ai.openai.base-url}") String lmStudioUrl,
+                                   @Value("${app.tika.server-url}") String tikaUrl,
+                                   @Value("${app.vectorstore.backend:chroma}") String vectorStoreBackend,
+                                   @Value("${app.vectorstore.chroma.url:http://localhost:8000}") String chromaUrl,
+                                   @Value("${app.health.readiness.required:lm-studio,chroma}") Set<String> required,
+                                   @Value("${app.health.probe-interval:5s}") Duration probeInterval,
+                                   @Value("${app.health.probe-timeout:2s}") Duration probeTimeout,
+                                   @Value("${app.health.recovery-threshold:2}") int recoveryThreshold) {
+        this.eventPublisher = eventPublisher;
+        this.probeInterval = probeInterval;
+        this.probeTimeout = probeTimeout;
+        this.recoveryThreshold = Math.max(1, recoveryThreshold);
+        // Client separato dal pool condiviso (DownstreamHttpTransport): un pool saturo non
+        // deve far sembrare giù un servizio che risponde
+        this.httpClient = HttpClient.newBuilder().connectTimeout(probeTimeout).build();
+
+        // Chat ed embedding sono lo stesso server: un solo probe
+        addProbe(LM_STUDIO, lmStudioUrl, "/v1/models", required);
+        // Con hnsw l'indice è in-process: niente da verificare
+        if ("chroma".equals(vectorStoreBackend)) {
+            addProbe(CHROMA, chromaUrl, "/api/v2/heartbeat", required);
+        }
+        addProbe(TIKA, tikaUrl, "/version", required);
+
+        this.prober = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("health-probe-"));
+    }
+
+    // I probe partono quando l'applicazione è pronta: un REFUSING_TRAFFIC pubblicato prima
+    // verrebbe sovrascritto dall'ACCEPTING_TRAFFIC di Spring Boot
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        prober.scheduleWithFixedDelay(this::probeAll, 0, probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prober.shutdownNow();
+    }
+
+    // ─── PUBLIC API ──────────────────────────────────────────────────────────
+
+    /** Pronta se tutti i servizi obbligatori hanno risposto all'ultimo probe. */
+    public boolean isReady() {
+        return statuses.values().stream()
+                .filter(Status::required)
+                .allMatch(status -> status.state() == State.UP);
+    }
+
+    /** UP, DEGRADED (giù solo servizi non obbligatori) o DOWN. */
+    public String overallStatus() {
+        if (!isReady()) {
+            return "DOWN";
+        }
+        boolean allUp = statuses.values().stream().allMatch(status -> status.state() == State.UP);
+        return allUp ? "UP" : "DEGRADED";
+    }
+
+    /** Ultimo esito per servizio, nell'ordine dei probe. */
+    public Map<String, Status> statuses() {
+        Map<String, Status> snapshot = new LinkedHashMap<>();
+        for (Probe probe : probes) {
+            snapshot.put(probe.name(), statuses.get(probe.name()));
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Probe probe : probes) {
+            Gauge.builder("chatbot.downstream.up", statuses,
+                            map -> map.get(probe.name()).state() == State.UP ? 1 : 0)
+                    .description("1 se l'ultimo probe del servizio è riuscito")
+                    .tag("dependency", probe.name())
+                    .register(registry);
+        }
+        this.meterRegistry = registry;
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private void addProbe(String name, String baseUrl, String path, Set<String> required) {
+        String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        Probe probe = new Probe(name, URI.create(base + path), required.contains(name));
+        probes.add(probe);
+        statuses.put(name, new Status(name, State.UNKNOWN, probe.required(), 0, null, 0, null));
+    }
+
+    private void probeAll() {
+        try {
+            CompletableFuture.allOf(probes.stream()
+                    .map(this::probe)
+                    .toArray(CompletableFuture[]::new)).join();
+            publishReadiness();
+        } catch (RuntimeException e) {
+            // Un'eccezione non gestita fermerebbe la schedulazione
+            log.error("Probe dei servizi esterni fallito", e);
+        }
+    }
+
+    private CompletableFuture<Void> probe(Probe probe) {
+        HttpRequest request = HttpRequest.newBuilder(probe.uri())
+                .timeout(probeTimeout)
+                .GET()
+                .build();
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> {
+                    long nanos = System.nanoTime() - start;
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    String failure = cause != null
+                            ? cause.getClass().getSimpleName()
+                            : response.statusCode() / 100 != 2 ? "HTTP " + response.statusCode() : null;
+                    update(probe, nanos, failure);
+                    return null;
+                });
+    }
+
+    private void update(Probe probe, long nanos, String failure) {
+        Status previous = statuses.get(probe.name());
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(nanos);
+        State state;
+        int failures;
+        if (failure != null) {
+            successes.put(probe.name(), 0);
+            state = State.DOWN;
+            failures = previous.consecutiveFailures() + 1;
+        } else {
+            int ok = successes.merge(probe.name(), 1, Integer::sum);
+            // Da DOWN si torna UP solo dopo recoveryThreshold successi di fila
+            state = previous.state() == State.DOWN && ok < recoveryThreshold ? State.DOWN : State.UP;
+            failures = 0;
+        }
+        statuses.put(probe.name(), new Status(probe.name(), state, probe.required(), latencyMs,
+                Instant.now(), failures, failure));
+
+        if (state != previous.state()) {
+            if (state == State.DOWN) {
+                log.warn("Servizio {} DOWN ({}, {} ms): {}", probe.name(), probe.uri(), latencyMs, failure);
+            } else {
+                log.info("Servizio {} {} ({} ms)", probe.name(), state, latencyMs);
+            }
+        }
+
+        MeterRegistry registry = meterRegistry;
+        if (registry != null) {
+            probeTimers.computeIfAbsent(probe.name(), name -> Timer.builder("chatbot.downstream.probe")
+                    .description("Latenza dei probe di health verso i servizi esterni")
+                    .tag("dependency", name)
+                    .register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void publishReadiness() {
+        boolean nowReady = isReady();
+        if (ready == null || ready != nowReady) {
+            ready = nowReady;
+            AvailabilityChangeEvent.publish(eventPublisher, this,
+                    nowReady ? ReadinessState.ACCEPTING_TRAFFIC : ReadinessState.REFUSING_TRAFFIC);
+            if (!nowReady) {
+                log.warn("Istanza non pronta: servizi obbligatori non raggiungibili");
+            }
+        }
+    }
+}
@@ -1,6 +1,17 @@
 package com.chatbot.chatbot_backend.health;
 
 
+import com.chatbot.chatbot_backend.chat.ChatService;
+import com.chatbot.chatbot_backend.chat.SemanticResponseCache;
+import com.chatbot.chatbot_backend.concurrency.DownstreamLimiter;
+import com.chatbot.chatbot_backend.concurrency.VirtualThreadPinningMonitor;
+import com.chatbot.chatbot_backend.config.CachingEmbeddingModel;
+import com.chatbot.chatbot_backend.config.MappedEmbeddingStore;
+import com.chatbot.chatbot_backend.retrieval.HybridRetriever;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -12,16 +23,113 @@ import java.util.Map;
 
 @RestController
 @RequestMapping("/api")
+@RequiredArgsConstructor
 public class HealthController {
 
+    private final CachingEmbeddingModel cachingEmbeddingModel;
+    private final SemanticResponseCache responseCache;
+    private final DownstreamLimiter downstreamLimiter;
+    private final ChatService chatService;
+    private final ObjectProvider<VirtualThreadPinningMonitor> pinningMonitor;
+    private final DownstreamHealthMonitor downstreamHealth;
+    private final HybridRetriever hybridRetriever;
+
+    // Stato completo; 503 quando un servizio obbligatorio è giù, così anche un
+    // bilanciatore configurato su /api/health smette di inviare traffico
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> healthCheck() {
+        String status = downstreamHealth.overallStatus();
         Map<String, Object> response = new HashMap<>();
-        response.put("status", "UP");
+        response.put("status", status);
         response.put("service", "Chatbot AI Backend");
         response.put("timestamp", LocalDateTime.now().toString());
-        response.put("message", "Backend funzionante correttamente");
+        response.put("message", switch (status) {
+            case "UP" -> "Backend funzionante correttamente";
+            case "DEGRADED" -> "Backend funzionante, alcuni servizi non disponibili";
+            default -> "Servizi esterni obbligatori non raggiungibili";
+        });
+        response.put("dependencies", downstreamHealth.statuses());
+
+        return ResponseEntity.status(downstreamHealth.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+                .body(response);
+    }
+
+    // Il processo risponde: non dipende dai servizi esterni, un loro guasto non si
+    // risolve riavviando l'istanza
+    @GetMapping("/health/liveness")
+    public ResponseEntity<Map<String, Object>> liveness() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "UP");
+        return ResponseEntity.ok(response);
+    }
+
+    // Stato in cache dei probe in background: nessuna chiamata ai servizi esterni qui
+    @GetMapping("/health/readiness")
+    public ResponseEntity<Map<String, Object>> readiness() {
+        boolean ready = downstreamHealth.isReady();
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", ready ? "UP" : "DOWN");
+        response.put("dependencies", downstreamHealth.statuses());
+        return ResponseEntity.status(ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(response);
+    }
+
+    @GetMapping("/health/embedding-cache")
+    public ResponseEntity<Map<String, Object>> embeddingCacheStats() {
+        CacheStats stats = cachingEmbeddingModel.stats();
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("entries", cachingEmbeddingModel.estimatedSize());
+        response.put("sizeBytes", cachingEmbeddingModel.weightedSizeBytes());
+        response.put("maxSizeBytes", cachingEmbeddingModel.maxSizeBytes());
+        response.put("hits", stats.hitCount());
+        response.put("misses", stats.missCount());
+        response.put("hitRate", stats.hitRate());
+        response.put("evictions", stats.evictionCount());
+        response.put("evictedBytes", stats.evictionWeight());
+
+        MappedEmbeddingStore diskStore = cachingEmbeddingModel.diskStore();
+        if (diskStore != null) {
+            Map<String, Object> disk = new HashMap<>();
+            disk.put("entries", diskStore.size());
+            disk.put("usedBytes", diskStore.usedBytes());
+            disk.put("capacityBytes", diskStore.capacityBytes());
+            disk.put("hits", diskStore.hitCount());
+            disk.put("misses", diskStore.missCount());
+            disk.put("compactions", diskStore.compactionCount());
+            response.put("disk", disk);
+        }
+
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/health/response-cache")
+    public ResponseEntity<Map<String, Object>> responseCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("entries", responseCache.size());
+        response.put("hits", responseCache.hitCount());
+        response.put("misses", responseCache.missCount());
+        response.put("bypassed", responseCache.bypassCount());
+
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/health/concurrency")
+    public ResponseEntity<Map<String, Object>> concurrencyStats() {
+        Map<String, Object> response = new HashMap<>();
+        // Thread che sta servendo questa richiesta: virtuale se spring.threads.virtual.enabled=true
+        response.put("virtualThreads", Thread.currentThread().isVirtual());
+        response.put("downstream", downstreamLimiter.stats());
+        // Richieste agganciate a una chiamata identica già in corso (single-flight)
+        response.put("coalescedChatCalls", chatService.coalescedCount());
+        response.put("coalescedEmbeddings", cachingEmbeddingModel.coalescedCount());
+        // Hedging e risposte degradate del retrieval (circuit breaker in "downstream")
+        response.put("retrieval", hybridRetriever.stats());
+
+        VirtualThreadPinningMonitor monitor = pinningMonitor.getIfAvailable();
+        if (monitor != null) {
+            response.put("pinnedEvents", monitor.pinnedEvents());
+        }
 
         return ResponseEntity.ok(response);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,173 @@
+package com.chatbot.chatbot_backend.observability;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Latenza per stadio della pipeline RAG e dell'ingestion.
+ *
+ * Ogni stadio è una {@link Observation}: con l'actuator diventa un timer
+ * ({@code chatbot.rag}, {@code chatbot.ingestion}, {@code chatbot.llm}, tag {@code stage})
+ * con istogramma dei percentili esportato su /actuator/prometheus, e con un bridge di
+ * tracing (profilo Maven {@code tracing}) anche uno span annidato nella richiesta HTTP.
+ * Senza registry le osservazioni sono no-op.
+ *
+ * Per il LLM in più: tempo al primo token (solo streaming) e token al secondo.
+ */
+@Component
+public class PipelineObservations {
+
+    public static final String RAG = "chatbot.rag";
+    public static final String INGESTION = "chatbot.ingestion";
+    public static final String LLM = "chatbot.llm";
+
+    private final ObservationRegistry observationRegistry;
+    private final MeterRegistry meterRegistry;              // null = nessun export
+
+    @Autowired
+    public PipelineObservations(ObjectProvider<ObservationRegistry> observationRegistry,
+                                ObjectProvider<MeterRegistry> meterRegistry) {
+        this(observationRegistry.getIfAvailable(() -> ObservationRegistry.NOOP), meterRegistry.getIfAvailable());
+    }
+
+    private PipelineObservations(ObservationRegistry observationRegistry, MeterRegistry meterRegistry) {
+        this.observationRegistry = observationRegistry;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /** Per i componenti creati fuori da Spring (test, benchmark). */
+    public static PipelineObservations noop() {
+        return new PipelineObservations(ObservationRegistry.NOOP, null);
+    }
+
+    @FunctionalInterface
+    public interface Stage<T, E extends Throwable> {
+        T run() throws E;
+    }
+
+    // ─── PUBLIC API ──────────────────────────────────────────────────────────
+
+    /** Stadi della risposta: retrieval, vector-search, lexical-search, embedding, context. */
+    public <T> T rag(String stage, Supplier<T> work) {
+        return observation(RAG, stage).observe(work);
+    }
+
+    /** Stadi dell'ingestion: extract, embed, upsert. */
+    public <T, E extends Throwable> T ingestion(String stage, Stage<T, E> work) throws E {
+        return observation(INGESTION, stage).observeChecked(work::run);
+    }
+
+    /**
+     * Chiamata bloccante al LLM; {@code completionTokens} estrae dal risultato i token
+     * generati per il throughput.
+     */
+    public <T> T llmCall(Supplier<T> call, ToIntFunction<T> completionTokens) {
+        // Stessi tag dello stream (outcome): Prometheus vuole le stesse chiavi per nome
+        Observation observation = observation(LLM, "call").start();
+        long start = System.nanoTime();
+        try (Observation.Scope ignored = observation.openScope()) {
+            T result = call.get();
+            observation.lowCardinalityKeyValue("outcome", "on_complete");
+            recordThroughput("call", result != null ? completionTokens.applyAsInt(result) : 0, System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            observation.lowCardinalityKeyValue("outcome", "on_error");
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * Stream dal LLM: l'osservazione parte alla sottoscrizione e si chiude su
+     * completamento, errore o cancellazione (tag {@code outcome}). Ogni elemento del
+     * flusso è un delta del modello, circa un token.
+     */
+    public Flux<String> llmStream(Flux<String> tokens) {
+        return Flux.defer(() -> {
+            Observation observation = observation(LLM, "stream").start();
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            AtomicLong count = new AtomicLong();
+            return tokens
+                    .doOnNext(token -> {
+                        if (first.compareAndSet(true, false) && meterRegistry != null) {
+                            firstTokenTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        }
+                        count.incrementAndGet();
+                    })
+                    .doOnError(observation::error)
+                    .doFinally(signal -> {
+                        observation.lowCardinalityKeyValue("outcome", signal.name().toLowerCase(Locale.ROOT));
+                        observation.stop();
+                        recordThroughput("stream", count.get(), System.nanoTime() - start);
+                    });
+        });
+    }
+
+    /**
+     * Lavoro da eseguire su un altro thread come figlio dell'osservazione corrente
+     * (lo span della ricerca vettoriale resta dentro quello del retrieval).
+     */
+    public <T> Supplier<T> inCurrentObservation(Supplier<T> work) {
+        Observation parent = observationRegistry.getCurrentObservation();
+        if (parent == null) {
+            return work;
+        }
+        return () -> {
+            try (Observation.Scope ignored = parent.openScope()) {
+                return work.get();
+            }
+        };
+    }
+
+    /**
+     * Durata di una parte di uno stadio che non è uno span a sé (es. lettura da Tika
+     * e chunking, interlacciati nello stesso stadio extract).
+     */
+    public void record(String name, String stage, long nanos) {
+        if (meterRegistry != null) {
+            Timer.builder(name).tag("stage", stage).register(meterRegistry).record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private Observation observation(String name, String stage) {
+        return Observation.createNotStarted(name, observationRegistry)
+                .contextualName(name.substring(name.indexOf('.') + 1) + " " + stage)
+                .lowCardinalityKeyValue("stage", stage);
+    }
+
+    private Timer firstTokenTimer() {
+        return Timer.builder(LLM + ".first.token")
+                .description("Tempo dall'invio del prompt al primo token generato")
+                .register(meterRegistry);
+    }
+
+    private void recordThroughput(String mode, long tokens, long nanos) {
+        if (meterRegistry == null || tokens <= 0 || nanos <= 0) {
+            return;
+        }
+        DistributionSummary.builder(LLM + ".tokens.per.second")
+                .tag("stage", mode)
+                .baseUnit("tokens")
+                .register(meterRegistry)
+                .record(tokens / (nanos / 1e9));
+    }
+}
@@ -0,0 +1,483 @@
+package com.chatbot.chatbot_backend.retrieval;
+
+import com.chatbot.chatbot_backend.tenancy.Shard;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Indice invertito BM25 sui chunk indicizzati, per il ramo lessicale del retrieval ibrido.
+ *
+ * Posting su array primitivi per termine: postingDocs[t] / postingFreqs[t] (doc, tf),
+ * cresciuti per raddoppio. Aggiornato in modo incrementale dall'ingestion (add/remove);
+ * i chunk rimossi o sostituiti (upsert) sono tombstone finché la quota eliminata non
+ * supera metà indice, poi le posting vengono ricostruite.
+ *
+ * Una ricerca alloca in proporzione alle posting dei termini della query, non al numero
+ * di chunk: i punteggi si accumulano in una tabella hash dei soli documenti toccati.
+ *
+ * Persistenza: i soli chunk (id, testo, metadata) su file; le posting si ricostruiscono
+ * al caricamento, ritokenizzare è molto più veloce di un embedding.
+ */
+@Slf4j
+@Component
+public class Bm25Index {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int MAGIC = 0x424D3231;       // "BM21"
+    private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {};
+
+    private final Path snapshotFile;
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService snapshotter;
+    private volatile boolean dirty;
+
+    // Termini
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private int[][] postingDocs = new int[1024][];
+    private int[][] postingFreqs = new int[1024][];
+    private int[] postingSize = new int[1024];
+    private int[] liveDocFrequency = new int[1024];
+
+    // Documenti (chunk)
+    private final List<StoredChunk> chunks = new ArrayList<>();
+    private int[] docLength = new int[1024];
+    private final Map<String, Integer> docById = new HashMap<>();
+    private long liveTotalLength;
+    private int deletedCount;
+
+    private record StoredChunk(String id, String text, Map<String, Object> metadata) {
+    }
+
+    /** Risultato lessicale: documento, punteggio BM25 e quota dei termini della query trovati. */
+    public record Hit(Document document, double score, double termCoverage) {
+    }
+
+    public Bm25Index(@Value("${app.rag.lexical.path:./data/bm25-index.bin}") Path snapshotFile,
+                     @Value("${app.rag.lexical.snapshot-interval:30s}") Duration snapshotInterval) {
+        this.snapshotFile = snapshotFile;
+        load();
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("bm25-snapshot-"));
+        long intervalMs = snapshotInterval.toMillis();
+        snapshotter.scheduleWithFixedDelay(this::snapshotIfDirty, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PUBLIC API
+    // ─────────────────────────────────────────────────────────────────────────
+
+    public void add(Collection<Document> documents) {
+        lock.writeLock().lock();
+        try {
+            for (Document document : documents) {
+                Integer existing = docById.get(document.getId());
+                if (existing != null) {
+                    removeDoc(existing);
+                }
+                addDoc(new StoredChunk(document.getId(), document.getText(), new HashMap<>(document.getMetadata())));
+            }
+            rebuildIfSparse();
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer doc = docById.get(id);
+                if (doc != null) {
+                    removeDoc(doc);
+                }
+            }
+            rebuildIfSparse();
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * I topK chunk con punteggio BM25 più alto tra quelli degli shard indicati (chiavi
+     * tenant/workspace, null = tutti), opzionalmente ristretti a una sorgente.
+     */
+    public List<Hit> search(String query, int topK, Collection<String> shards, String source) {
+        List<String> queryTerms = new ArrayList<>(new HashSet<>(Tokenizer.tokenize(query)));
+        if (queryTerms.isEmpty() || topK <= 0) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            int liveDocs = docById.size();
+            if (liveDocs == 0) {
+                return List.of();
+            }
+            float averageLength = (float) liveTotalLength / liveDocs;
+            int postings = 0;
+            for (String term : queryTerms) {
+                Integer termId = termIds.get(term);
+                if (termId != null && liveDocFrequency[termId] > 0) {
+                    postings += postingSize[termId];
+                }
+            }
+            Accumulator accumulator = new Accumulator(postings);
+
+            for (String term : queryTerms) {
+                Integer termId = termIds.get(term);
+                if (termId == null || liveDocFrequency[termId] == 0) {
+                    continue;
+                }
+                float idf = idf(liveDocs, liveDocFrequency[termId]);
+                int[] docs = postingDocs[termId];
+                int[] freqs = postingFreqs[termId];
+                for (int i = 0; i < postingSize[termId]; i++) {
+                    int doc = docs[i];
+                    StoredChunk chunk = chunks.get(doc);
+                    if (chunk == null || !matches(chunk, shards, source)) {
+                        continue;
+                    }
+                    float tf = freqs[i];
+                    float norm = K1 * (1 - B + B * docLength[doc] / averageLength);
+                    accumulator.add(doc, idf * (tf * (K1 + 1)) / (tf + norm));
+                }
+            }
+
+            int[] ranked = accumulator.ranked();
+            List<Hit> hits = new ArrayList<>(Math.min(topK, ranked.length));
+            for (int i = 0; i < ranked.length && hits.size() < topK; i++) {
+                int slot = ranked[i];
+                StoredChunk chunk = chunks.get(accumulator.doc(slot));
+                float score = accumulator.score(slot);
+                hits.add(new Hit(
+                        Document.builder().id(chunk.id()).text(chunk.text()).metadata(new HashMap<>(chunk.metadata()))
+                                .score((double) score).build(),
+                        score,
+                        (double) accumulator.matchedTerms(slot) / queryTerms.size()));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** IDF BM25 dei termini (già tokenizzati) presenti nell'indice; gli altri mancano dalla mappa. */
+    public Map<String, Double> idf(Collection<String> terms) {
+        lock.readLock().lock();
+        try {
+            Map<String, Double> weights = new HashMap<>();
+            for (String term : terms) {
+                Integer termId = termIds.get(term);
+                if (termId != null && liveDocFrequency[termId] > 0) {
+                    weights.put(term, (double) idf(docById.size(), liveDocFrequency[termId]));
+                }
+            }
+            return weights;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        snapshotter.shutdown();
+        try {
+            // Uno snapshot periodico ancora in corso scrive lo stesso .tmp: si attende che finisca
+            if (!snapshotter.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.error("Snapshot BM25 periodico ancora in corso, snapshot finale saltato");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Chiusura BM25 interrotta, snapshot finale saltato");
+            return;
+        }
+        snapshotIfDirty();
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PRIVATE HELPERS
+    // ─────────────────────────────────────────────────────────────────────────
+
+    // Chunk indicizzati prima dei tenant: senza metadata "shard", appartengono a quello di default
+    private static boolean matches(StoredChunk chunk, Collection<String> shards, String source) {
+        if (source != null && !source.equals(chunk.metadata().get("source"))) {
+            return false;
+        }
+        return shards == null || shards.contains(chunk.metadata().getOrDefault("shard", Shard.DEFAULT.key()));
+    }
+
+    private static float idf(int liveDocs, int documentFrequency) {
+        return (float) Math.log(1 + (liveDocs - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private void addDoc(StoredChunk chunk) {
+        int doc = chunks.size();
+        chunks.add(chunk);
+        if (doc == docLength.length) {
+            docLength = Arrays.copyOf(docLength, doc * 2);
+        }
+
+        Map<String, Integer> frequencies = termFrequencies(chunk.text());
+        int length = 0;
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            int termId = termId(entry.getKey());
+            appendPosting(termId, doc, entry.getValue());
+            liveDocFrequency[termId]++;
+            length += entry.getValue();
+        }
+        docLength[doc] = length;
+        liveTotalLength += length;
+        docById.put(chunk.id(), doc);
+    }
+
+    // Tombstone: la posting resta, ma il documento non viene più contato né restituito
+    private void removeDoc(int doc) {
+        StoredChunk chunk = chunks.set(doc, null);
+        if (chunk == null) {
+            return;
+        }
+        for (String term : termFrequencies(chunk.text()).keySet()) {
+            liveDocFrequency[termIds.get(term)]--;
+        }
+        liveTotalLength -= docLength[doc];
+        docById.remove(chunk.id(), doc);
+        deletedCount++;
+    }
+
+    // Sia le rimozioni sia gli upsert lasciano tombstone
+    private void rebuildIfSparse() {
+        if (deletedCount > chunks.size() / 2) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        List<StoredChunk> live = chunks.stream().filter(chunk -> chunk != null).toList();
+        termIds.clear();
+        postingDocs = new int[1024][];
+        postingFreqs = new int[1024][];
+        postingSize = new int[1024];
+        liveDocFrequency = new int[1024];
+        chunks.clear();
+        docById.clear();
+        liveTotalLength = 0;
+        deletedCount = 0;
+        live.forEach(this::addDoc);
+        log.debug("Indice BM25 ricostruito: {} chunk", live.size());
+    }
+
+    private int termId(String term) {
+        Integer existing = termIds.get(term);
+        if (existing != null) {
+            return existing;
+        }
+        int id = termIds.size();
+        termIds.put(term, id);
+        if (id == postingSize.length) {
+            int capacity = id * 2;
+            postingDocs = Arrays.copyOf(postingDocs, capacity);
+            postingFreqs = Arrays.copyOf(postingFreqs, capacity);
+            postingSize = Arrays.copyOf(postingSize, capacity);
+            liveDocFrequency = Arrays.copyOf(liveDocFrequency, capacity);
+        }
+        postingDocs[id] = new int[4];
+        postingFreqs[id] = new int[4];
+        return id;
+    }
+
+    private void appendPosting(int termId, int doc, int frequency) {
+        int size = postingSize[termId];
+        if (size == postingDocs[termId].length) {
+            postingDocs[termId] = Arrays.copyOf(postingDocs[termId], size * 2);
+            postingFreqs[termId] = Arrays.copyOf(postingFreqs[termId], size * 2);
+        }
+        postingDocs[termId][size] = doc;
+        postingFreqs[termId][size] = frequency;
+        postingSize[termId] = size + 1;
+    }
+
+    private static Map<String, Integer> termFrequencies(String text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : Tokenizer.tokenize(text)) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+
+    /**
+     * Punteggi dei documenti toccati da una query: tabella a indirizzamento aperto (fattore
+     * di carico ≤ 0,5) dimensionata sulle posting dei termini, non sull'intero corpus.
+     */
+    private static final class Accumulator {
+
+        private final int[] docs;                       // -1 = slot libero
+        private final float[] scores;
+        private final int[] matchedTerms;
+        private final int[] used;                       // slot occupati, nell'ordine del primo match
+        private final int mask;
+        private int size;
+
+        Accumulator(int expectedDocs) {
+            int capacity = Integer.highestOneBit(Math.max(1, expectedDocs) * 2 - 1) * 2;
+            docs = new int[capacity];
+            Arrays.fill(docs, -1);
+            scores = new float[capacity];
+            matchedTerms = new int[capacity];
+            used = new int[Math.max(1, expectedDocs)];
+            mask = capacity - 1;
+        }
+
+        void add(int doc, float score) {
+            int slot = doc * 0x9E3779B9 & mask;
+            while (docs[slot] != -1 && docs[slot] != doc) {
+                slot = (slot + 1) & mask;
+            }
+            if (docs[slot] == -1) {
+                docs[slot] = doc;
+                used[size++] = slot;
+            }
+            scores[slot] += score;
+            matchedTerms[slot]++;
+        }
+
+        /**
+         * Slot in ordine di punteggio decrescente, a parità nell'ordine del primo match.
+         * Chiave long (bit del punteggio, che è positivo, | posizione): ordinamento primitivo, niente boxing.
+         */
+        int[] ranked() {
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = (long) Float.floatToIntBits(scores[used[i]]) << 32 | (Integer.MAX_VALUE - i);
+            }
+            Arrays.sort(keys);
+            int[] ranked = new int[size];
+            for (int i = 0; i < size; i++) {
+                ranked[i] = used[Integer.MAX_VALUE - (int) keys[size - 1 - i]];
+            }
+            return ranked;
+        }
+
+        int doc(int slot) {
+            return docs[slot];
+        }
+
+        float score(int slot) {
+            return scores[slot];
+        }
+
+        int matchedTerms(int slot) {
+            return matchedTerms[slot];
+        }
+    }
+
+    // ── Snapshot ─────────────────────────────────────────────────────────────
+
+    private void snapshotIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            dirty = false;
+            Path parent = snapshotFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(docById.size());
+                for (StoredChunk chunk : chunks) {
+                    if (chunk != null) {
+                        writeString(out, chunk.id());
+                        writeString(out, chunk.text());
+                        writeString(out, jsonMapper.writeValueAsString(chunk.metadata()));
+                    }
+                }
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            dirty = true;
+            log.error("Snapshot BM25 su {} non riuscito: {}", snapshotFile, e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("formato non riconosciuto");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                addDoc(new StoredChunk(readString(in), readString(in), jsonMapper.readValue(readString(in), METADATA)));
+            }
+            log.info("Indice BM25 caricato da {}: {} chunk, {} termini", snapshotFile, count, termIds.size());
+        } catch (IOException | RuntimeException e) {
+            // Indice illeggibile: si riparte da vuoto, il ramo vettoriale resta disponibile
+            log.warn("Indice BM25 {} non leggibile, ignorato: {}", snapshotFile, e.getMessage());
+            chunks.clear();
+            rebuild();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,428 @@
+package com.chatbot.chatbot_backend.retrieval;
+
+import com.chatbot.chatbot_backend.concurrency.Downstream;
+import com.chatbot.chatbot_backend.concurrency.DownstreamLimiter;
+import com.chatbot.chatbot_backend.observability.PipelineObservations;
+import com.chatbot.chatbot_backend.tenancy.Shard;
+import com.chatbot.chatbot_backend.tenancy.ShardRouter;
+import com.chatbot.chatbot_backend.tenancy.TenantScope;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Retrieval ibrido: ricerca vettoriale (VectorStore) + lessicale (BM25), fuse con
+ * Reciprocal Rank Fusion: score(d) = Σ 1 / (k + rank(d)) sulle due classifiche.
+ *
+ * Il ramo lessicale trova i termini esatti (codici prodotto, nomi) che la similarità
+ * densa con soglia fissa perde. Se il ramo vettoriale non risponde entro
+ * {@code app.rag.vector-timeout} (embedding server o Chroma lenti) si risponde con
+ * il solo ramo lessicale invece di attendere o ricadere nel fallback senza contesto.
+ *
+ * Il ramo vettoriale ha sempre un tempo massimo, anche senza ibrido (nessun contesto
+ * invece di attendere), può essere duplicato (hedging) se lento e viene saltato del
+ * tutto quando il circuit breaker del vector store o dell'embedding è aperto: la
+ * latenza della risposta la decide il LLM, non un vector store bloccato.
+ *
+ * Con {@code app.rag.rerank.enabled} il retrieval è a due stadi: i due rami raccolgono
+ * top-k × {@code app.rag.rerank.oversampling} candidati e {@link Reranker} sceglie quelli
+ * da mettere nel prompt (al massimo top-k, anche meno); senza, la fusione tiene i primi top-k.
+ *
+ * La ricerca vettoriale gira sulla collection dello shard (tenant/workspace) della
+ * richiesta, scelta da {@link ShardRouter}. Con il workspace {@code *} parte una ricerca
+ * per ogni workspace del tenant, in parallelo, e i risultati vengono fusi per similarità;
+ * allo scadere del timeout si usano gli shard che hanno risposto.
+ *
+ * Con {@code spring.threads.virtual.enabled=true} ogni ricerca vettoriale gira su un
+ * thread virtuale e il parallelismo è limitato da {@link DownstreamLimiter}
+ * (vector-store) invece che dalla dimensione del pool.
+ */
+@Slf4j
+@Component
+public class HybridRetriever implements MeterBinder {
+
+    private final ShardRouter shardRouter;
+    private final Bm25Index bm25Index;
+    private final Reranker reranker;
+    private final DownstreamLimiter downstreamLimiter;
+    private final PipelineObservations observations;
+    private final ExecutorService vectorExecutor;
+
+    @Value("${app.rag.top-k:3}")
+    private int topK;
+
+    @Value("${app.rag.similarity-threshold:0.4}")
+    private double similarityThreshold;
+
+    @Value("${app.rag.hybrid.enabled:true}")
+    private boolean hybridEnabled;
+
+    @Value("${app.rag.hybrid.rrf-k:60}")
+    private int rrfK;
+
+    @Value("${app.rag.lexical.min-term-coverage:0.5}")
+    private double minTermCoverage;
+
+    @Value("${app.rag.rerank.enabled:false}")
+    private boolean rerankEnabled;
+
+    @Value("${app.rag.rerank.oversampling:5}")
+    private int rerankOversampling;
+
+    @Value("${app.rag.vector-timeout:3s}")
+    private Duration vectorTimeout;
+
+    // 0 = nessun hedging
+    @Value("${app.rag.vector-hedge-delay:0ms}")
+    private Duration vectorHedgeDelay;
+
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder degraded = new LongAdder();
+    private final LongAdder fanOuts = new LongAdder();
+    private final LongAdder partialFanOuts = new LongAdder();
+
+    public HybridRetriever(ShardRouter shardRouter, Bm25Index bm25Index, Reranker reranker,
+                           DownstreamLimiter downstreamLimiter, PipelineObservations observations,
+                           @Value("${app.rag.vector-parallelism:8}") int vectorParallelism,
+                           @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.shardRouter = shardRouter;
+        this.bm25Index = bm25Index;
+        this.reranker = reranker;
+        this.downstreamLimiter = downstreamLimiter;
+        this.observations = observations;
+        this.vectorExecutor = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("retrieval-", 0).factory())
+                // Nessuna coda: se tutti i worker sono occupati da ricerche lente si passa al solo BM25
+                : new ThreadPoolExecutor(
+                        vectorParallelism, vectorParallelism,
+                        0L, TimeUnit.MILLISECONDS,
+                        new SynchronousQueue<>(),
+                        new CustomizableThreadFactory("retrieval-")
+                );
+    }
+
+    public List<Document> retrieve(String query, String sourceFile, TenantScope scope) {
+        String source = sourceFile != null && !sourceFile.isBlank() ? sourceFile : null;
+        int candidates = rerankEnabled ? topK * Math.max(1, rerankOversampling) : topK;
+        List<Shard> shards = shardRouter.resolve(scope);
+        if (shards.isEmpty()) {
+            return List.of();                   // workspace senza documenti
+        }
+        if (shards.size() > 1) {
+            fanOuts.increment();
+        }
+        List<CompletableFuture<List<Document>>> vector = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            vector.add(hedged(submitVectorSearch(shard, query, source, candidates), shard, query, source, candidates));
+        }
+
+        // Termini coperti sotto soglia = match casuale su una parola comune, non contesto utile
+        int lexicalCandidates = rerankEnabled ? candidates : topK * 2;
+        List<String> shardKeys = shards.stream().map(Shard::key).toList();
+        List<Document> lexical = !hybridEnabled ? List.of()
+                : observations.rag("lexical-search", () -> bm25Index.search(query, lexicalCandidates, shardKeys, source)).stream()
+                        .filter(hit -> hit.termCoverage() >= minTermCoverage)
+                        .map(Bm25Index.Hit::document)
+                        .toList();
+
+        List<Document> dense;
+        try {
+            dense = awaitVector(vector, candidates);
+        } catch (TimeoutException | ExecutionException e) {
+            vector.forEach(future -> future.cancel(true));
+            degraded.increment();
+            // Circuito aperto o limite raggiunto: atteso, non serve un warning per richiesta
+            if (e.getCause() instanceof RejectedExecutionException) {
+                log.debug("Ricerca vettoriale saltata, solo BM25: {} docs", lexical.size());
+            } else {
+                log.warn("Ricerca vettoriale non disponibile ({}), solo BM25: {} docs",
+                        e.getClass().getSimpleName(), lexical.size());
+            }
+            return select(query, lexical);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Retrieval interrotto", e);
+        }
+
+        return select(query, hybridEnabled ? fuse(dense, lexical, candidates) : dense);
+    }
+
+    /**
+     * Richieste hedged, risposte degradate (solo BM25, o nessun contesto senza ibrido),
+     * ricerche in fan-out (anche parziali) e, con il rerank, candidati valutati e scartati.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hedged", hedged.sum());
+        stats.put("hedgeWins", hedgeWins.sum());
+        stats.put("degraded", degraded.sum());
+        stats.put("fanOut", fanOuts.sum());
+        stats.put("fanOutPartial", partialFanOuts.sum());
+        stats.put("shards", shardRouter.stats());
+        if (rerankEnabled) {
+            stats.put("rerank", reranker.stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("chatbot.rag.vector.hedged", hedged, LongAdder::doubleValue)
+                .description("Ricerche vettoriali duplicate dopo vector-hedge-delay")
+                .register(registry);
+        FunctionCounter.builder("chatbot.rag.vector.hedge.wins", hedgeWins, LongAdder::doubleValue)
+                .description("Ricerche hedged arrivate prima dell'originale")
+                .register(registry);
+        FunctionCounter.builder("chatbot.rag.degraded", degraded, LongAdder::doubleValue)
+                .description("Retrieval senza ramo vettoriale (timeout, errore o circuito aperto)")
+                .register(registry);
+        FunctionCounter.builder("chatbot.rag.vector.fanout", fanOuts, LongAdder::doubleValue)
+                .description("Ricerche vettoriali su tutti i workspace di un tenant")
+                .register(registry);
+        FunctionCounter.builder("chatbot.rag.vector.fanout.partial", partialFanOuts, LongAdder::doubleValue)
+                .description("Ricerche in fan-out con almeno uno shard senza risposta")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        vectorExecutor.shutdownNow();
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    /**
+     * FIX-1 (Security): sourceFile viene sanitizzato prima di essere interpolato
+     * nella filterExpression per prevenire injection sul parser di ChromaDB.
+     */
+    private List<Document> vectorSearch(VectorStore store, String query, String source, int candidates) {
+        SearchRequest.Builder builder = SearchRequest.builder()
+                .query(query)
+                .topK(candidates)
+                .similarityThreshold(similarityThreshold);
+
+        if (source != null) {
+            builder.filterExpression("source == '" + sanitizeFilterValue(source) + "'");
+        }
+
+        SearchRequest request = builder.build();
+        return observations.rag("vector-search", () -> store.similaritySearch(request));
+    }
+
+    /**
+     * Un solo shard: la sua risposta entro {@code app.rag.vector-timeout}. In fan-out si
+     * attende lo stesso tempo e si fondono, per similarità, le risposte arrivate: uno shard
+     * lento o in errore non toglie il contesto degli altri. Fallisce solo se non ha
+     * risposto nessuno.
+     */
+    private List<Document> awaitVector(List<CompletableFuture<List<Document>>> vector, int candidates)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (vector.size() == 1) {
+            return vector.get(0).get(vectorTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        try {
+            CompletableFuture.allOf(vector.toArray(CompletableFuture[]::new))
+                    .get(vectorTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // si usano gli shard che hanno risposto
+        }
+
+        List<Document> merged = new ArrayList<>();
+        Throwable failure = null;
+        int answered = 0;
+        for (CompletableFuture<List<Document>> future : vector) {
+            switch (future.state()) {
+                case SUCCESS -> {
+                    merged.addAll(future.resultNow());
+                    answered++;
+                }
+                case FAILED -> failure = future.exceptionNow();
+                default -> future.cancel(true);
+            }
+        }
+        if (answered == 0) {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            throw new TimeoutException();
+        }
+        if (answered < vector.size()) {
+            partialFanOuts.increment();
+            log.debug("Fan-out parziale: {} shard su {}", answered, vector.size());
+        }
+        merged.sort(Comparator.comparingDouble((Document document) ->
+                document.getScore() != null ? document.getScore() : 0).reversed());
+        return merged.size() > candidates ? merged.subList(0, candidates) : merged;
+    }
+
+    // Limite vector-store raggiunto, circuito aperto o pool saturo: future già fallito,
+    // il chiamante risponde subito con il solo BM25
+    // La collection viene aperta (o creata) qui, sotto il permesso: un errore di Chroma
+    // porta al solo BM25 come una ricerca fallita
+    // submit() e non supplyAsync(): cancel() di un CompletableFuture non interrompe il
+    // worker, quello del Future sì. Una ricerca scaduta o battuta dall'hedge si ferma alla
+    // prima attesa interrompibile (la chiamata HTTP a embedding/Chroma) e rende subito il
+    // permesso, senza contare come errore per il circuit breaker
+    private CompletableFuture<List<Document>> submitVectorSearch(Shard shard, String query, String source,
+                                                                 int candidates) {
+        DownstreamLimiter.Permit permit = downstreamLimiter.tryAcquire(Downstream.VECTOR_STORE);
+        if (permit == null) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("vector-store"));
+        }
+        CompletableFuture<List<Document>> result = new CompletableFuture<>();
+        Supplier<List<Document>> search = observations.inCurrentObservation(() ->
+                vectorSearch(shardRouter.store(shard), query, source, candidates));
+        Future<?> task;
+        try {
+            task = vectorExecutor.submit(() -> {
+                try (permit) {
+                    try {
+                        List<Document> docs = search.get();
+                        permit.succeeded();
+                        result.complete(docs);
+                    } catch (RuntimeException e) {
+                        permit.failed();
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permit.close();
+            return CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((docs, error) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+                permit.close();                      // anche se il task non è mai partito
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Hedging: se la ricerca non ha risposto entro {@code app.rag.vector-hedge-delay} ne
+     * parte una seconda identica e vince la prima che risponde. Taglia la coda della
+     * latenza (una query di Chroma ferma dietro una compaction, una connessione lenta)
+     * al costo di qualche ricerca in più; la copia passa dallo stesso limite vector-store
+     * e la ricerca che perde viene interrotta, così non tiene il permesso fino alla fine.
+     * Un errore non viene ritentato: l'hedge copre solo la lentezza.
+     */
+    private CompletableFuture<List<Document>> hedged(CompletableFuture<List<Document>> primary, Shard shard,
+                                                     String query, String source, int candidates) {
+        if (vectorHedgeDelay.isZero() || primary.isDone()) {
+            return primary;
+        }
+        CompletableFuture<List<Document>> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        AtomicReference<CompletableFuture<List<Document>>> hedge = new AtomicReference<>();
+        primary.whenComplete((docs, error) -> settle(result, running, docs, error));
+
+        CompletableFuture.delayedExecutor(vectorHedgeDelay.toMillis(), TimeUnit.MILLISECONDS, Runnable::run).execute(() -> {
+            if (result.isDone() || primary.isDone()) {
+                return;
+            }
+            running.incrementAndGet();
+            hedged.increment();
+            CompletableFuture<List<Document>> copy = submitVectorSearch(shard, query, source, candidates);
+            hedge.set(copy);
+            if (result.isDone()) {
+                copy.cancel(true);                   // deciso mentre partiva
+            }
+            copy.whenComplete((docs, error) -> {
+                if (error == null && !result.isDone()) {
+                    hedgeWins.increment();
+                }
+                settle(result, running, docs, error);
+            });
+        });
+        // Vinta da una delle due, o timeout del chiamante: l'altra ricerca viene interrotta
+        result.whenComplete((docs, error) -> {
+            primary.cancel(true);
+            CompletableFuture<List<Document>> copy = hedge.get();
+            if (copy != null) {
+                copy.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    // Primo successo vince; fallisce solo quando sono fallite tutte le ricerche partite
+    private static void settle(CompletableFuture<List<Document>> result, AtomicInteger running,
+                               List<Document> docs, Throwable error) {
+        if (error == null) {
+            result.complete(docs);
+        } else if (running.decrementAndGet() == 0) {
+            result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+        }
+    }
+
+    // Secondo stadio: rerank dei candidati, oppure i primi top-k così come sono
+    private List<Document> select(String query, List<Document> ranked) {
+        if (rerankEnabled && !ranked.isEmpty()) {
+            return observations.rag("rerank", () -> reranker.rerank(query, ranked, topK));
+        }
+        return ranked.size() > topK ? ranked.subList(0, topK) : ranked;
+    }
+
+    private List<Document> fuse(List<Document> dense, List<Document> lexical, int limit) {
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Document> byId = new LinkedHashMap<>();
+        addRanks(dense, scores, byId);
+        addRanks(lexical, scores, byId);
+
+        List<Document> fused = new ArrayList<>(byId.values());
+        fused.sort((a, b) -> Double.compare(scores.get(b.getId()), scores.get(a.getId())));
+        return fused.size() > limit ? fused.subList(0, limit) : fused;
+    }
+
+    // A parità di id si tiene il Document vettoriale (score = similarità coseno)
+    private void addRanks(List<Document> ranking, Map<String, Double> scores, Map<String, Document> byId) {
+        for (int rank = 0; rank < ranking.size(); rank++) {
+            Document document = ranking.get(rank);
+            scores.merge(document.getId(), 1.0 / (rrfK + rank + 1), Double::sum);
+            byId.putIfAbsent(document.getId(), document);
+        }
+    }
+
+    /**
+     * Sanitizza i valori interpolati nelle filterExpression di ChromaDB.
+     * Escape dell'apice singolo per prevenire injection sul filtro.
+     */
+    private String sanitizeFilterValue(String value) {
+        if (value == null) return "";
+        return value.replace("'", "\\'");
+    }
+}
@@ -0,0 +1,175 @@
+package com.chatbot.chatbot_backend.retrieval;
+
+import com.chatbot.chatbot_backend.config.CachingEmbeddingModel;
+import com.chatbot.chatbot_backend.vectorstore.VectorKernels;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Secondo stadio del retrieval: riordina i candidati sovracampionati dal primo stadio
+ * (top-k × {@code app.rag.rerank.oversampling}) con un punteggio calcolato in locale e
+ * tiene solo quelli che lo superano.
+ *
+ *   score = w × coseno(query, chunk) + (1 − w) × copertura IDF dei termini della query
+ *
+ * Il coseno arriva dal vector store (metadata {@code distance}) o, per i chunk trovati solo
+ * da BM25, dagli embedding già in cache: mai una chiamata a LM Studio. Senza coseno il
+ * punteggio è la sola copertura, senza termini noti all'indice il solo coseno. Nella
+ * copertura ogni termine pesa il suo IDF: un codice prodotto conta più di una parola comune.
+ *
+ * Selezione: al massimo top-k chunk con punteggio ≥ {@code min-score} e ≥
+ * {@code relative-score} × il migliore. Un chunk debole non entra nel prompt solo perché
+ * c'era posto (token di prefill in più), e uno buono oltre la posizione k nella classifica
+ * vettoriale non viene tagliato.
+ */
+@Slf4j
+@Component
+public class Reranker implements MeterBinder {
+
+    private final Bm25Index bm25Index;
+    private final CachingEmbeddingModel embeddingModel;     // null = solo coseni del vector store
+    private final double denseWeight;
+    private final double minScore;
+    private final double relativeScore;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder candidates = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile DistributionSummary droppedSummary;
+
+    public Reranker(Bm25Index bm25Index, CachingEmbeddingModel embeddingModel,
+                    @Value("${app.rag.rerank.dense-weight:0.7}") double denseWeight,
+                    @Value("${app.rag.rerank.min-score:0.35}") double minScore,
+                    @Value("${app.rag.rerank.relative-score:0.6}") double relativeScore) {
+        this.bm25Index = bm25Index;
+        this.embeddingModel = embeddingModel;
+        this.denseWeight = denseWeight;
+        this.minScore = minScore;
+        this.relativeScore = relativeScore;
+    }
+
+    // ─── PUBLIC API ──────────────────────────────────────────────────────────
+
+    /** I chunk da mettere nel contesto (al massimo topK), dal più rilevante. */
+    public List<Document> rerank(String query, List<Document> ranked, int topK) {
+        long start = System.nanoTime();
+        List<String> queryTerms = new ArrayList<>(new HashSet<>(Tokenizer.tokenize(query)));
+        Map<String, Double> idf = bm25Index.idf(queryTerms);
+        float[] queryVector = embeddingModel != null ? embeddingModel.cached(query) : null;
+
+        List<Scored> scored = new ArrayList<>(ranked.size());
+        for (Document document : ranked) {
+            scored.add(new Scored(document, score(document, idf, queryVector)));
+        }
+        scored.sort(Comparator.comparingDouble(Scored::score).reversed());
+
+        List<Document> selected = new ArrayList<>(Math.min(topK, scored.size()));
+        double cutoff = scored.isEmpty() ? minScore : Math.max(minScore, scored.get(0).score() * relativeScore);
+        for (Scored candidate : scored) {
+            if (selected.size() == topK || candidate.score() < cutoff) {
+                break;
+            }
+            selected.add(candidate.document());
+        }
+
+        record(ranked.size(), ranked.size() - selected.size());
+        log.info("Rerank '{}': {} candidati → {} ({} scartati, soglia {}) in {} µs", query, ranked.size(),
+                selected.size(), ranked.size() - selected.size(), String.format("%.2f", cutoff),
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        if (log.isDebugEnabled()) {
+            scored.forEach(candidate -> log.debug("  {} {}", String.format("%.3f", candidate.score()),
+                    candidate.document().getMetadata().get("source")));
+        }
+        return selected;
+    }
+
+    /** Richieste riordinate, candidati valutati e scartati. */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("reranked", requests.sum());
+        stats.put("candidates", candidates.sum());
+        stats.put("dropped", dropped.sum());
+        return stats;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.droppedSummary = DistributionSummary.builder("chatbot.rag.rerank.dropped")
+                .description("Candidati del retrieval scartati dal rerank, per richiesta")
+                .baseUnit("chunks")
+                .register(registry);
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private record Scored(Document document, double score) {
+    }
+
+    private double score(Document document, Map<String, Double> idf, float[] queryVector) {
+        Double dense = dense(document, queryVector);
+        Double coverage = coverage(document, idf);
+        if (dense != null && coverage != null) {
+            return denseWeight * dense + (1 - denseWeight) * coverage;
+        }
+        return dense != null ? dense : coverage != null ? coverage : 0;
+    }
+
+    // Similarità calcolata dal vector store; per i soli risultati BM25 dagli embedding in cache
+    private Double dense(Document document, float[] queryVector) {
+        if (document.getMetadata().get("distance") instanceof Number distance) {
+            return 1 - distance.doubleValue();
+        }
+        if (queryVector == null || document.getText() == null) {
+            return null;
+        }
+        float[] chunkVector = embeddingModel.cached(document.getFormattedContent(MetadataMode.EMBED));
+        if (chunkVector == null || chunkVector.length != queryVector.length) {
+            return null;
+        }
+        double norms = Math.sqrt(VectorKernels.dot(queryVector, queryVector))
+                * Math.sqrt(VectorKernels.dot(chunkVector, chunkVector));
+        return norms > 0 ? VectorKernels.dot(queryVector, chunkVector) / norms : 0;
+    }
+
+    // Quota (pesata per IDF) dei termini della query presenti nel chunk
+    private static Double coverage(Document document, Map<String, Double> idf) {
+        double total = idf.values().stream().mapToDouble(Double::doubleValue).sum();
+        if (total <= 0 || document.getText() == null) {
+            return null;
+        }
+        Set<String> terms = new HashSet<>(Tokenizer.tokenize(document.getText()));
+        double found = 0;
+        for (Map.Entry<String, Double> term : idf.entrySet()) {
+            if (terms.contains(term.getKey())) {
+                found += term.getValue();
+            }
+        }
+        return found / total;
+    }
+
+    private void record(int candidateCount, int droppedCount) {
+        requests.increment();
+        candidates.add(candidateCount);
+        dropped.add(droppedCount);
+        DistributionSummary summary = droppedSummary;
+        if (summary != null) {
+            summary.record(droppedCount);
+        }
+    }
+}
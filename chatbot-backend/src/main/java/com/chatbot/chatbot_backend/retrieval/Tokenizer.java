@@ -0,0 +1,80 @@
+package com.chatbot.chatbot_backend.retrieval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Tokenizzazione per BM25: minuscolo, lettere/cifre Unicode, stopword italiane.
+ *
+ * I codici con separatori interni (XR-2040, v3.2.1, cod_art) producono sia il
+ * token intero sia le parti, così "XR-2040" trova anche "XR 2040" e viceversa.
+ */
+final class Tokenizer {
+
+    private static final Set<String> STOPWORDS = Set.of(
+            "il", "lo", "la", "i", "gli", "le", "un", "uno", "una", "di", "del", "dello", "della",
+            "dei", "degli", "delle", "a", "al", "allo", "alla", "ai", "agli", "alle", "da", "dal",
+            "dalla", "dai", "dalle", "in", "nel", "nello", "nella", "nei", "nelle", "su", "sul",
+            "sulla", "sui", "sulle", "con", "per", "tra", "fra", "e", "ed", "o", "che", "chi",
+            "non", "si", "se", "come", "è", "sono", "ha", "ho", "mi", "ti", "ci", "vi", "ne",
+            "quale", "quali", "cosa", "questo", "questa", "quello", "quella",
+            // forme elise: dell'ufficio → "dell" + "ufficio"
+            "l", "d", "c", "dell", "all", "dall", "nell", "sull", "quell"
+    );
+
+    private Tokenizer() {
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int length = lower.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            boolean compound = false;
+            while (i < length) {
+                char c = lower.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    i++;
+                } else if (isJoiner(c) && i + 1 < length && Character.isLetterOrDigit(lower.charAt(i + 1))) {
+                    compound = true;
+                    i++;
+                } else {
+                    break;
+                }
+            }
+            if (start == i) {
+                continue;
+            }
+            String token = lower.substring(start, i);
+            if (compound) {
+                tokens.add(token);
+                for (String part : token.split("[-_./]")) {
+                    addWord(tokens, part);
+                }
+            } else {
+                addWord(tokens, token);
+            }
+        }
+        return tokens;
+    }
+
+    private static void addWord(List<String> tokens, String word) {
+        if (!word.isEmpty() && !STOPWORDS.contains(word)) {
+            tokens.add(word);
+        }
+    }
+
+    private static boolean isJoiner(char c) {
+        return c == '-' || c == '_' || c == '.' || c == '/';
+    }
+}
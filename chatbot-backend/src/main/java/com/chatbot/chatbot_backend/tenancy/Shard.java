@@ -0,0 +1,57 @@
+package com.chatbot.chatbot_backend.tenancy;
+
+import java.util.regex.Pattern;
+
+/**
+ * Una collection del vector store: i documenti di un workspace di un tenant.
+ *
+ * Il workspace {@code default} del tenant {@code default} è la collection storica
+ * {@code documents}: i dati indicizzati prima dei tenant restano dove sono. Le altre
+ * si chiamano {@code documents-<tenant>-<workspace>} (nomi validi anche per Chroma:
+ * 3-63 caratteri, inizio e fine alfanumerici).
+ */
+public record Shard(String tenant, String workspace) {
+
+    // Prima di DEFAULT: il costruttore la usa durante l'inizializzazione della classe
+    private static final Pattern NAME = Pattern.compile("[a-z0-9]([a-z0-9_]{0,22}[a-z0-9])?");
+
+    public static final String DEFAULT_NAME = "default";
+    public static final Shard DEFAULT = new Shard(DEFAULT_NAME, DEFAULT_NAME);
+
+    public Shard {
+        requireValidName("tenant", tenant);
+        requireValidName("workspace", workspace);
+    }
+
+    /** Chiave nei metadata dei chunk ({@code shard}) e nell'indice di ingestion. */
+    public String key() {
+        return tenant + "/" + workspace;
+    }
+
+    public boolean isDefault() {
+        return equals(DEFAULT);
+    }
+
+    public String collectionName() {
+        return isDefault() ? "documents" : "documents-" + tenant + "-" + workspace;
+    }
+
+    // Chunk indicizzati prima dei tenant: nessuna chiave → shard di default
+    public static Shard fromKey(String key) {
+        if (key == null) {
+            return DEFAULT;
+        }
+        int slash = key.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Shard non valido: " + key);
+        }
+        return new Shard(key.substring(0, slash), key.substring(slash + 1));
+    }
+
+    static void requireValidName(String kind, String name) {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Nome " + kind + " non valido: '" + name
+                    + "' (minuscole, cifre e _, al massimo 24 caratteri)");
+        }
+    }
+}
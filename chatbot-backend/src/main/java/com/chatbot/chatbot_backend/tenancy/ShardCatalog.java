@@ -0,0 +1,17 @@
+package com.chatbot.chatbot_backend.tenancy;
+
+import java.util.List;
+
+/**
+ * Shard con documenti indicizzati e loro dimensione, letti dall'indice persistente
+ * dell'ingestion: dopo un riavvio le collection vengono aperte solo quando servono,
+ * ma il fan-out e le quote devono già conoscerle.
+ */
+public interface ShardCatalog {
+
+    /** I workspace del tenant che contengono almeno un documento. */
+    List<Shard> shards(String tenant);
+
+    /** Chunk indicizzati nei workspace del tenant. */
+    int chunkCount(String tenant);
+}
@@ -0,0 +1,139 @@
+package com.chatbot.chatbot_backend.tenancy;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Instradamento per tenant/workspace: ogni shard ha la propria collection, così la
+ * ricerca ANN scorre solo i documenti del workspace e la latenza segue la dimensione
+ * del tenant, non quella dell'intero corpus.
+ *
+ * Le collection vengono create (o aperte) alla prima richiesta che le usa; quella di
+ * default è il bean {@code vectorStore}. Quote per tenant: numero di workspace e di chunk
+ * indicizzati ({@code app.tenancy.max-*}, 0 = nessun limite), verificate dall'ingestion.
+ * Con upload concorrenti sullo stesso tenant il limite sui chunk è approssimato per eccesso
+ * di al più un file.
+ */
+@Slf4j
+@Component
+public class ShardRouter {
+
+    private final VectorStore defaultStore;
+    private final ShardStoreFactory storeFactory;
+    private final ShardCatalog catalog;
+    private final int maxWorkspaces;
+    private final int maxChunks;
+
+    private final Map<Shard, VectorStore> stores = new ConcurrentHashMap<>();
+
+    // ReentrantLock e non computeIfAbsent: la creazione fa una chiamata HTTP a Chroma e
+    // con i thread virtuali il lock di ConcurrentHashMap terrebbe occupato il carrier
+    private final ReentrantLock creationLock = new ReentrantLock();
+
+    public ShardRouter(VectorStore vectorStore, ShardStoreFactory storeFactory, ShardCatalog catalog,
+                       @Value("${app.tenancy.max-workspaces-per-tenant:0}") int maxWorkspaces,
+                       @Value("${app.tenancy.max-chunks-per-tenant:0}") int maxChunks) {
+        this.defaultStore = vectorStore;
+        this.storeFactory = storeFactory;
+        this.catalog = catalog;
+        this.maxWorkspaces = maxWorkspaces;
+        this.maxChunks = maxChunks;
+    }
+
+    // ─── PUBLIC API ──────────────────────────────────────────────────────────
+
+    public VectorStore store(Shard shard) {
+        if (shard.isDefault()) {
+            return defaultStore;
+        }
+        VectorStore store = stores.get(shard);
+        if (store != null) {
+            return store;
+        }
+        creationLock.lock();
+        try {
+            store = stores.get(shard);
+            if (store == null) {
+                store = storeFactory.create(shard);
+                stores.put(shard, store);
+                log.info("Collection '{}' aperta per {}", shard.collectionName(), shard.key());
+            }
+            return store;
+        } finally {
+            creationLock.unlock();
+        }
+    }
+
+    /**
+     * Shard da interrogare: quello indicato o, in fan-out, tutti i workspace del tenant.
+     * Solo quelli con documenti (più il default): una ricerca non crea collection vuote
+     * per tenant o workspace inesistenti.
+     */
+    public List<Shard> resolve(TenantScope scope) {
+        List<Shard> known = catalog.shards(scope.tenant());
+        if (scope.isFanOut()) {
+            return known;
+        }
+        Shard shard = scope.shard();
+        return shard.isDefault() || known.contains(shard) ? List.of(shard) : List.of();
+    }
+
+    /**
+     * Chunk che un'ingestion può ancora scrivere nello shard; {@code replacedChunks} sono
+     * quelli della versione precedente dello stesso file, che verranno sostituiti.
+     *
+     * @throws IllegalStateException quota di workspace o di chunk del tenant esaurita
+     */
+    public int chunkBudget(Shard shard, int replacedChunks) {
+        if (maxWorkspaces > 0) {
+            List<Shard> existing = catalog.shards(shard.tenant());
+            if (!existing.contains(shard) && existing.size() >= maxWorkspaces) {
+                throw new IllegalStateException("Il tenant '" + shard.tenant() + "' ha già "
+                        + existing.size() + " workspace (massimo " + maxWorkspaces + ")");
+            }
+        }
+        if (maxChunks <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        int budget = maxChunks - catalog.chunkCount(shard.tenant()) + replacedChunks;
+        if (budget <= 0) {
+            throw new IllegalStateException("Quota del tenant '" + shard.tenant() + "' esaurita: "
+                    + maxChunks + " chunk indicizzati");
+        }
+        return budget;
+    }
+
+    /** Collection aperte, oltre a quella di default. */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("openCollections", stores.size() + 1);
+        stats.put("maxWorkspacesPerTenant", maxWorkspaces);
+        stats.put("maxChunksPerTenant", maxChunks);
+        return stats;
+    }
+
+    // Il default è un bean: lo chiude Spring
+    @PreDestroy
+    public void close() {
+        for (Map.Entry<Shard, VectorStore> entry : stores.entrySet()) {
+            if (entry.getValue() instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Chiusura di '{}' non riuscita: {}", entry.getKey().collectionName(), e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.chatbot.chatbot_backend.tenancy;
+
+import org.springframework.ai.vectorstore.VectorStore;
+
+/**
+ * Crea il VectorStore di uno shard diverso da quello di default (che resta il bean
+ * {@code vectorStore}); un'implementazione per backend, in ChromaConfig e HnswConfig.
+ */
+@FunctionalInterface
+public interface ShardStoreFactory {
+
+    VectorStore create(Shard shard);
+}
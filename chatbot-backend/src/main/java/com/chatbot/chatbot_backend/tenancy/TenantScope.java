@@ -0,0 +1,38 @@
+package com.chatbot.chatbot_backend.tenancy;
+
+/**
+ * Shard su cui lavora una richiesta: un workspace di un tenant, oppure con
+ * workspace {@value #ALL_WORKSPACES} tutti i workspace del tenant (ricerca in fan-out).
+ * Tenant o workspace assenti valgono {@code default}.
+ */
+public record TenantScope(String tenant, String workspace) {
+
+    public static final String ALL_WORKSPACES = "*";
+    public static final TenantScope DEFAULT = new TenantScope(Shard.DEFAULT_NAME, Shard.DEFAULT_NAME);
+
+    public TenantScope {
+        Shard.requireValidName("tenant", tenant);
+        if (!ALL_WORKSPACES.equals(workspace)) {
+            Shard.requireValidName("workspace", workspace);
+        }
+    }
+
+    public static TenantScope of(String tenant, String workspace) {
+        return new TenantScope(
+                tenant == null || tenant.isBlank() ? Shard.DEFAULT_NAME : tenant.strip(),
+                workspace == null || workspace.isBlank() ? Shard.DEFAULT_NAME : workspace.strip());
+    }
+
+    public boolean isFanOut() {
+        return ALL_WORKSPACES.equals(workspace);
+    }
+
+    /** Lo shard di destinazione di un'ingestion: il fan-out vale solo per la ricerca. */
+    public Shard shard() {
+        if (isFanOut()) {
+            throw new IllegalArgumentException(
+                    "Workspace '" + ALL_WORKSPACES + "' ammesso solo in ricerca: indicare il workspace di destinazione");
+        }
+        return new Shard(tenant, workspace);
+    }
+}
@@ -0,0 +1,143 @@
+package com.chatbot.chatbot_backend.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Valuta una {@link Filter.Expression} di Spring AI sui metadata di un Document,
+ * in memoria: è l'equivalente locale del "where" che Chroma applica lato server.
+ */
+final class FilterEvaluator {
+
+    private static final String SOURCE = "source";
+
+    private FilterEvaluator() {
+    }
+
+    static boolean matches(Filter.Expression expression, Map<String, Object> metadata) {
+        if (expression == null) {
+            return true;
+        }
+        return switch (expression.type()) {
+            case AND -> matches(operand(expression.left()), metadata) && matches(operand(expression.right()), metadata);
+            case OR -> matches(operand(expression.left()), metadata) || matches(operand(expression.right()), metadata);
+            case NOT -> !matches(operand(expression.left()), metadata);
+            case ISNULL -> metadata.get(key(expression)) == null;
+            case ISNOTNULL -> metadata.get(key(expression)) != null;
+            case EQ -> valueEquals(metadata.get(key(expression)), value(expression));
+            case NE -> !valueEquals(metadata.get(key(expression)), value(expression));
+            case GT -> compare(metadata.get(key(expression)), value(expression), c -> c > 0);
+            case GTE -> compare(metadata.get(key(expression)), value(expression), c -> c >= 0);
+            case LT -> compare(metadata.get(key(expression)), value(expression), c -> c < 0);
+            case LTE -> compare(metadata.get(key(expression)), value(expression), c -> c <= 0);
+            case IN -> values(expression).stream().anyMatch(v -> valueEquals(metadata.get(key(expression)), v));
+            case NIN -> values(expression).stream().noneMatch(v -> valueEquals(metadata.get(key(expression)), v));
+        };
+    }
+
+    /**
+     * Sorgenti a cui il filtro restringe i documenti ({@code source == …}, {@code source IN […]},
+     * anche dentro AND/OR), null se il filtro non vincola la sorgente: con la sorgente
+     * nota {@link HnswVectorStore} cerca solo tra i nodi di quei file.
+     */
+    static Set<String> sources(Filter.Expression expression) {
+        if (expression == null) {
+            return null;
+        }
+        return switch (expression.type()) {
+            case AND -> {
+                Set<String> left = sources(operand(expression.left()));
+                Set<String> right = sources(operand(expression.right()));
+                if (left == null || right == null) {
+                    yield left != null ? left : right;
+                }
+                Set<String> both = new HashSet<>(left);
+                both.retainAll(right);
+                yield both;
+            }
+            case OR -> {
+                Set<String> left = sources(operand(expression.left()));
+                Set<String> right = sources(operand(expression.right()));
+                if (left == null || right == null) {
+                    yield null;
+                }
+                Set<String> either = new HashSet<>(left);
+                either.addAll(right);
+                yield either;
+            }
+            case EQ, IN -> {
+                if (!SOURCE.equals(key(expression))) {
+                    yield null;
+                }
+                Set<String> values = new HashSet<>();
+                values(expression).forEach(value -> values.add(String.valueOf(value)));
+                yield values;
+            }
+            default -> null;
+        };
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private static Filter.Expression operand(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) {
+            return group.content();
+        }
+        if (operand instanceof Filter.Expression expression) {
+            return expression;
+        }
+        throw new IllegalArgumentException("Operando di filtro non supportato: " + operand);
+    }
+
+    // Il parser testuale può lasciare le chiavi tra apici: 'source' == …
+    private static String key(Filter.Expression expression) {
+        if (!(expression.left() instanceof Filter.Key key)) {
+            throw new IllegalArgumentException("Chiave di filtro attesa: " + expression);
+        }
+        String name = key.key();
+        if (name.length() >= 2 && (name.startsWith("'") || name.startsWith("\"")) && name.endsWith(name.substring(0, 1))) {
+            return name.substring(1, name.length() - 1);
+        }
+        return name;
+    }
+
+    private static Object value(Filter.Expression expression) {
+        if (!(expression.right() instanceof Filter.Value value)) {
+            throw new IllegalArgumentException("Valore di filtro atteso: " + expression);
+        }
+        return value.value();
+    }
+
+    private static Collection<?> values(Filter.Expression expression) {
+        Object value = value(expression);
+        return value instanceof Collection<?> collection ? collection : List.of(value);
+    }
+
+    private static boolean valueEquals(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue()) == 0;
+        }
+        if (actual == null || expected == null) {
+            return actual == expected;
+        }
+        return Objects.equals(actual.toString(), expected.toString());
+    }
+
+    // Confronto numerico se entrambi numeri, altrimenti lessicografico; null = mai soddisfatto
+    private static boolean compare(Object actual, Object expected, IntPredicate outcome) {
+        if (actual == null || expected == null) {
+            return false;
+        }
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return outcome.test(Double.compare(a.doubleValue(), b.doubleValue()));
+        }
+        return outcome.test(actual.toString().compareTo(expected.toString()));
+    }
+}
@@ -0,0 +1,573 @@
+package com.chatbot.chatbot_backend.vectorstore;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * Grafo HNSW (Hierarchical Navigable Small World) su array primitivi.
+ *
+ *   vectors  {@link NodeVectors}               vettori normalizzati → similarità = prodotto scalare
+ *   layer0   int[capacity × (m0 + 1)]         livello 0: [numero vicini, vicino1, …]
+ *   upper    int[nodo][livello - 1][m + 1]    livelli superiori, solo per i pochi nodi che li hanno
+ *   codes    byte[capacity × dimensions]      con INT8: codici quantizzati (+ scales, una per nodo)
+ *   bits     long[capacity × ⌈dimensions/64⌉] con BINARY: segni delle componenti
+ *
+ * La costruzione del grafo usa sempre i float. Con {@link Quantization#INT8} la ricerca
+ * visita il grafo confrontando i codici int8, con {@link Quantization#BINARY} scandisce
+ * tutti i nodi con la distanza di Hamming; in entrambi i casi i migliori
+ * {@code k × oversampling} candidati vengono riordinati con la similarità esatta.
+ * I codici non fanno parte dello snapshot: si ricalcolano dai float al caricamento.
+ *
+ * Memoria: senza quantizzazione i float stanno sull'heap (4 byte per dimensione, letti a
+ * ogni confronto). Con INT8 e BINARY sull'heap restano solo i codici (1 byte, o 1 bit, per
+ * dimensione) e i float vanno su un file memory-mapped, fuori heap: li leggono solo la
+ * costruzione del grafo e il rescoring, le pagine poco usate il sistema operativo le scarica.
+ *
+ * I nodi non vengono mai rimossi dal grafo: la cancellazione è una tombstone,
+ * il nodo resta attraversabile ma non compare nei risultati. Quando le tombstone
+ * superano metà dei nodi {@link HnswVectorStore} ricostruisce il grafo dai soli vivi.
+ *
+ * Non thread-safe: la sincronizzazione è compito di {@link HnswVectorStore}.
+ * Va chiuso per rilasciare il file dei vettori.
+ */
+class HnswIndex implements Closeable {
+
+    private static final int MAGIC = 0x484E5357;       // "HNSW"
+    private static final Comparator<Neighbor> WORST_FIRST = (a, b) -> Float.compare(a.similarity(), b.similarity());
+    private static final Comparator<Neighbor> BEST_FIRST = WORST_FIRST.reversed();
+
+    private final int dimensions;
+    private final int m;
+    private final int m0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random;
+    private final Quantization quantization;
+    private final int words;
+
+    private final NodeVectors vectors;
+    private byte[] codes;
+    private float[] scales;
+    private long[] bits;
+    private int[] layer0;
+    private int[][][] upper;
+    private int[] levels;
+    private final BitSet deleted = new BitSet();
+
+    private int size;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    record Neighbor(int node, float similarity) {
+    }
+
+    @FunctionalInterface
+    private interface Scorer {
+        float similarity(int node);
+    }
+
+    HnswIndex(int dimensions, int m, int efConstruction, long seed, Quantization quantization) {
+        this(dimensions, m, efConstruction, seed, quantization, null);
+    }
+
+    /** {@code vectorDirectory}: dove creare il file dei float con la quantizzazione (null = temporanea). */
+    HnswIndex(int dimensions, int m, int efConstruction, long seed, Quantization quantization, Path vectorDirectory) {
+        this.dimensions = dimensions;
+        this.quantization = quantization;
+        this.words = Quantization.words(dimensions);
+        this.m = m;
+        this.m0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1 / Math.log(m);
+        this.random = new SplittableRandom(seed);
+        this.vectors = quantization == Quantization.NONE
+                ? NodeVectors.onHeap(dimensions)
+                : NodeVectors.mapped(dimensions, vectorDirectory);
+        allocate(64);
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PUBLIC API
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /** Inserisce un vettore (già normalizzato) e restituisce l'indice del nodo. */
+    int insert(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "Dimensione vettore " + vector.length + " diversa da " + dimensions);
+        }
+        if (size == levels.length) {
+            allocate(levels.length * 2);
+        }
+        int node = size++;
+        vectors.set(node, vector);
+        encode(node, vector);
+        int level = randomLevel();
+        levels[node] = level;
+        if (level > 0) {
+            upper[node] = new int[level][m + 1];
+        }
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        Scorer exact = candidate -> similarity(vector, candidate);
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(exact, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Neighbor> candidates = searchLayer(exact, current, efConstruction, l, this::isLive);
+            if (candidates.isEmpty()) {
+                candidates = List.of(new Neighbor(current, similarity(vector, current)));
+            }
+            int maxLinks = l == 0 ? m0 : m;
+            int[] selected = selectNeighbors(candidates, maxLinks);
+            setLinks(node, l, selected, selected.length);
+            for (int neighbor : selected) {
+                addLink(neighbor, node, l);
+            }
+            current = candidates.get(0).node();
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /** I k nodi più simili tra quelli accettati dal filtro, in ordine decrescente. */
+    List<Neighbor> search(float[] query, int k, int ef, int oversampling, IntPredicate accept) {
+        return search(query, k, ef, oversampling, accept, null);
+    }
+
+    /**
+     * Come sopra, con i soli nodi che possono soddisfare il filtro se il chiamante li
+     * conosce ({@code candidates}, es. i chunk di una sorgente; null = tutti i nodi vivi).
+     *
+     * Pochi candidati (non più delle similarità che calcolerebbe una visita del grafo,
+     * ef × m0): scansione esatta dei soli candidati, senza visitare il grafo. Altrimenti
+     * visita del grafo; con un filtro molto selettivo la visita prosegue finché non trova
+     * k risultati e, se non li trova pur essendoci abbastanza candidati, si scandiscono i
+     * candidati, così il risultato resta esatto rispetto al filtro anche per i nodi rimasti
+     * senza archi entranti (vettori identici: lo stesso chunk in molti file).
+     * Con la quantizzazione attiva la fase approssimata raccoglie {@code k × oversampling}
+     * candidati, riordinati poi con la similarità sui float.
+     */
+    List<Neighbor> search(float[] query, int k, int ef, int oversampling, IntPredicate accept, int[] candidates) {
+        if (entryPoint < 0 || k <= 0) {
+            return List.of();
+        }
+        IntPredicate live = node -> !deleted.get(node) && accept.test(node);
+        if (candidates != null && candidates.length <= Math.max(ef, k) * m0) {
+            return exactScan(query, k, candidates, live);
+        }
+        if (quantization == Quantization.BINARY) {
+            int oversampled = k * Math.max(1, oversampling);
+            return rescore(query, top(binaryScan(query, oversampled, live), oversampled), k);
+        }
+        List<Neighbor> found;
+        if (quantization == Quantization.NONE) {
+            found = top(traverse(node -> similarity(query, node), Math.max(ef, k), live), k);
+        } else {
+            int oversampled = k * Math.max(1, oversampling);
+            found = rescore(query, top(traverse(int8Scorer(query), Math.max(ef, oversampled), live), oversampled), k);
+        }
+        // Senza candidati noti liveCount() è solo un limite superiore dei nodi accettati
+        int matching = candidates != null ? candidates.length : liveCount();
+        return found.size() < Math.min(k, matching) ? exactScan(query, k, candidates, live) : found;
+    }
+
+    void markDeleted(int node) {
+        if (!deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+        }
+    }
+
+    boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int liveCount() {
+        return size - deletedCount;
+    }
+
+    int deletedCount() {
+        return deletedCount;
+    }
+
+    /** Copia del vettore (normalizzato) del nodo, per ricostruire il grafo. */
+    float[] vector(int node) {
+        float[] vector = new float[dimensions];
+        vectors.get(node, vector);
+        return vector;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    Quantization quantization() {
+        return quantization;
+    }
+
+    @Override
+    public void close() {
+        vectors.close();
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // Snapshot
+    // ─────────────────────────────────────────────────────────────────────────
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(dimensions);
+        out.writeInt(m);
+        out.writeInt(efConstruction);
+        out.writeInt(size);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        float[] vector = new float[dimensions];
+        for (int node = 0; node < size; node++) {
+            out.writeInt(levels[node]);
+            out.writeBoolean(deleted.get(node));
+            vectors.get(node, vector);
+            for (float value : vector) {
+                out.writeFloat(value);
+            }
+            writeLinks(out, layer0, node * (m0 + 1));
+            for (int l = 1; l <= levels[node]; l++) {
+                writeLinks(out, upper[node][l - 1], 0);
+            }
+        }
+    }
+
+    static HnswIndex read(DataInputStream in, long seed, Quantization quantization) throws IOException {
+        return read(in, seed, quantization, null);
+    }
+
+    static HnswIndex read(DataInputStream in, long seed, Quantization quantization, Path vectorDirectory)
+            throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Formato snapshot HNSW non riconosciuto");
+        }
+        HnswIndex index = new HnswIndex(in.readInt(), in.readInt(), in.readInt(), seed, quantization, vectorDirectory);
+        float[] vector = new float[index.dimensions];
+        int size = in.readInt();
+        index.allocate(Math.max(64, size));
+        index.size = size;
+        index.entryPoint = in.readInt();
+        index.maxLevel = in.readInt();
+        for (int node = 0; node < size; node++) {
+            int level = in.readInt();
+            index.levels[node] = level;
+            if (in.readBoolean()) {
+                index.markDeleted(node);
+            }
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = in.readFloat();
+            }
+            index.vectors.set(node, vector);
+            index.encode(node, vector);
+            readLinks(in, index.layer0, node * (index.m0 + 1));
+            if (level > 0) {
+                index.upper[node] = new int[level][index.m + 1];
+                for (int l = 1; l <= level; l++) {
+                    readLinks(in, index.upper[node][l - 1], 0);
+                }
+            }
+        }
+        return index;
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // PRIVATE HELPERS
+    // ─────────────────────────────────────────────────────────────────────────
+
+    private void allocate(int capacity) {
+        vectors.reserve(capacity);
+        layer0 = layer0 == null ? new int[capacity * (m0 + 1)] : Arrays.copyOf(layer0, capacity * (m0 + 1));
+        upper = upper == null ? new int[capacity][][] : Arrays.copyOf(upper, capacity);
+        levels = levels == null ? new int[capacity] : Arrays.copyOf(levels, capacity);
+        if (quantization == Quantization.INT8) {
+            codes = codes == null ? new byte[capacity * dimensions] : Arrays.copyOf(codes, capacity * dimensions);
+            scales = scales == null ? new float[capacity] : Arrays.copyOf(scales, capacity);
+        } else if (quantization == Quantization.BINARY) {
+            bits = bits == null ? new long[capacity * words] : Arrays.copyOf(bits, capacity * words);
+        }
+    }
+
+    private void encode(int node, float[] vector) {
+        if (quantization == Quantization.INT8) {
+            scales[node] = Quantization.int8(vector, 0, dimensions, codes, node * dimensions);
+        } else if (quantization == Quantization.BINARY) {
+            Quantization.binary(vector, 0, dimensions, bits, node * words);
+        }
+    }
+
+    private int randomLevel() {
+        return (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private boolean isLive(int node) {
+        return !deleted.get(node);
+    }
+
+    private List<Neighbor> traverse(Scorer scorer, int ef, IntPredicate accept) {
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedyClosest(scorer, current, l);
+        }
+        return searchLayer(scorer, current, ef, 0, accept);
+    }
+
+    // Similarità stimata: scala query × scala nodo × prodotto dei codici
+    private Scorer int8Scorer(float[] query) {
+        byte[] queryCodes = new byte[dimensions];
+        float queryScale = Quantization.int8(query, 0, dimensions, queryCodes, 0);
+        return node -> queryScale * scales[node]
+                * VectorKernels.dot(queryCodes, 0, codes, node * dimensions, dimensions);
+    }
+
+    /**
+     * Scansione di tutti i nodi: similarità stimata = segni concordi − discordi.
+     * Il filtro si valuta solo per i nodi che entrerebbero tra i candidati.
+     */
+    private List<Neighbor> binaryScan(float[] query, int candidates, IntPredicate accept) {
+        long[] queryBits = new long[words];
+        Quantization.binary(query, 0, dimensions, queryBits, 0);
+        PriorityQueue<Neighbor> results = new PriorityQueue<>(candidates + 1, WORST_FIRST);
+        for (int node = 0; node < size; node++) {
+            float score = dimensions - 2 * VectorKernels.hamming(queryBits, 0, bits, node * words, words);
+            if (results.size() < candidates || score > results.peek().similarity()) {
+                if (accept.test(node)) {
+                    results.add(new Neighbor(node, score));
+                    if (results.size() > candidates) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(results);
+    }
+
+    // candidates null = tutti i nodi
+    private List<Neighbor> exactScan(float[] query, int k, int[] candidates, IntPredicate accept) {
+        PriorityQueue<Neighbor> results = new PriorityQueue<>(k + 1, WORST_FIRST);
+        int count = candidates != null ? candidates.length : size;
+        for (int i = 0; i < count; i++) {
+            int node = candidates != null ? candidates[i] : i;
+            if (accept.test(node)) {
+                results.add(new Neighbor(node, similarity(query, node)));
+                if (results.size() > k) {
+                    results.poll();
+                }
+            }
+        }
+        List<Neighbor> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    private List<Neighbor> rescore(float[] query, List<Neighbor> candidates, int k) {
+        List<Neighbor> rescored = new ArrayList<>(candidates.size());
+        for (Neighbor candidate : candidates) {
+            rescored.add(new Neighbor(candidate.node(), similarity(query, candidate.node())));
+        }
+        rescored.sort(BEST_FIRST);
+        return top(rescored, k);
+    }
+
+    private static List<Neighbor> top(List<Neighbor> sorted, int k) {
+        return sorted.size() > k ? sorted.subList(0, k) : sorted;
+    }
+
+    private int greedyClosest(Scorer scorer, int start, int level) {
+        int current = start;
+        float best = scorer.similarity(current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] links = links(current, level);
+            int base = linksBase(current, level);
+            for (int i = 1; i <= links[base]; i++) {
+                int candidate = links[base + i];
+                float score = scorer.similarity(candidate);
+                if (score > best) {
+                    best = score;
+                    current = candidate;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /** Ricerca best-first su un livello; restituisce i risultati accettati, dal più simile. */
+    private List<Neighbor> searchLayer(Scorer scorer, int start, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(size);
+        // Dimensionate per ef: niente ricrescite durante la visita
+        PriorityQueue<Neighbor> candidates = new PriorityQueue<>(4 * ef, BEST_FIRST);
+        PriorityQueue<Neighbor> results = new PriorityQueue<>(ef + 1, WORST_FIRST);
+
+        Neighbor first = new Neighbor(start, scorer.similarity(start));
+        visited.set(start);
+        candidates.add(first);
+        if (accept.test(start)) {
+            results.add(first);
+        }
+
+        while (!candidates.isEmpty()) {
+            Neighbor current = candidates.poll();
+            if (results.size() >= ef && current.similarity() < results.peek().similarity()) {
+                break;
+            }
+            int[] links = links(current.node(), level);
+            int base = linksBase(current.node(), level);
+            for (int i = 1; i <= links[base]; i++) {
+                int next = links[base + i];
+                if (visited.get(next)) {
+                    continue;
+                }
+                visited.set(next);
+                float score = scorer.similarity(next);
+                if (results.size() < ef || score > results.peek().similarity()) {
+                    candidates.add(new Neighbor(next, score));
+                    if (accept.test(next)) {
+                        results.add(new Neighbor(next, score));
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Neighbor> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    /**
+     * Euristica di selezione HNSW: un candidato entra solo se è più vicino alla base
+     * che ai vicini già scelti (mantiene il grafo navigabile tra cluster diversi);
+     * i posti rimasti liberi si riempiono con i candidati scartati.
+     */
+    private int[] selectNeighbors(List<Neighbor> candidates, int maxLinks) {
+        int[] selected = new int[Math.min(maxLinks, candidates.size())];
+        int count = 0;
+        List<Neighbor> discarded = new ArrayList<>();
+        for (Neighbor candidate : candidates) {
+            if (count == selected.length) {
+                break;
+            }
+            boolean keep = true;
+            for (int i = 0; i < count; i++) {
+                if (similarity(candidate.node(), selected[i]) > candidate.similarity()) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate.node();
+            } else {
+                discarded.add(candidate);
+            }
+        }
+        for (int i = 0; i < discarded.size() && count < selected.length; i++) {
+            selected[count++] = discarded.get(i).node();
+        }
+        return selected;
+    }
+
+    private void addLink(int node, int newNeighbor, int level) {
+        int[] links = links(node, level);
+        int base = linksBase(node, level);
+        int count = links[base];
+        int maxLinks = level == 0 ? m0 : m;
+        if (count < maxLinks) {
+            links[base + 1 + count] = newNeighbor;
+            links[base] = count + 1;
+            return;
+        }
+        // Lista piena: se il nuovo è più lontano di tutti i vicini attuali non entra,
+        // altrimenti si riseleziona tra i vicini attuali + il nuovo
+        float newSimilarity = similarity(node, newNeighbor);
+        List<Neighbor> candidates = new ArrayList<>(count + 1);
+        float weakest = Float.MAX_VALUE;
+        for (int i = 1; i <= count; i++) {
+            int existing = links[base + i];
+            float score = similarity(node, existing);
+            weakest = Math.min(weakest, score);
+            candidates.add(new Neighbor(existing, score));
+        }
+        if (newSimilarity <= weakest) {
+            return;
+        }
+        candidates.add(new Neighbor(newNeighbor, newSimilarity));
+        candidates.sort(BEST_FIRST);
+        int[] selected = selectNeighbors(candidates, maxLinks);
+        setLinks(node, level, selected, selected.length);
+    }
+
+    private void setLinks(int node, int level, int[] neighbors, int count) {
+        int[] links = links(node, level);
+        int base = linksBase(node, level);
+        links[base] = count;
+        System.arraycopy(neighbors, 0, links, base + 1, count);
+    }
+
+    private int[] links(int node, int level) {
+        return level == 0 ? layer0 : upper[node][level - 1];
+    }
+
+    private int linksBase(int node, int level) {
+        return level == 0 ? node * (m0 + 1) : 0;
+    }
+
+    private float similarity(float[] query, int node) {
+        return vectors.dot(query, node);
+    }
+
+    private float similarity(int a, int b) {
+        return vectors.dot(a, b);
+    }
+
+    private static void writeLinks(DataOutputStream out, int[] links, int base) throws IOException {
+        int count = links[base];
+        out.writeInt(count);
+        for (int i = 1; i <= count; i++) {
+            out.writeInt(links[base + i]);
+        }
+    }
+
+    private static void readLinks(DataInputStream in, int[] links, int base) throws IOException {
+        int count = in.readInt();
+        links[base] = count;
+        for (int i = 1; i <= count; i++) {
+            links[base + i] = in.readInt();
+        }
+    }
+}
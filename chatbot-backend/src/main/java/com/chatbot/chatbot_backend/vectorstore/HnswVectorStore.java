@@ -0,0 +1,450 @@
+package com.chatbot.chatbot_backend.vectorstore;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * VectorStore in-process basato su {@link HnswIndex}, alternativo a Chroma
+ * ({@code app.vectorstore.backend=hnsw}): la ricerca non esce dalla JVM.
+ *
+ * Concorrenza: gli embedding vengono calcolati fuori dal lock; il write lock
+ * è preso per il singolo inserimento, così le ricerche (read lock, in parallelo
+ * tra loro) attendono al massimo un inserimento, non un intero batch.
+ *
+ * Persistenza: snapshot completo su file (scrittura su .tmp + move atomico)
+ * a intervalli regolari se ci sono modifiche e alla chiusura.
+ *
+ * Quantizzazione ({@link Quantization}): cambia solo la fase approssimata della ricerca,
+ * lo snapshot contiene sempre i float e si può cambiare modalità senza reindicizzare.
+ * Con INT8/BINARY i float dell'indice stanno in un file temporaneo memory-mapped accanto
+ * allo snapshot, sull'heap solo i codici (vedi {@link HnswIndex}).
+ *
+ * Filtri per sorgente: i nodi di ogni file sono tenuti a parte, così una ricerca
+ * ristretta a pochi file scandisce solo i loro nodi invece di visitare il grafo.
+ *
+ * Cancellazioni e upsert lasciano tombstone nel grafo: quando superano metà dei nodi
+ * il grafo viene ricostruito dai soli nodi vivi (come le posting di Bm25Index), sotto
+ * write lock. La ricostruzione costa quanto reinserire i vettori ma è ammortizzata:
+ * serve almeno un'altra metà di cancellazioni prima della successiva.
+ */
+@Slf4j
+public class HnswVectorStore implements VectorStore, Closeable {
+
+    private static final int MAGIC = 0x56535431;       // "VST1"
+    private static final long SEED = 42L;
+    private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {};
+
+    // Una sola istanza: il costruttore carica l'encoder BPE di JTokkit (centinaia di ms)
+    private static final TokenCountBatchingStrategy BATCHING = new TokenCountBatchingStrategy();
+
+    private final EmbeddingModel embeddingModel;
+    private final Path snapshotFile;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final Quantization quantization;
+    private final int oversampling;
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService snapshotter;
+
+    // Stato protetto da lock: nodo HNSW → documento, id documento → nodo
+    private HnswIndex index;                            // creato al primo vettore (dimensione nota)
+    private final List<StoredDocument> documents = new ArrayList<>();
+    private final Map<String, Integer> nodeById = new HashMap<>();
+    private final Map<String, Set<Integer>> nodesBySource = new HashMap<>();
+    private volatile boolean dirty;
+
+    private record StoredDocument(String id, String text, Map<String, Object> metadata) {
+    }
+
+    public HnswVectorStore(EmbeddingModel embeddingModel, Path snapshotFile,
+                           int m, int efConstruction, int efSearch, Duration snapshotInterval,
+                           Quantization quantization, int oversampling) throws IOException {
+        this.embeddingModel = embeddingModel;
+        this.snapshotFile = snapshotFile;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.quantization = quantization;
+        this.oversampling = oversampling;
+
+        load();
+
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("hnsw-snapshot-"));
+        long intervalMs = snapshotInterval.toMillis();
+        snapshotter.scheduleWithFixedDelay(this::snapshotIfDirty, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // VectorStore
+    // ─────────────────────────────────────────────────────────────────────────
+
+    @Override
+    public String getName() {
+        return "HnswVectorStore";
+    }
+
+    @Override
+    public void add(List<Document> documentsToAdd) {
+        if (documentsToAdd.isEmpty()) {
+            return;
+        }
+        // Stesso percorso di embedding di ChromaVectorStore → vettori identici tra i due backend
+        List<float[]> embeddings = embeddingModel.embed(
+                documentsToAdd, EmbeddingOptions.builder().build(), BATCHING);
+
+        for (int i = 0; i < documentsToAdd.size(); i++) {
+            Document document = documentsToAdd.get(i);
+            float[] vector = normalize(embeddings.get(i));
+            lock.writeLock().lock();
+            try {
+                if (index == null) {
+                    index = new HnswIndex(vector.length, m, efConstruction, SEED, quantization, vectorDirectory());
+                }
+                Integer previous = nodeById.get(document.getId());
+                if (previous != null) {
+                    removeNode(previous);                // upsert: la versione precedente diventa tombstone
+                    rebuildIfSparse();
+                }
+                int node = index.insert(vector);
+                documents.add(null);
+                register(node, new StoredDocument(
+                        document.getId(), document.getText(), new HashMap<>(document.getMetadata())));
+                dirty = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idList) {
+                Integer node = nodeById.get(id);
+                if (node != null) {
+                    removeNode(node);
+                }
+            }
+            rebuildIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        lock.writeLock().lock();
+        try {
+            List<Integer> matching = new ArrayList<>();
+            for (int node : nodeById.values()) {
+                if (FilterEvaluator.matches(filterExpression, documents.get(node).metadata())) {
+                    matching.add(node);
+                }
+            }
+            matching.forEach(this::removeNode);
+            rebuildIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] query = normalize(embeddingModel.embed(request.getQuery()));
+        Filter.Expression filter = request.hasFilterExpression() ? request.getFilterExpression() : null;
+        Set<String> sources = FilterEvaluator.sources(filter);
+
+        lock.readLock().lock();
+        try {
+            if (index == null) {
+                return List.of();
+            }
+            List<HnswIndex.Neighbor> neighbors = index.search(query, request.getTopK(), efSearch, oversampling,
+                    node -> FilterEvaluator.matches(filter, documents.get(node).metadata()),
+                    sources == null ? null : nodesOf(sources));
+
+            List<Document> results = new ArrayList<>(neighbors.size());
+            for (HnswIndex.Neighbor neighbor : neighbors) {
+                if (neighbor.similarity() < request.getSimilarityThreshold()) {
+                    break;                                  // ordinati per similarità decrescente
+                }
+                StoredDocument stored = documents.get(neighbor.node());
+                Map<String, Object> metadata = new HashMap<>(stored.metadata());
+                metadata.put("distance", 1 - neighbor.similarity());
+                results.add(Document.builder()
+                        .id(stored.id())
+                        .text(stored.text())
+                        .metadata(metadata)
+                        .score((double) neighbor.similarity())
+                        .build());
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodeById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Nodi del grafo, tombstone comprese. */
+    int nodeCount() {
+        lock.readLock().lock();
+        try {
+            return index == null ? 0 : index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        snapshotter.shutdown();
+        try {
+            // Uno snapshot periodico ancora in corso scrive lo stesso .tmp: si attende che finisca
+            if (!snapshotter.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.error("Snapshot HNSW periodico ancora in corso, snapshot finale saltato");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Chiusura HNSW interrotta, snapshot finale saltato");
+            return;
+        }
+        snapshotIfDirty();
+        lock.writeLock().lock();
+        try {
+            if (index != null) {
+                index.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // Snapshot
+    // ─────────────────────────────────────────────────────────────────────────
+
+    private void snapshotIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        // Read lock: le ricerche proseguono, gli inserimenti attendono la fine dello snapshot
+        lock.readLock().lock();
+        try {
+            dirty = false;
+            Path parent = snapshotFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                writeSnapshot(out);
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Snapshot HNSW salvato: {} documenti", nodeById.size());
+        } catch (IOException | RuntimeException e) {
+            dirty = true;
+            log.error("Snapshot HNSW su {} non riuscito: {}", snapshotFile, e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeBoolean(index != null);
+        if (index == null) {
+            return;
+        }
+        index.write(out);
+        out.writeInt(documents.size());
+        for (int node = 0; node < documents.size(); node++) {
+            StoredDocument document = documents.get(node);
+            out.writeBoolean(document != null);
+            if (document != null) {
+                writeString(out, document.id());
+                writeString(out, document.text());
+                writeString(out, jsonMapper.writeValueAsString(document.metadata()));
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Formato snapshot non riconosciuto: " + snapshotFile);
+            }
+            if (!in.readBoolean()) {
+                return;
+            }
+            index = HnswIndex.read(in, SEED, quantization, vectorDirectory());
+            int count = in.readInt();
+            for (int node = 0; node < count; node++) {
+                if (!in.readBoolean()) {
+                    documents.add(null);
+                    continue;
+                }
+                StoredDocument document = new StoredDocument(
+                        readString(in), readString(in), jsonMapper.readValue(readString(in), METADATA));
+                documents.add(null);
+                if (!index.isDeleted(node)) {
+                    register(node, document);
+                }
+            }
+        }
+        rebuildIfSparse();
+        log.info("Indice HNSW caricato da {}: {} documenti ({} nodi, quantizzazione {})",
+                snapshotFile, nodeById.size(), index.size(), quantization);
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    // File dei float (con quantizzazione) accanto allo snapshot
+    private Path vectorDirectory() {
+        return snapshotFile.toAbsolutePath().getParent();
+    }
+
+    private void register(int node, StoredDocument document) {
+        documents.set(node, document);
+        nodeById.put(document.id(), node);
+        Object source = document.metadata().get("source");
+        if (source != null) {
+            nodesBySource.computeIfAbsent(source.toString(), key -> new HashSet<>()).add(node);
+        }
+    }
+
+    // Tombstone nel grafo; testo e metadata vengono liberati subito
+    private void removeNode(int node) {
+        index.markDeleted(node);
+        StoredDocument removed = documents.set(node, null);
+        if (removed != null) {
+            nodeById.remove(removed.id(), node);
+            Object source = removed.metadata().get("source");
+            Set<Integer> nodes = source == null ? null : nodesBySource.get(source.toString());
+            if (nodes != null && nodes.remove(node) && nodes.isEmpty()) {
+                nodesBySource.remove(source.toString());
+            }
+        }
+        dirty = true;
+    }
+
+    private int[] nodesOf(Set<String> sources) {
+        int count = 0;
+        for (String source : sources) {
+            count += nodesBySource.getOrDefault(source, Set.of()).size();
+        }
+        int[] nodes = new int[count];
+        int i = 0;
+        for (String source : sources) {
+            for (int node : nodesBySource.getOrDefault(source, Set.of())) {
+                nodes[i++] = node;
+            }
+        }
+        return nodes;
+    }
+
+    // Più tombstone che nodi vivi: nuovo grafo dai soli vivi, numerati in ordine
+    private void rebuildIfSparse() {
+        if (index == null || index.deletedCount() <= index.size() / 2) {
+            return;
+        }
+        HnswIndex rebuilt = new HnswIndex(index.dimensions(), m, efConstruction, SEED, quantization, vectorDirectory());
+        List<StoredDocument> live = new ArrayList<>(index.liveCount());
+        for (int node = 0; node < documents.size(); node++) {
+            StoredDocument document = documents.get(node);
+            if (document != null && !index.isDeleted(node)) {
+                rebuilt.insert(index.vector(node));
+                live.add(document);
+            }
+        }
+        int before = index.size();
+        index.close();
+        index = rebuilt;
+        documents.clear();
+        nodeById.clear();
+        nodesBySource.clear();
+        for (StoredDocument document : live) {
+            documents.add(null);
+            register(documents.size() - 1, document);
+        }
+        dirty = true;
+        log.debug("Indice HNSW ricostruito: {} nodi vivi su {}", live.size(), before);
+    }
+
+    private static float[] normalize(float[] vector) {
+        float[] normalized = vector.clone();
+        double norm = 0;
+        for (float v : normalized) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] /= (float) norm;
+            }
+        }
+        return normalized;
+    }
+
+    // writeUTF è limitato a 64 KB: lunghezza + byte UTF-8
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
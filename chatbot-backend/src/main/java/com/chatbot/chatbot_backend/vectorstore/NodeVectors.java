@@ -0,0 +1,193 @@
+package com.chatbot.chatbot_backend.vectorstore;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Vettori float dei nodi di {@link HnswIndex}, contigui per nodo.
+ *
+ *   heap    un solo float[] cresciuto per raddoppio: senza quantizzazione ogni confronto
+ *           della visita legge i float
+ *   mapped  file memory-mapped a blocchi da 64 MB: con INT8/BINARY sull'heap restano solo
+ *           i codici, i float servono alla costruzione del grafo e al rescoring dei
+ *           k × oversampling candidati e le loro pagine le gestisce il sistema operativo
+ *
+ * Il file mapped è temporaneo (creato nella directory indicata, cancellato alla chiusura):
+ * la copia persistente dei float resta lo snapshot di {@link HnswVectorStore}.
+ *
+ * Come HnswIndex non è thread-safe per le scritture; le letture concorrenti (ricerche
+ * sotto read lock) copiano il vettore in un buffer per thread e usano i kernel su array.
+ */
+abstract sealed class NodeVectors implements Closeable permits NodeVectors.Heap, NodeVectors.Mapped {
+
+    protected final int dimensions;
+
+    private NodeVectors(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    static NodeVectors onHeap(int dimensions) {
+        return new Heap(dimensions);
+    }
+
+    /** directory null = directory temporanea di sistema. */
+    static NodeVectors mapped(int dimensions, Path directory) {
+        return new Mapped(dimensions, directory);
+    }
+
+    /** Spazio per almeno {@code nodes} vettori (chiamato dalla crescita di HnswIndex). */
+    abstract void reserve(int nodes);
+
+    abstract void set(int node, float[] vector);
+
+    /** Copia il vettore del nodo in {@code target}. */
+    abstract void get(int node, float[] target);
+
+    abstract float dot(float[] query, int node);
+
+    abstract float dot(int a, int b);
+
+    @Override
+    public void close() {
+    }
+
+    // ── Implementazioni ──────────────────────────────────────────────────────
+
+    static final class Heap extends NodeVectors {
+
+        private float[] vectors = new float[0];
+
+        private Heap(int dimensions) {
+            super(dimensions);
+        }
+
+        @Override
+        void reserve(int nodes) {
+            if (nodes * dimensions > vectors.length) {
+                vectors = Arrays.copyOf(vectors, nodes * dimensions);
+            }
+        }
+
+        @Override
+        void set(int node, float[] vector) {
+            System.arraycopy(vector, 0, vectors, node * dimensions, dimensions);
+        }
+
+        @Override
+        void get(int node, float[] target) {
+            System.arraycopy(vectors, node * dimensions, target, 0, dimensions);
+        }
+
+        @Override
+        float dot(float[] query, int node) {
+            return VectorKernels.dot(query, 0, vectors, node * dimensions, dimensions);
+        }
+
+        @Override
+        float dot(int a, int b) {
+            return VectorKernels.dot(vectors, a * dimensions, vectors, b * dimensions, dimensions);
+        }
+    }
+
+    @Slf4j
+    static final class Mapped extends NodeVectors {
+
+        private static final long BLOCK_BYTES = 64L << 20;
+
+        private final Path file;
+        private final FileChannel channel;
+        private final int nodesPerBlock;
+        private final List<FloatBuffer> blocks = new ArrayList<>();
+        // Due vettori per thread: dot(a, b) li copia entrambi
+        private final ThreadLocal<float[]> scratch;
+
+        private Mapped(int dimensions, Path directory) {
+            super(dimensions);
+            this.nodesPerBlock = (int) Math.max(1, BLOCK_BYTES / ((long) dimensions * Float.BYTES));
+            this.scratch = ThreadLocal.withInitial(() -> new float[2 * dimensions]);
+            try {
+                if (directory != null) {
+                    Files.createDirectories(directory);
+                }
+                this.file = directory != null
+                        ? Files.createTempFile(directory, "hnsw-", ".vectors")
+                        : Files.createTempFile("hnsw-", ".vectors");
+                file.toFile().deleteOnExit();
+                this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("File dei vettori HNSW non creabile", e);
+            }
+        }
+
+        @Override
+        void reserve(int nodes) {
+            while ((long) blocks.size() * nodesPerBlock < nodes) {
+                map(blocks.size());
+            }
+        }
+
+        @Override
+        void set(int node, float[] vector) {
+            blocks.get(node / nodesPerBlock).put((node % nodesPerBlock) * dimensions, vector, 0, dimensions);
+        }
+
+        @Override
+        void get(int node, float[] target) {
+            read(node, target, 0);
+        }
+
+        @Override
+        float dot(float[] query, int node) {
+            float[] buffer = scratch.get();
+            read(node, buffer, 0);
+            return VectorKernels.dot(query, 0, buffer, 0, dimensions);
+        }
+
+        @Override
+        float dot(int a, int b) {
+            float[] buffer = scratch.get();
+            read(a, buffer, 0);
+            read(b, buffer, dimensions);
+            return VectorKernels.dot(buffer, 0, buffer, dimensions, dimensions);
+        }
+
+        // Il mapping resta valido fino alla garbage collection; il file si può già cancellare
+        @Override
+        public void close() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("File dei vettori HNSW {} non rimosso: {}", file, e.getMessage());
+            }
+        }
+
+        private void read(int node, float[] target, int offset) {
+            blocks.get(node / nodesPerBlock).get((node % nodesPerBlock) * dimensions, target, offset, dimensions);
+        }
+
+        // Il blocco estende il file (sparse): nessun remap dei blocchi già mappati
+        private void map(int block) {
+            long bytes = (long) nodesPerBlock * dimensions * Float.BYTES;
+            try {
+                blocks.add(channel.map(FileChannel.MapMode.READ_WRITE, block * bytes, bytes)
+                        .order(ByteOrder.nativeOrder())
+                        .asFloatBuffer());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Mapping dei vettori HNSW non riuscito: " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.chatbot.chatbot_backend.vectorstore;
+
+/**
+ * Rappresentazione compatta dei vettori usata da {@link HnswIndex} per la fase
+ * approssimata della ricerca ({@code app.vectorstore.hnsw.quantization}).
+ *
+ *   NONE    solo float: 4 byte per dimensione (3 KB per un vettore a 768 dimensioni)
+ *   INT8    scalare: 1 byte per dimensione + scala del vettore, 4× meno byte da leggere
+ *           a ogni confronto durante la visita del grafo
+ *   BINARY  1 bit per dimensione (segno), 96 byte a 768 dimensioni: scansione completa
+ *           con distanza di Hamming, senza grafo
+ *
+ * Con INT8 e BINARY i candidati migliori vengono poi riordinati con la similarità
+ * esatta sui float (rescoring), quindi i punteggi restituiti sono sempre esatti.
+ * I float restano su un file memory-mapped fuori heap: sull'heap solo i codici.
+ */
+public enum Quantization {
+    NONE,
+    INT8,
+    BINARY;
+
+    /**
+     * Quantizzazione simmetrica per vettore: {@code code = round(v / scale)} con
+     * {@code scale = max|v| / 127}. Restituisce la scala (0 per il vettore nullo).
+     */
+    static float int8(float[] vector, int offset, int dimensions, byte[] codes, int codesOffset) {
+        float maxAbs = 0;
+        for (int i = 0; i < dimensions; i++) {
+            maxAbs = Math.max(maxAbs, Math.abs(vector[offset + i]));
+        }
+        if (maxAbs == 0) {
+            return 0;
+        }
+        float scale = maxAbs / 127;
+        for (int i = 0; i < dimensions; i++) {
+            codes[codesOffset + i] = (byte) Math.round(vector[offset + i] / scale);
+        }
+        return scale;
+    }
+
+    /** Bit i = 1 se la componente i è positiva. */
+    static void binary(float[] vector, int offset, int dimensions, long[] bits, int bitsOffset) {
+        for (int word = 0; word < words(dimensions); word++) {
+            long value = 0;
+            int base = word * Long.SIZE;
+            for (int bit = 0; bit < Long.SIZE && base + bit < dimensions; bit++) {
+                if (vector[offset + base + bit] > 0) {
+                    value |= 1L << bit;
+                }
+            }
+            bits[bitsOffset + word] = value;
+        }
+    }
+
+    static int words(int dimensions) {
+        return (dimensions + Long.SIZE - 1) / Long.SIZE;
+    }
+}
@@ -0,0 +1,77 @@
+package com.chatbot.chatbot_backend.vectorstore;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernel di {@link VectorKernels} con la Vector API; istanziato solo se il modulo
+ * {@code jdk.incubator.vector} è caricato.
+ *
+ * int8: ogni passo carica tanti byte quante sono le lane int della forma preferita e li
+ * estende a int prima della moltiplicazione (nessun overflow: 127² × 768 ≪ 2³¹). Serve
+ * una forma da almeno 256 bit; su CPU a 128 bit il prodotto int8 resta scalare.
+ */
+final class SimdKernels implements VectorKernels.Kernels {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = INTS.length() >= 8
+            ? VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.length() * Byte.SIZE))
+            : null;
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sum = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector va = FloatVector.fromArray(FLOATS, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(FLOATS, b, bOffset + i);
+            sum = va.fma(vb, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int result = 0;
+        int i = 0;
+        if (BYTES != null) {
+            IntVector sum = IntVector.zero(INTS);
+            for (int bound = BYTES.loopBound(length); i < bound; i += BYTES.length()) {
+                IntVector va = (IntVector) ByteVector.fromArray(BYTES, a, aOffset + i).castShape(INTS, 0);
+                IntVector vb = (IntVector) ByteVector.fromArray(BYTES, b, bOffset + i).castShape(INTS, 0);
+                sum = sum.add(va.mul(vb));
+            }
+            result = sum.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    // Long.bitCount è già un'istruzione (POPCNT): con 768 bit (12 long) la versione
+    // vettoriale è più lenta per via della riduzione finale tra le lane
+    @Override
+    public int hamming(long[] a, int aOffset, long[] b, int bOffset, int words) {
+        int result = 0;
+        for (int i = 0; i < words; i++) {
+            result += Long.bitCount(a[aOffset + i] ^ b[bOffset + i]);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "float " + FLOATS.vectorBitSize() + " bit, int8 "
+                + (BYTES != null ? INTS.vectorBitSize() + " bit" : "scalare");
+    }
+}
@@ -0,0 +1,105 @@
+package com.chatbot.chatbot_backend.vectorstore;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Kernel di similarità su array primitivi: prodotto scalare float e int8, distanza
+ * di Hamming tra vettori binari.
+ *
+ * Con il modulo {@code jdk.incubator.vector} caricato ({@code --add-modules jdk.incubator.vector},
+ * già impostato per spring-boot:run, test e benchmark) i kernel usano la Vector API
+ * (SIMD sulla larghezza preferita della CPU); senza, lo stesso calcolo con cicli scalari.
+ * La scelta avviene una volta all'avvio.
+ */
+@Slf4j
+public final class VectorKernels {
+
+    interface Kernels {
+        float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+        int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+        int hamming(long[] a, int aOffset, long[] b, int bOffset, int words);
+    }
+
+    private static final Kernels KERNELS = select();
+
+    private VectorKernels() {
+    }
+
+    // ─── PUBLIC API ──────────────────────────────────────────────────────────
+
+    public static float dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Dimensioni diverse: " + a.length + " e " + b.length);
+        }
+        return KERNELS.dot(a, 0, b, 0, a.length);
+    }
+
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return KERNELS.dot(a, aOffset, b, bOffset, length);
+    }
+
+    public static int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return KERNELS.dot(a, aOffset, b, bOffset, length);
+    }
+
+    /** Bit diversi tra due vettori binari di {@code words} long. */
+    public static int hamming(long[] a, int aOffset, long[] b, int bOffset, int words) {
+        return KERNELS.hamming(a, aOffset, b, bOffset, words);
+    }
+
+    public static boolean simd() {
+        return !(KERNELS instanceof ScalarKernels);
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    // Classe SIMD caricata per nome: senza il modulo non va nemmeno risolta
+    private static Kernels select() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                Kernels simd = (Kernels) Class.forName(VectorKernels.class.getPackageName() + ".SimdKernels")
+                        .getDeclaredConstructor()
+                        .newInstance();
+                log.info("Kernel vettoriali SIMD attivi: {}", simd);
+                return simd;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                log.warn("Vector API non utilizzabile, kernel scalari: {}", e.toString());
+                return new ScalarKernels();
+            }
+        }
+        log.info("Kernel vettoriali scalari (avviare con --add-modules jdk.incubator.vector per SIMD)");
+        return new ScalarKernels();
+    }
+
+    static final class ScalarKernels implements Kernels {
+
+        @Override
+        public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            float sum = 0;
+            for (int i = 0; i < length; i++) {
+                sum += a[aOffset + i] * b[bOffset + i];
+            }
+            return sum;
+        }
+
+        @Override
+        public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+            int sum = 0;
+            for (int i = 0; i < length; i++) {
+                sum += a[aOffset + i] * b[bOffset + i];
+            }
+            return sum;
+        }
+
+        @Override
+        public int hamming(long[] a, int aOffset, long[] b, int bOffset, int words) {
+            int distance = 0;
+            for (int i = 0; i < words; i++) {
+                distance += Long.bitCount(a[aOffset + i] ^ b[bOffset + i]);
+            }
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.chatbot.chatbot_backend.bulk;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BulkSourceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsZipEntriesSkippingHiddenAndAlreadyDoneFiles() throws IOException {
+        Path zip = dir.resolve("manuali.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (String name : new String[]{"a.txt", "sub/", "sub/b.txt", "sub/.DS_Store", "__MACOSX/sub/._b.txt", "c.txt"}) {
+                out.putNextEntry(new ZipEntry(name));
+                if (!name.endsWith("/")) {
+                    out.write(("testo di " + name).getBytes(StandardCharsets.UTF_8));
+                }
+                out.closeEntry();
+            }
+        }
+
+        Map<String, String> entries = read(zip, Set.of("c.txt"));
+
+        assertThat(entries).containsExactly(
+                Map.entry("a.txt", "testo di a.txt"),
+                Map.entry("sub/b.txt", "testo di sub/b.txt"));
+    }
+
+    @Test
+    void readsTarGzWithLongAndPaxNames() throws IOException {
+        String longName = "manuali/" + "capitolo-".repeat(15) + "finale.txt";
+        String paxName = "manuali/perché-così.txt";
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        tarEntry(tar, "././@LongLink", 'L', (longName + "\0").getBytes(StandardCharsets.UTF_8));
+        tarEntry(tar, "troncato", '0', "lungo".getBytes(StandardCharsets.UTF_8));
+        tarEntry(tar, "PaxHeaders/x", 'x', paxRecord("path", paxName));
+        tarEntry(tar, "perche-cosi.txt", '0', "pax".getBytes(StandardCharsets.UTF_8));
+        tarEntry(tar, "manuali/", '5', new byte[0]);
+        tarEntry(tar, "./manuali/vuoto.txt", '0', new byte[0]);
+        tar.write(new byte[1024]);
+
+        Path archive = dir.resolve("manuali.tar.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(archive))) {
+            tar.writeTo(out);
+        }
+
+        assertThat(read(archive, Set.of())).containsExactly(
+                Map.entry(longName, "lungo"),
+                Map.entry(paxName, "pax"),
+                Map.entry("manuali/vuoto.txt", ""));
+    }
+
+    @Test
+    void extractionStopsAtTheArchiveLimits() throws IOException {
+        Path zip = dir.resolve("grande.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (String name : new String[]{"a.txt", "b.txt", "c.txt"}) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(new byte[1000]);              // compresso in pochi byte: conta l'estratto
+                out.closeEntry();
+            }
+        }
+
+        assertThat(read(zip, Set.of(), new BulkSource.Limits(1000, 3000, 3))).hasSize(3);
+        assertThatThrownBy(() -> read(zip, Set.of(), new BulkSource.Limits(999, 3000, 3)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("a.txt");
+        assertThatThrownBy(() -> read(zip, Set.of(), new BulkSource.Limits(1000, 2500, 3)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("max-total-bytes");
+        // Anche i file già conclusi contano nel numero di file
+        assertThatThrownBy(() -> read(zip, Set.of("a.txt"), new BulkSource.Limits(1000, 3000, 2)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("max-entries");
+    }
+
+    private static Map<String, String> read(Path source, Set<String> skip) throws IOException {
+        return read(source, skip, BulkSource.Limits.NONE);
+    }
+
+    private static Map<String, String> read(Path source, Set<String> skip, BulkSource.Limits limits)
+            throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        BulkSource.forEach(source, skip, limits, entry -> {
+            entries.put(entry.name(), Files.readString(entry.file()));
+            Files.delete(entry.file());
+            return true;
+        });
+        return entries;
+    }
+
+    // Header ustar essenziale: nome, dimensione in ottale, tipo, magic
+    private static void tarEntry(ByteArrayOutputStream tar, String name, char type, byte[] data) {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+        byte[] size = String.format("%011o", data.length).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        tar.writeBytes(header);
+        tar.writeBytes(data);
+        tar.writeBytes(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    private static byte[] paxRecord(String key, String value) {
+        int payload = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = payload + String.valueOf(payload).length();
+        if (String.valueOf(length).length() != String.valueOf(payload).length()) {
+            length++;
+        }
+        return (length + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
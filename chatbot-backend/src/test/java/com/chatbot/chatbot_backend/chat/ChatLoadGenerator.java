@@ -0,0 +1,113 @@
+package com.chatbot.chatbot_backend.chat;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generatore di carico per gli endpoint bloccanti di chat: per ogni livello di
+ * concorrenza N avvia N utenti (thread virtuali lato client, così il client non è
+ * il collo di bottiglia) che inviano richieste in ciclo chiuso per la durata indicata,
+ * poi stampa throughput e latenze.
+ *
+ * Da eseguire contro il backend avviato due volte, con
+ * {@code spring.threads.virtual.enabled=false} e poi {@code =true}, e con la response
+ * cache disattivata ({@code app.chat.response-cache.max-size=0}) per misurare il LLM:
+ *
+ *   mvn -P load-test test-compile exec:exec -Dload.users=10,50,100,200 -Dload.duration=30s
+ */
+public class ChatLoadGenerator {
+
+    private static final List<String> QUESTIONS = List.of(
+            "Quali sono gli orari dell'ufficio?",
+            "Come posso richiedere un rimborso?",
+            "Qual è la procedura per il reso di un prodotto?",
+            "Chi contattare per assistenza tecnica?",
+            "Quali documenti servono per l'iscrizione?"
+    );
+
+    public static void main(String[] args) throws Exception {
+        String url = System.getProperty("load.url", "http://localhost:8080/api/chat/message");
+        int[] users = Arrays.stream(System.getProperty("load.users", "10,50,100,200").split(","))
+                .mapToInt(value -> Integer.parseInt(value.strip()))
+                .toArray();
+        Duration duration = Duration.parse("PT" + System.getProperty("load.duration", "30s").toUpperCase());
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        System.out.printf("%s, %s per livello%n%n", url, duration);
+        System.out.printf("%6s %10s %10s %10s %10s %8s %8s%n",
+                "users", "req/s", "p50 ms", "p95 ms", "p99 ms", "429/503", "errori");
+        for (int level : users) {
+            run(client, url, level, duration);
+        }
+        System.exit(0);
+    }
+
+    private static void run(HttpClient client, String url, int users, Duration duration) throws InterruptedException {
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong busy = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        long deadline = System.nanoTime() + duration.toNanos();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int user = 0; user < users; user++) {
+                int offset = user;
+                executor.submit(() -> {
+                    for (int i = offset; System.nanoTime() < deadline; i++) {
+                        String body = "{\"message\":\"" + QUESTIONS.get(i % QUESTIONS.size()) + "\"}";
+                        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                                .header("Content-Type", "application/json")
+                                .timeout(Duration.ofMinutes(2))
+                                .POST(HttpRequest.BodyPublishers.ofString(body))
+                                .build();
+                        long start = System.nanoTime();
+                        try {
+                            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                            if (status == 200) {
+                                latencies.add(System.nanoTime() - start);
+                            } else if (status == 429 || status == 503) {
+                                busy.incrementAndGet();
+                            } else {
+                                errors.incrementAndGet();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        }
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        System.out.printf("%6d %10.1f %10d %10d %10d %8d %8d%n",
+                users,
+                sorted.size() / (double) duration.toSeconds(),
+                percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99),
+                busy.get(), errors.get());
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return Duration.ofNanos(sorted.get(Math.max(index, 0))).toMillis();
+    }
+}
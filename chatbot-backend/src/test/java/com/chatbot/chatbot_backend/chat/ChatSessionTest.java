@@ -0,0 +1,55 @@
+package com.chatbot.chatbot_backend.chat;
+
+import com.chatbot.chatbot_backend.tenancy.TenantScope;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChatSessionTest {
+
+    @Test
+    void documentsOfDroppedTurnsCanBeRetrievedAgain() {
+        String words = "parola ".repeat(40);
+        ChatSession session = new ChatSession("s", TenantScope.DEFAULT, 4 * ContextAssembler.estimateTokens(words + words));
+        session.pin("istruzioni e contesto", Set.of("sys"));
+
+        session.append(words, words, Set.of("a", "b"));
+        session.append(words, words, Set.of("b"));
+        assertThat(session.containsDocument("a")).isTrue();
+
+        // Il quinto turno supera il budget: restano gli ultimi due, "a" esce con il primo
+        session.append(words, words, Set.of());
+        session.append(words, words, Set.of());
+        session.append(words, words, Set.of());
+
+        assertThat(session.turnCount()).isEqualTo(2);
+        assertThat(session.containsDocument("a")).isFalse();
+        assertThat(session.containsDocument("b")).isFalse();
+        assertThat(session.containsDocument("sys")).isTrue();
+    }
+
+    @Test
+    void sessionIsBoundToTheScopeItWasCreatedIn() {
+        ChatSessionStore store = new ChatSessionStore(10, Duration.ofMinutes(30), 2048);
+        TenantScope acme = TenantScope.of("acme", "legal");
+        String id = store.create(acme);
+
+        assertThat(store.getOrCreate(id, TenantScope.of(" acme ", "legal")).scope()).isEqualTo(acme);
+        assertThatThrownBy(() -> store.getOrCreate(id, TenantScope.of("globex", "legal")))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> store.getOrCreate(id, TenantScope.DEFAULT))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> store.delete(id, TenantScope.of("acme", "hr")))
+                .isInstanceOf(IllegalStateException.class);
+
+        // Id sconosciuto (o scaduto): nuova sessione legata allo scope della richiesta
+        assertThat(store.getOrCreate("client-id", TenantScope.of("globex", null)).scope())
+                .isEqualTo(TenantScope.of("globex", "default"));
+        assertThat(store.delete(id, acme)).isTrue();
+        assertThat(store.delete(id, acme)).isFalse();
+    }
+}
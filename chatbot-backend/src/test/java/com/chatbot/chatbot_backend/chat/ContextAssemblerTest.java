@@ -0,0 +1,80 @@
+package com.chatbot.chatbot_backend.chat;
+
+import com.chatbot.chatbot_backend.document.StreamingTextChunker;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextAssemblerTest {
+
+    @Test
+    void mergesOverlappingChunksAndDropsRepeatedPassages() throws IOException {
+        String text = sentences(30);
+        List<String> chunks = chunk(text);
+        assertThat(chunks).hasSizeGreaterThan(2);
+
+        // Ordine di rilevanza diverso dall'ordine nel file + lo stesso chunk in un altro file
+        ContextAssembler.Assembly assembly = assembler(1024).assemble(List.of(
+                doc(chunks.get(2), "a.pdf"),
+                doc(chunks.get(0), "a.pdf"),
+                doc(chunks.get(1), "a.pdf"),
+                doc(chunks.get(1), "b.pdf"),
+                doc("Orari: lun-ven 9-18.", "c.pdf")));
+
+        String[] passages = assembly.text().split(ContextAssembler.SEPARATOR);
+        assertThat(passages).hasSize(2);
+        assertThat(text.strip()).startsWith(passages[0]);
+        assertThat(passages[1]).isEqualTo("Orari: lun-ven 9-18.");
+        assertThat(assembly.tokensSaved()).isPositive();
+    }
+
+    @Test
+    void fillsBudgetByRelevance() {
+        ContextAssembler.Assembly assembly = assembler(60).assemble(List.of(
+                doc(sentences(3), "a.pdf"),
+                doc(sentences(20), "b.pdf"),
+                doc("Orari: lun-ven 9-18.", "c.pdf")));
+
+        assertThat(assembly.passages()).isEqualTo(2);
+        assertThat(assembly.tokens()).isLessThanOrEqualTo(60);
+        assertThat(assembly.text()).endsWith("Orari: lun-ven 9-18.");
+    }
+
+    @Test
+    void truncatesTheMostRelevantPassageWhenNothingFits() {
+        ContextAssembler.Assembly assembly = assembler(30).assemble(List.of(doc(sentences(20), "a.pdf")));
+
+        assertThat(assembly.passages()).isEqualTo(1);
+        assertThat(assembly.tokens()).isLessThanOrEqualTo(30);
+        assertThat(assembly.text()).endsWith(".");
+    }
+
+    private static ContextAssembler assembler(int maxTokens) {
+        return new ContextAssembler(maxTokens, 0.8);
+    }
+
+    private static Document doc(String text, String source) {
+        return new Document(text, Map.of("source", source));
+    }
+
+    private static String sentences(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("La frase numero ").append(i).append(" descrive il passo ").append(i).append(" del rimborso. ");
+        }
+        return sb.toString();
+    }
+
+    private static List<String> chunk(String text) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        new StreamingTextChunker(500, 60, chunks::add).process(new StringReader(text));
+        return chunks;
+    }
+}
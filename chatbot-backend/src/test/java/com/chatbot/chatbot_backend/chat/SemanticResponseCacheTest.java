@@ -0,0 +1,143 @@
+package com.chatbot.chatbot_backend.chat;
+
+import com.chatbot.chatbot_backend.document.DocumentIngestedEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SemanticResponseCacheTest {
+
+    private final SemanticResponseCache cache = new SemanticResponseCache(
+            new KeywordEmbeddingModel(), 0.95, 100, Duration.ofHours(1), Duration.ofSeconds(5));
+    private final AtomicInteger llmCalls = new AtomicInteger();
+
+    @AfterEach
+    void shutdown() {
+        cache.shutdown();
+    }
+
+    @Test
+    void equivalentQuestionIsServedOnlyWithinTheSameScope() {
+        SemanticResponseCache.Scope manual = scope("manuale.pdf", "c1", "c2");
+
+        assertThat(cache.get(manual, "Orari dell'ufficio?", () -> llm("9-18"))).isEqualTo("9-18");
+        assertThat(cache.get(manual, "orari di apertura dell'ufficio", () -> llm("mai"))).isEqualTo("9-18");
+        assertThat(cache.get(manual, "  ORARI dell'ufficio?  ", () -> llm("mai"))).isEqualTo("9-18");
+        // Stessa domanda, altri chunk recuperati: la risposta potrebbe cambiare
+        assertThat(cache.get(scope("manuale.pdf", "c3"), "Orari dell'ufficio?", () -> llm("8-17")))
+                .isEqualTo("8-17");
+        // Domanda diversa nello stesso scope
+        assertThat(cache.get(manual, "come si resetta la pompa", () -> llm("tasto reset")))
+                .isEqualTo("tasto reset");
+
+        assertThat(llmCalls).hasValue(3);
+        assertThat(cache.hitCount()).isEqualTo(2);
+    }
+
+    @Test
+    void answerComputedAcrossAReindexIsNotStored() {
+        SemanticResponseCache.Scope manual = scope("manuale.pdf", "c1");
+
+        // Il file viene reindicizzato mentre il LLM risponde: la risposta usa il contesto vecchio
+        cache.get(manual, "orari ufficio", () -> {
+            cache.onDocumentIngested(new DocumentIngestedEvent("altro.pdf"));
+            return llm("9-18");
+        });
+        assertThat(cache.size()).isZero();
+
+        assertThat(cache.get(manual, "orari ufficio", () -> llm("8-17"))).isEqualTo("8-17");
+        assertThat(cache.get(manual, "orari ufficio", () -> llm("mai"))).isEqualTo("8-17");
+        assertThat(llmCalls).hasValue(2);
+    }
+
+    @Test
+    void reindexedSourceInvalidatesOnlyItsAnswers() {
+        SemanticResponseCache.Scope manual = scope("manuale.pdf", "c1");
+        SemanticResponseCache.Scope boiler = scope("caldaia.pdf", "c9");
+        cache.get(manual, "orari ufficio", () -> llm("9-18"));
+        cache.get(boiler, "reset caldaia", () -> llm("tasto reset"));
+        cache.get(SemanticResponseCache.Scope.plain(), "ciao", () -> llm("ciao!"));
+
+        cache.onDocumentIngested(new DocumentIngestedEvent("manuale.pdf"));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get(boiler, "reset caldaia", () -> llm("mai"))).isEqualTo("tasto reset");
+        assertThat(cache.get(manual, "orari ufficio", () -> llm("8-17"))).isEqualTo("8-17");
+        assertThat(llmCalls).hasValue(4);
+    }
+
+    @Test
+    void onlyCompletedStreamsAreStored() {
+        SemanticResponseCache.Scope manual = scope("manuale.pdf", "c1");
+
+        assertThatThrownBy(() -> cache.stream(manual, "orari ufficio",
+                        () -> Flux.concat(Flux.just("9"), Flux.error(new IllegalStateException("interrotto"))))
+                .collectList().block()).isInstanceOf(IllegalStateException.class);
+        assertThat(cache.size()).isZero();
+
+        cache.stream(manual, "orari ufficio", () -> Flux.just("dalle", " 9", " alle", " 18")).blockLast();
+        assertThat(String.join("", cache.stream(manual, "orari dell'ufficio", Flux::empty).collectList().block()))
+                .isEqualTo("dalle 9 alle 18");
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private String llm(String answer) {
+        llmCalls.incrementAndGet();
+        return answer;
+    }
+
+    private static SemanticResponseCache.Scope scope(String source, String... chunkIds) {
+        List<Document> docs = new ArrayList<>();
+        for (String id : chunkIds) {
+            docs.add(Document.builder().id(id).text(id).metadata(Map.of("source", source)).build());
+        }
+        return SemanticResponseCache.Scope.ofDocuments(null, docs);
+    }
+
+    // Un asse per parola chiave: domande con le stesse parole chiave hanno lo stesso vettore
+    private static final class KeywordEmbeddingModel implements EmbeddingModel {
+
+        private static final List<String> KEYWORDS = List.of("orari", "ufficio", "reset", "caldaia", "pompa", "ciao");
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(vector(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        private static float[] vector(String text) {
+            String lower = text.toLowerCase();
+            float[] vector = new float[KEYWORDS.size() + 1];
+            for (int i = 0; i < KEYWORDS.size(); i++) {
+                if (lower.contains(KEYWORDS.get(i))) {
+                    vector[i] = 1;
+                }
+            }
+            vector[KEYWORDS.size()] = 0.01f;
+            return vector;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveLimiterTest {
+
+    private static final long WAIT = TimeUnit.SECONDS.toNanos(5);
+
+    private final AtomicLong now = new AtomicLong();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void freedSlotsGoByPriorityThenArrival() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, now::get);
+        assertThat(limiter.tryAcquire()).isTrue();
+        List<String> admitted = new CopyOnWriteArrayList<>();
+
+        List<Future<?>> waiters = List.of(
+                enqueue(limiter, Priority.BACKGROUND, "ingestion", admitted, 1),
+                enqueue(limiter, Priority.NORMAL, "normale", admitted, 2),
+                enqueue(limiter, Priority.INTERACTIVE, "chat-1", admitted, 3),
+                enqueue(limiter, Priority.INTERACTIVE, "chat-2", admitted, 4));
+        assertThat(limiter.tryAcquire()).isFalse();           // posto libero solo dopo la coda
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        limiter.release(0, AdaptiveLimiter.Outcome.IGNORED);
+        for (Future<?> waiter : waiters) {
+            waiter.get(5, TimeUnit.SECONDS);
+        }
+
+        assertThat(admitted).containsExactly("chat-1", "chat-2", "normale", "ingestion");
+        assertThat(limiter.snapshot().maxWaitMs()).isEqualTo(2000);
+        assertThat(limiter.snapshot().inFlight()).isZero();
+    }
+
+    @Test
+    void timedOutAndInterruptedWaitersLeaveTheQueue() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, now::get);
+        assertThat(limiter.tryAcquire()).isTrue();
+
+        assertThat(limiter.acquire(Priority.INTERACTIVE, TimeUnit.MILLISECONDS.toNanos(20))).isFalse();
+        assertThat(limiter.snapshot().queued()).isZero();
+
+        Future<Boolean> interrupted = executor.submit(() -> limiter.acquire(Priority.INTERACTIVE, WAIT));
+        awaitQueued(limiter, 1);
+        interrupted.cancel(true);
+        awaitQueued(limiter, 0);
+
+        // Nessun posto assegnato a chi è uscito: il rilascio lo rende disponibile
+        limiter.release(0, AdaptiveLimiter.Outcome.IGNORED);
+        assertThat(limiter.snapshot().inFlight()).isZero();
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void limitShrinksWhenLatencyGrowsAndRecoversWhenItSettles() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 10, now::get);
+        for (int i = 0; i < 20; i++) {
+            sample(limiter, 100, AdaptiveLimiter.Outcome.SUCCESS);
+        }
+        assertThat(limiter.snapshot().limit()).isEqualTo(10);
+
+        // Latenza quadruplicata: LM Studio sta accodando, il gradiente dimezza il limite
+        for (int i = 0; i < 20; i++) {
+            sample(limiter, 400, AdaptiveLimiter.Outcome.SUCCESS);
+        }
+        int reduced = limiter.snapshot().limit();
+        assertThat(reduced).isBetween(1, 5);
+
+        sample(limiter, 100, AdaptiveLimiter.Outcome.FAILURE);
+        assertThat(limiter.snapshot().limit()).isLessThanOrEqualTo(reduced);
+
+        for (int i = 0; i < 100; i++) {
+            sample(limiter, 100, AdaptiveLimiter.Outcome.SUCCESS);
+        }
+        assertThat(limiter.snapshot().limit()).isEqualTo(10);
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    // Un chiamante in coda: all'ingresso registra il nome e libera subito il posto
+    private Future<?> enqueue(AdaptiveLimiter limiter, Priority priority, String name,
+                              List<String> admitted, int queued) throws InterruptedException {
+        Future<?> waiter = executor.submit(() -> {
+            assertThat(limiter.acquire(priority, WAIT)).isTrue();
+            admitted.add(name);
+            limiter.release(0, AdaptiveLimiter.Outcome.IGNORED);
+            return null;
+        });
+        awaitQueued(limiter, queued);
+        return waiter;
+    }
+
+    // Occupa tutti i posti del limite corrente, poi ne rilascia uno con la latenza data
+    private static void sample(AdaptiveLimiter limiter, long rttMs, AdaptiveLimiter.Outcome outcome) {
+        while (limiter.tryAcquire()) {
+            // posti occupati: la latenza osservata conta per il limite
+        }
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(rttMs), outcome);
+    }
+
+    private static void awaitQueued(AdaptiveLimiter limiter, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + WAIT;
+        while (limiter.snapshot().queued() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(limiter.snapshot().queued()).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,68 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final AtomicLong now = new AtomicLong();
+    private final CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, OPEN_NANOS, now::get);
+
+    @Test
+    void opensWhenFailureRateReachesThreshold() {
+        call(false);
+        call(true);
+        call(false);
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);   // sotto minimum-calls
+
+        call(true);
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.Permission.DENIED);
+        assertThat(breaker.retryAfterSeconds()).isEqualTo(11);
+    }
+
+    @Test
+    void letsOneTrialThroughAfterOpenDuration() {
+        open();
+        now.addAndGet(OPEN_NANOS);
+
+        CircuitBreaker.Permission trial = breaker.tryAcquire();
+        assertThat(trial).isEqualTo(CircuitBreaker.Permission.TRIAL);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.Permission.DENIED);
+        assertThat(breaker.wouldDeny()).isTrue();
+
+        breaker.release(trial, false);
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.Permission.GRANTED);
+    }
+
+    @Test
+    void failedTrialReopensAndIgnoredTrialIsRetried() {
+        open();
+        now.addAndGet(OPEN_NANOS);
+
+        breaker.release(breaker.tryAcquire(), null);                         // annullata: nessun verdetto
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        breaker.release(breaker.tryAcquire(), true);
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.Permission.DENIED);
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            call(true);
+        }
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    private void call(boolean failed) {
+        breaker.release(breaker.tryAcquire(), failed);
+    }
+}
@@ -0,0 +1,82 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+import com.chatbot.chatbot_backend.exceptions.DownstreamBusyException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DownstreamLimiterTest {
+
+    private final DownstreamLimiter limiter = limiter(Map.of(
+            "app.downstream.llm.min-concurrent", 1,
+            "app.downstream.llm.max-concurrent", 1,
+            "app.downstream.llm.max-queue-time", Duration.ofMillis(20),
+            "app.downstream.vector-store.max-concurrent", 1));
+
+    @Test
+    void permitClosedTwiceIsReleasedOnce() {
+        DownstreamLimiter.Permit permit = limiter.tryAcquire(Downstream.VECTOR_STORE);
+        assertThat(permit).isNotNull();
+        assertThat(limiter.tryAcquire(Downstream.VECTOR_STORE)).isNull();
+
+        permit.close();
+        permit.close();
+
+        assertThat(inUse(Downstream.VECTOR_STORE)).isZero();
+        assertThat(limiter.tryAcquire(Downstream.VECTOR_STORE)).isNotNull();
+        assertThat(limiter.tryAcquire(Downstream.VECTOR_STORE)).isNull();
+    }
+
+    @Test
+    void queueTimeoutIsRejectedWithoutHoldingASlot() {
+        DownstreamLimiter.Permit held = limiter.acquire(Downstream.LLM, Priority.INTERACTIVE);
+
+        assertThatThrownBy(() -> limiter.acquire(Downstream.LLM, Priority.INTERACTIVE))
+                .isInstanceOf(DownstreamBusyException.class);
+        assertThat(stats(Downstream.LLM)).containsEntry("rejected", 1L).containsEntry("queued", 0);
+
+        held.close();
+        assertThat(inUse(Downstream.LLM)).isZero();
+        assertThat(stats(Downstream.LLM)).containsEntry("circuit", "CLOSED");
+    }
+
+    @Test
+    void cancelledStreamReleasesItsPermit() {
+        limiter.stream(Downstream.LLM, Priority.INTERACTIVE, () -> Flux.<String>never())
+                .subscribe()
+                .dispose();
+        assertThat(inUse(Downstream.LLM)).isZero();
+
+        assertThat(limiter.stream(Downstream.LLM, Priority.INTERACTIVE, () -> Flux.just("a", "b"))
+                .collectList().block()).containsExactly("a", "b");
+        assertThat(inUse(Downstream.LLM)).isZero();
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    // Valori già tipizzati: senza Spring Boot l'Environment non converte "20ms" in Duration
+    private static DownstreamLimiter limiter(Map<String, Object> properties) {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test", properties));
+        return new DownstreamLimiter(environment,
+                new DefaultListableBeanFactory().getBeanProvider(MeterRegistry.class), Duration.ofSeconds(5));
+    }
+
+    private int inUse(Downstream downstream) {
+        return (int) stats(downstream).get("inUse");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> stats(Downstream downstream) {
+        return (Map<String, Object>) limiter.stats().get(downstream.propertyName());
+    }
+}
@@ -0,0 +1,150 @@
+package com.chatbot.chatbot_backend.concurrency;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String> singleFlight = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void identicalCallJoinsTheOneInFlight() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        Future<String> first = executor.submit(() -> singleFlight.call("k", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            return answer.join();
+        }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<String> second = executor.submit(() -> singleFlight.call("k", () -> {
+            calls.incrementAndGet();
+            return "seconda chiamata";
+        }));
+        awaitCoalesced(1);
+
+        answer.complete("risposta");
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("risposta");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("risposta");
+        assertThat(calls).hasValue(1);
+
+        // Chiamata conclusa: non è una cache, la successiva riparte
+        assertThat(singleFlight.call("k", () -> "nuova")).isEqualTo("nuova");
+    }
+
+    @Test
+    void errorReachesJoinedCallersAndFreesTheKey() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch fail = new CountDownLatch(1);
+
+        Future<String> first = executor.submit(() -> singleFlight.call("k", () -> {
+            started.countDown();
+            awaitQuietly(fail);
+            throw new StackOverflowError("simulato");    // anche un Error sblocca chi attende
+        }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<String> second = executor.submit(() -> singleFlight.call("k", () -> "mai chiamata"));
+        awaitCoalesced(1);
+
+        fail.countDown();
+        assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(StackOverflowError.class);
+        assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(StackOverflowError.class);
+
+        assertThatThrownBy(() -> singleFlight.call("k", () -> {
+            throw new IllegalStateException("LM Studio giù");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(singleFlight.call("k", () -> "ok")).isEqualTo("ok");
+    }
+
+    @Test
+    void lateSubscriberReplaysTheSharedStream() {
+        Sinks.Many<String> upstream = Sinks.many().multicast().onBackpressureBuffer();
+        AtomicInteger subscriptions = new AtomicInteger();
+        List<String> early = new CopyOnWriteArrayList<>();
+        List<String> late = new CopyOnWriteArrayList<>();
+
+        singleFlight.stream("k", () -> {
+            subscriptions.incrementAndGet();
+            return upstream.asFlux();
+        }).subscribe(early::add);
+        upstream.tryEmitNext("Ciao");
+        upstream.tryEmitNext(", ");
+
+        singleFlight.stream("k", () -> {
+            subscriptions.incrementAndGet();
+            return Flux.just("mai");
+        }).subscribe(late::add);
+        upstream.tryEmitNext("mondo");
+        upstream.tryEmitComplete();
+
+        assertThat(subscriptions).hasValue(1);
+        assertThat(singleFlight.coalescedCount()).isEqualTo(1);
+        assertThat(early).containsExactly("Ciao", ", ", "mondo");
+        assertThat(late).containsExactly("Ciao", ", ", "mondo");
+
+        // Stream concluso: la chiave è libera
+        assertThat(singleFlight.stream("k", () -> Flux.just("nuovo")).collectList().block())
+                .containsExactly("nuovo");
+    }
+
+    @Test
+    void failedOrCancelledStreamFreesTheKey() {
+        assertThatThrownBy(() -> singleFlight.stream("k", () -> Flux.<String>error(new IllegalStateException("giù")))
+                .collectList().block()).isInstanceOf(IllegalStateException.class);
+        assertThat(singleFlight.stream("k", () -> Flux.just("dopo l'errore")).collectList().block())
+                .containsExactly("dopo l'errore");
+
+        // L'ultimo sottoscrittore se ne va: lo stream a monte viene cancellato e la chiave liberata
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Disposable subscriber = singleFlight.stream("k", () -> Flux.<String>never()
+                .doOnCancel(() -> cancelled.set(true))).subscribe();
+        subscriber.dispose();
+
+        assertThat(cancelled).isTrue();
+        assertThat(singleFlight.stream("k", () -> Flux.just("dopo la cancellazione")).collectList().block())
+                .containsExactly("dopo la cancellazione");
+        assertThat(singleFlight.coalescedCount()).isZero();
+    }
+
+    // Il secondo chiamante ha trovato la chiamata in corso e ne attende il risultato
+    private void awaitCoalesced(long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.coalescedCount() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(singleFlight.coalescedCount()).isEqualTo(expected);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.chatbot.chatbot_backend.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedEmbeddingStoreTest {
+
+    // Header (16 byte) + 10 record da 4 float (32 byte di hash + 16 di vettore)
+    private static final long TEN_RECORDS = 16 + 10 * (32 + 4 * Float.BYTES);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void vectorsSurviveCloseAndReopen() throws IOException {
+        Path file = dir.resolve("embeddings.bin");
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, TEN_RECORDS, 0.5)) {
+            store.put("orari ufficio", vector(1));
+            store.put("reset caldaia", vector(2));
+            store.put("orari ufficio", vector(9));           // chiave già presente: ignorata
+            store.put("altro modello", new float[]{1, 2});    // dimensione diversa: non persistito
+        }
+
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, TEN_RECORDS, 0.5)) {
+            assertThat(store.size()).isEqualTo(2);
+            assertThat(store.get("orari ufficio")).containsExactly(vector(1));
+            assertThat(store.get("reset caldaia")).containsExactly(vector(2));
+            assertThat(store.get("altro modello")).isNull();
+            assertThat(store.hitCount()).isEqualTo(2);
+            assertThat(store.missCount()).isEqualTo(1);
+
+            store.put("mensa", vector(3));
+            assertThat(store.size()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    void compactionKeepsTheNewestRecords() throws IOException {
+        Path file = dir.resolve("embeddings.bin");
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, TEN_RECORDS, 0.5)) {
+            for (int i = 0; i < 10; i++) {
+                store.put("chiave-" + i, vector(i));
+            }
+            assertThat(store.compactionCount()).isZero();
+
+            // File pieno: metà più vecchia scartata, il nuovo record va in coda ai superstiti
+            store.put("chiave-10", vector(10));
+
+            assertThat(store.compactionCount()).isEqualTo(1);
+            assertThat(store.size()).isEqualTo(6);
+            for (int i = 0; i < 5; i++) {
+                assertThat(store.get("chiave-" + i)).isNull();
+            }
+            for (int i = 5; i <= 10; i++) {
+                assertThat(store.get("chiave-" + i)).containsExactly(vector(i));
+            }
+        }
+
+        // L'indice ricostruito alla riapertura punta ai record spostati in testa
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, TEN_RECORDS, 0.5)) {
+            assertThat(store.size()).isEqualTo(6);
+            assertThat(store.get("chiave-5")).containsExactly(vector(5));
+            assertThat(store.get("chiave-10")).containsExactly(vector(10));
+            assertThat(store.get("chiave-4")).isNull();
+        }
+    }
+
+    private static float[] vector(int seed) {
+        return new float[]{seed, seed + 0.25f, -seed, 1f / (seed + 1)};
+    }
+}
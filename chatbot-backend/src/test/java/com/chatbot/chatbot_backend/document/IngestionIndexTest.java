@@ -0,0 +1,78 @@
+package com.chatbot.chatbot_backend.document;
+
+import com.chatbot.chatbot_backend.tenancy.Shard;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IngestionIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void journalIsReplayedOverTheSnapshotAndCompacted() throws IOException {
+        Path file = dir.resolve("index.json");
+        Path journal = dir.resolve("index.json.journal");
+        Shard shard = new Shard("acme", "docs");
+
+        IngestionIndex index = new IngestionIndex(file);
+        for (int i = 0; i < 1500; i++) {
+            index.begin(shard, "h" + i, "f" + i);
+            index.complete(entry(shard, "h" + i, "f" + i));
+            index.release(shard, "h" + i, "f" + i);
+        }
+        // Oltre 1024 modifiche il journal diventa snapshot: poi solo righe nuove
+        assertThat(file).exists();
+        assertThat(Files.readAllLines(journal)).hasSize(1500 - 1024);
+
+        index.beginRemoval(shard, "f0").ifPresent(index::completeRemoval);
+        index.begin(shard, "h1-v2", "f1");
+        index.complete(entry(shard, "h1-v2", "f1"));
+        index.release(shard, "h1-v2", "f1");
+        index.close();
+        // Crash a metà di una riga: va ignorata
+        Files.writeString(journal, "{\"removed\":true,\"entry\":{\"fileH", StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+
+        IngestionIndex reloaded = new IngestionIndex(file);
+        assertThat(reloaded.size()).isEqualTo(1499);
+        assertThat(reloaded.find(shard, "f0")).isEmpty();
+        assertThat(reloaded.find(shard, "f1")).get().extracting(IngestionIndex.Entry::fileHash).isEqualTo("h1-v2");
+        assertThat(reloaded.find(shard, "f1499")).isPresent();
+        assertThat(reloaded.chunkCount("acme")).isEqualTo(1499);
+        assertThat(journal).doesNotExist();
+    }
+
+    @Test
+    void sourceStaysReservedUntilReleaseAfterComplete() {
+        Shard shard = new Shard("acme", "docs");
+        IngestionIndex index = new IngestionIndex(dir.resolve("index.json"));
+        index.begin(shard, "h1", "f1");
+        index.complete(entry(shard, "h1", "f1"));
+
+        // Tra complete() e release() il chiamante rimuove ancora i chunk obsoleti
+        assertThatThrownBy(() -> index.begin(shard, "h2", "f1")).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> index.beginRemoval(shard, "f1")).isInstanceOf(IllegalStateException.class);
+
+        index.release(shard, "h1", "f1");
+        assertThat(index.begin(shard, "h2", "f1")).get().extracting(IngestionIndex.Entry::fileHash).isEqualTo("h1");
+        index.release(shard, "h2", "f1");
+        index.close();
+    }
+
+    private static IngestionIndex.Entry entry(Shard shard, String hash, String name) {
+        return new IngestionIndex.Entry(hash, name, "text/plain", Instant.now(),
+                List.of(new IngestionIndex.Chunk(name + "-0", "c" + hash)), shard.key());
+    }
+}
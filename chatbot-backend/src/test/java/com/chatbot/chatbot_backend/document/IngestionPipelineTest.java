@@ -0,0 +1,194 @@
+package com.chatbot.chatbot_backend.document;
+
+import com.chatbot.chatbot_backend.observability.PipelineObservations;
+import com.chatbot.chatbot_backend.retrieval.Bm25Index;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IngestionPipelineTest {
+
+    @TempDir
+    Path dir;
+
+    private final FakeVectorStore vectorStore = new FakeVectorStore();
+    private final ExecutorService producer = Executors.newSingleThreadExecutor();
+    private Bm25Index bm25Index;
+    private IngestionPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        bm25Index = new Bm25Index(dir.resolve("bm25.bin"), Duration.ofHours(1));
+        // Un worker e un batch in coda: al terzo batch il produttore deve fermarsi
+        pipeline = new IngestionPipeline(bm25Index, new UnusedEmbeddingModel(), PipelineObservations.noop(),
+                2, 1, 1, Duration.ZERO);
+    }
+
+    @AfterEach
+    void tearDown() {
+        vectorStore.gate.countDown();
+        producer.shutdownNow();
+        pipeline.shutdown();
+        bm25Index.close();
+    }
+
+    @Test
+    void producerBlocksWhileWorkersAndQueueAreFull() throws Exception {
+        vectorStore.gate = new CountDownLatch(1);
+        IngestionJob job = job();
+        IngestionPipeline.Writer writer = pipeline.newWriter(vectorStore, "manuale.pdf", job);
+
+        Future<Integer> upload = producer.submit(() -> {
+            for (int i = 0; i < 7; i++) {
+                writer.add(chunk("c" + i));
+            }
+            return writer.finish();
+        });
+
+        // Primo batch fermo nell'upsert, secondo in coda: il terzo attende un posto
+        assertThatThrownBy(() -> upload.get(200, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+        assertThat(vectorStore.addCalls).hasValue(1);
+        assertThat(job.getChunksTotal()).isEqualTo(6);
+
+        vectorStore.gate.countDown();
+        assertThat(upload.get(5, TimeUnit.SECONDS)).isEqualTo(7);
+        assertThat(vectorStore.ids()).hasSize(7);
+        assertThat(bm25Index.size()).isEqualTo(7);
+        assertThat(job.getChunksDone()).isEqualTo(7);
+    }
+
+    @Test
+    void abortRemovesChunksAlreadyStored() throws InterruptedException {
+        IngestionJob job = job();
+        IngestionPipeline.Writer writer = pipeline.newWriter(vectorStore, "manuale.pdf", job);
+        for (int i = 0; i < 5; i++) {
+            writer.add(chunk("c" + i));
+        }
+        awaitStored(job, 4);
+
+        // Errore a monte (es. Tika): il batch parziale non parte, i due già inviati spariscono
+        writer.abort(new IOException("PDF troncato"));
+
+        assertThat(vectorStore.addCalls).hasValue(2);
+        assertThat(vectorStore.ids()).isEmpty();
+        assertThat(bm25Index.size()).isZero();
+    }
+
+    @Test
+    void failedBatchRollsBackTheWholeFile() {
+        vectorStore.failOnCall = 2;
+        IngestionPipeline.Writer writer = pipeline.newWriter(vectorStore, "manuale.pdf", job());
+        for (int i = 0; i < 5; i++) {
+            writer.add(chunk("c" + i));
+        }
+
+        assertThatThrownBy(writer::finish)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("manuale.pdf")
+                .hasRootCauseMessage("Chroma non raggiungibile");
+        // Dopo l'errore nessun altro batch viene salvato e il primo viene rimosso
+        assertThat(vectorStore.ids()).isEmpty();
+        assertThat(bm25Index.size()).isZero();
+        assertThat(writer.chunksStored()).isEqualTo(2);
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private static IngestionJob job() {
+        return new IngestionJob("job-1", "manuale.pdf", "application/pdf");
+    }
+
+    private static void awaitStored(IngestionJob job, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (job.getChunksDone() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(job.getChunksDone()).isEqualTo(expected);
+    }
+
+    private static Document chunk(String id) {
+        return Document.builder().id(id).text("testo del chunk " + id)
+                .metadata(Map.of("source", "manuale.pdf")).build();
+    }
+
+    // VectorStore in memoria: può trattenere gli upsert su un gate o fallire all'n-esima chiamata
+    private static final class FakeVectorStore implements VectorStore {
+
+        private final Map<String, Document> documents = new ConcurrentHashMap<>();
+        private final AtomicInteger addCalls = new AtomicInteger();
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+        private volatile int failOnCall;
+
+        @Override
+        public void add(List<Document> batch) {
+            int call = addCalls.incrementAndGet();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (call == failOnCall) {
+                throw new IllegalStateException("Chroma non raggiungibile");
+            }
+            batch.forEach(doc -> documents.put(doc.getId(), doc));
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+            idList.forEach(documents::remove);
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        private List<String> ids() {
+            return List.copyOf(documents.keySet());
+        }
+    }
+
+    // Senza cache degli embedding la pipeline non calcola embedding: li calcola il VectorStore
+    private static final class UnusedEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.chatbot.chatbot_backend.document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Copia della vecchia pipeline di DocumentService basata su regex
+ * (cleanTikaOutput → chunkText → aggregateIntoChunks), tenuta come
+ * riferimento per i test di equivalenza e per i benchmark JMH.
+ */
+class LegacyTextChunker {
+
+    private final int chunkSize;
+    private final int chunkOverlap;
+
+    LegacyTextChunker(int chunkSize, int chunkOverlap) {
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+    }
+
+    List<String> chunk(String rawText) {
+        String extractedText = cleanTikaOutput(rawText);
+        if (extractedText.isBlank()) {
+            return List.of();
+        }
+        return chunkText(extractedText);
+    }
+
+    private String cleanTikaOutput(String raw) {
+        return raw
+                .replaceAll("\\[image:[^]]*]", "")
+                .replaceAll("\\[bookmark:[^]]*]", "")
+                .replaceAll("AI-generated content may be incorrect\\.?]?", "")
+                .replaceAll("\n{3,}", "\n\n")
+                .replaceAll("(?m)^[^a-zA-Z0-9àèìòùÀÈÌÒÙ\\s]*$", "")
+                .strip();
+    }
+
+    private List<String> chunkText(String text) {
+        String normalized = text
+                .replaceAll("\r\n", "\n")
+                .replaceAll("\n{3,}", "\n\n")
+                .strip();
+
+        List<String> paragraphs = Arrays.stream(normalized.split("\n\n"))
+                .map(String::strip)
+                .filter(p -> !p.isBlank())
+                .toList();
+
+        List<String> sentences = new ArrayList<>();
+        for (String paragraph : paragraphs) {
+            if (paragraph.length() <= chunkSize) {
+                sentences.add(paragraph);
+            } else {
+                String[] parts = paragraph.split("(?<=[.!?])\\s+");
+                sentences.addAll(Arrays.asList(parts));
+            }
+        }
+
+        return aggregateIntoChunks(sentences);
+    }
+
+    private List<String> aggregateIntoChunks(List<String> units) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        List<String> currentUnits = new ArrayList<>();
+
+        for (String unit : units) {
+            boolean wouldExceed = (current.length() + unit.length() + 1) > chunkSize;
+
+            if (wouldExceed && !current.isEmpty()) {
+                String chunk = current.toString().strip();
+                if (!chunk.isBlank()) {
+                    chunks.add(chunk);
+                }
+
+                int overlapChars = 0;
+                int overlapStart = currentUnits.size();
+
+                for (int i = currentUnits.size() - 1; i >= 0; i--) {
+                    overlapChars += currentUnits.get(i).length();
+                    overlapStart = i;
+                    if (overlapChars >= chunkOverlap) {
+                        break;
+                    }
+                }
+
+                current = new StringBuilder();
+                for (int i = overlapStart; i < currentUnits.size(); i++) {
+                    current.append(currentUnits.get(i)).append(" ");
+                }
+
+                currentUnits = new ArrayList<>(currentUnits.subList(overlapStart, currentUnits.size()));
+            }
+
+            current.append(unit).append(" ");
+            currentUnits.add(unit);
+        }
+
+        String last = current.toString().strip();
+        if (!last.isBlank()) {
+            chunks.add(last);
+        }
+
+        return chunks;
+    }
+}
@@ -0,0 +1,105 @@
+package com.chatbot.chatbot_backend.document;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamingTextChunkerTest {
+
+    private static final String[] TOKENS = {
+            "a", "Word", "ciao", "è", "x.", "fine!", "dom?", "  ", "\n", "\n\n", "\n\n\n", "\r\n", "\r", "\t",
+            "***", "---", "[image: foo]", "[image: a\nb]", "[bookmark: _Toc1]",
+            "AI-generated content may be incorrect.", "AI-generated content may be incorrect.]",
+            "\u2003", "\u00A0", ". ", ".\n", "[image:", "]", "123", "Lorem ipsum dolor sit amet",
+            "Sentence one. Sentence two! Three?", " \n ", "\u2028", "\u0085", "[bookmark: [image: x] y]",
+            "]]", ".", "!", "?", "\r\r", "*\r*", "ùè"
+    };
+
+    @Test
+    void sameChunksAsLegacyOnTikaLikeOutput() throws IOException {
+        for (boolean crlf : new boolean[]{false, true}) {
+            String raw = TikaOutputSamples.generate(256 * 1024, crlf, 7L);
+            for (int[] params : new int[][]{{500, 60}, {200, 0}, {1000, 150}}) {
+                assertThat(streaming(raw, params[0], params[1]))
+                        .isEqualTo(new LegacyTextChunker(params[0], params[1]).chunk(raw));
+            }
+        }
+    }
+
+    @Test
+    void sameChunksAsLegacyOnRandomInputs() throws IOException {
+        Random random = new Random(42);
+        for (int run = 0; run < 5_000; run++) {
+            int chunkSize = 5 + random.nextInt(120);
+            int chunkOverlap = random.nextInt(40);
+            StringBuilder sb = new StringBuilder();
+            int tokens = random.nextInt(200);
+            for (int i = 0; i < tokens; i++) {
+                sb.append(TOKENS[random.nextInt(TOKENS.length)]);
+                if (random.nextInt(3) == 0) {
+                    sb.append(' ');
+                }
+            }
+            String raw = sb.toString();
+
+            assertThat(streaming(raw, chunkSize, chunkOverlap))
+                    .as("chunkSize=%d overlap=%d input=%s", chunkSize, chunkOverlap, raw)
+                    .isEqualTo(new LegacyTextChunker(chunkSize, chunkOverlap).chunk(raw));
+        }
+    }
+
+    @Test
+    void removesTagsSpanningMultipleLines() throws IOException {
+        String raw = "Prima riga [image: figura\nsu due righe] dopo.\n\n[bookmark: _Toc42]Titolo";
+
+        assertThat(streaming(raw, 500, 60)).containsExactly("Prima riga  dopo. Titolo");
+    }
+
+    @Test
+    void blankOrSymbolOnlyInputProducesNoChunks() throws IOException {
+        assertThat(streaming("  \n\n***\n---\n[image: x.png]\n", 500, 60)).isEmpty();
+    }
+
+    @Test
+    void anchoredBoundariesRealignAfterAnInsertion() throws IOException {
+        // Un unico paragrafo di frasi brevi: il caso peggiore per l'aggregazione greedy
+        String[] words = "il la di che per con non sono del documento sistema dati utente valore tempo".split(" ");
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1_500; i++) {
+            int length = 4 + random.nextInt(10);
+            for (int w = 0; w < length; w++) {
+                sb.append(w > 0 ? " " : "").append(words[random.nextInt(words.length)]);
+            }
+            sb.append(". ");
+        }
+        String raw = sb.toString();
+        int cut = raw.indexOf(". ", 2_000) + 2;
+        String edited = raw.substring(0, cut) + "Frase aggiunta nella nuova versione. " + raw.substring(cut);
+
+        List<String> before = anchored(raw);
+        List<String> after = anchored(edited);
+
+        // Solo i chunk intorno al punto modificato sono nuovi: il resto si riusa
+        assertThat(before).hasSizeGreaterThan(150);
+        assertThat(after.stream().filter(chunk -> !before.contains(chunk)).count()).isLessThanOrEqualTo(3);
+    }
+
+    private static List<String> streaming(String raw, int chunkSize, int chunkOverlap) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        new StreamingTextChunker(chunkSize, chunkOverlap, chunks::add).process(new StringReader(raw));
+        return chunks;
+    }
+
+    private static List<String> anchored(String raw) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        new StreamingTextChunker(500, 60, true, chunks::add).process(new StringReader(raw));
+        return chunks;
+    }
+}
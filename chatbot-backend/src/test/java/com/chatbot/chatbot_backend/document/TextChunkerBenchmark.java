@@ -0,0 +1,77 @@
+package com.chatbot.chatbot_backend.document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulizia + chunking: vecchia pipeline a regex contro StreamingTextChunker.
+ *
+ * L'input è esattamente 1 MiB di caratteri in stile Tika, quindi ops/s = MB/s
+ * e gc.alloc.rate.norm (profiler GC) = byte allocati per MB di testo.
+ *
+ *   mvn -P benchmark test-compile exec:exec
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TextChunkerBenchmark {
+
+    private static final int ONE_MB = 1 << 20;
+
+    @Param({"LF", "CRLF"})
+    public String lineEndings;
+
+    @Param({"500"})
+    public int chunkSize;
+
+    @Param({"60"})
+    public int chunkOverlap;
+
+    private String tikaOutput;
+
+    @Setup
+    public void setUp() {
+        tikaOutput = TikaOutputSamples.generate(ONE_MB, "CRLF".equals(lineEndings), 42L);
+    }
+
+    @Benchmark
+    public List<String> legacyRegex() {
+        return new LegacyTextChunker(chunkSize, chunkOverlap).chunk(tikaOutput);
+    }
+
+    @Benchmark
+    public int streamingSinglePass(Blackhole blackhole) throws IOException {
+        StreamingTextChunker chunker = new StreamingTextChunker(chunkSize, chunkOverlap, blackhole::consume);
+        chunker.process(new StringReader(tikaOutput));
+        return chunker.chunkCount();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TextChunkerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
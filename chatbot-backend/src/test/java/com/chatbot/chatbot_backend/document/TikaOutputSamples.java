@@ -0,0 +1,86 @@
+package com.chatbot.chatbot_backend.document;
+
+import java.util.Random;
+
+/**
+ * Genera testo simile all'output di Tika su manuali Word/PDF: titoli, paragrafi,
+ * elenchi puntati, tabelle, tag [image:]/[bookmark:], watermark, separatori
+ * di pagina e sequenze di righe vuote.
+ */
+final class TikaOutputSamples {
+
+    private static final String[] WORDS = {
+            "il", "manuale", "descrive", "la", "procedura", "di", "installazione", "del", "modulo",
+            "configurazione", "è", "necessario", "verificare", "che", "server", "sia", "raggiungibile",
+            "codice", "prodotto", "XR-2040", "attività", "più", "però", "perché", "utente", "documento",
+            "sezione", "tabella", "valore", "parametro", "città", "versione", "3.2.1", "rete", "porta"
+    };
+
+    private TikaOutputSamples() {
+    }
+
+    static String generate(int targetChars, boolean crlf, long seed) {
+        Random random = new Random(seed);
+        String nl = crlf ? "\r\n" : "\n";
+        StringBuilder sb = new StringBuilder(targetChars + 4096);
+        int section = 1;
+
+        while (sb.length() < targetChars) {
+            switch (random.nextInt(10)) {
+                case 0 -> sb.append("[bookmark: _Toc").append(100000 + random.nextInt(900000)).append("]")
+                        .append(section).append(". ").append(sentence(random, 4, false)).append(nl).append(nl);
+                case 1 -> sb.append("[image: figura ").append(section++).append(".png]").append(nl)
+                        .append("AI-generated content may be incorrect.").append(nl).append(nl);
+                case 2 -> {
+                    for (int i = 0; i < 2 + random.nextInt(5); i++) {
+                        sb.append("• ").append(sentence(random, 6, false)).append(nl);
+                    }
+                    sb.append(nl);
+                }
+                case 3 -> {
+                    for (int i = 0; i < 3 + random.nextInt(4); i++) {
+                        sb.append(word(random)).append('\t').append(random.nextInt(1000))
+                                .append('\t').append(word(random)).append(nl);
+                    }
+                    sb.append(nl).append(nl).append(nl);
+                }
+                case 4 -> sb.append("____________________").append(nl).append(nl).append(nl).append(nl);
+                default -> {
+                    int sentences = 2 + random.nextInt(random.nextInt(4) == 0 ? 30 : 6);
+                    for (int i = 0; i < sentences; i++) {
+                        sb.append(sentence(random, 8 + random.nextInt(20), true)).append(' ');
+                        if (random.nextInt(8) == 0) {
+                            sb.append(nl);               // a capo "morbido" dentro il paragrafo
+                        }
+                    }
+                    sb.append(nl).append(nl);
+                }
+            }
+        }
+        sb.setLength(targetChars);
+        return sb.toString();
+    }
+
+    private static String sentence(Random random, int words, boolean punctuated) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            String word = word(random);
+            sb.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+        }
+        if (punctuated) {
+            sb.append(switch (random.nextInt(10)) {
+                case 0 -> '?';
+                case 1 -> '!';
+                default -> '.';
+            });
+        }
+        return sb.toString();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
@@ -0,0 +1,141 @@
+package com.chatbot.chatbot_backend.retrieval;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class Bm25IndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void ranksByBm25WithTermCoverage() {
+        Bm25Index index = index("scoring");
+        try {
+            List<Document> documents = new ArrayList<>(List.of(
+                    doc("a", "Pompa XR-2040 guasta", "manuale.pdf", "acme/docs"),
+                    doc("b", "Manutenzione della pompa idraulica: pulire la pompa ogni mese", "manuale.pdf", "acme/docs"),
+                    doc("c", "Caldaia a condensazione", "caldaia.pdf", "acme/docs")));
+            for (int i = 0; i < 20; i++) {
+                documents.add(doc("f" + i, "pompa di ricambio numero " + i, "ricambi.pdf", "acme/docs"));
+            }
+            index.add(documents);
+
+            List<Bm25Index.Hit> hits = index.search("pompa XR-2040", 5, null, null);
+
+            // "xr-2040", "xr", "2040" sono rari e coprono 4 termini su 4
+            assertThat(hits).hasSize(5);
+            assertThat(hits.get(0).document().getId()).isEqualTo("a");
+            assertThat(hits.get(0).termCoverage()).isEqualTo(1.0);
+            assertThat(hits.get(1).termCoverage()).isEqualTo(0.25);
+            assertThat(hits).isSortedAccordingTo(Comparator.comparingDouble(Bm25Index.Hit::score).reversed());
+            assertThat(hits).extracting(hit -> hit.document().getId()).doesNotContain("c");
+
+            // Stesso peso IDF esposto per l'espansione: "pompa" in 22 chunk su 23
+            assertThat(index.idf(List.of("pompa", "inesistente")))
+                    .containsOnlyKeys("pompa")
+                    .hasEntrySatisfying("pompa", idf -> assertThat(idf).isCloseTo(Math.log(1 + 1.5 / 22.5), within(1e-6)));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    void filtersByShardAndSource() {
+        Bm25Index index = index("filters");
+        try {
+            index.add(List.of(
+                    doc("a", "orari ufficio", "orari.pdf", "acme/docs"),
+                    doc("b", "orari magazzino", "magazzino.pdf", "acme/docs"),
+                    doc("c", "orari ufficio", "orari.pdf", "other/docs")));
+
+            assertThat(ids(index.search("orari", 10, Set.of("acme/docs"), null))).containsExactlyInAnyOrder("a", "b");
+            assertThat(ids(index.search("orari", 10, Set.of("acme/docs"), "orari.pdf"))).containsExactly("a");
+            assertThat(ids(index.search("orari", 10, null, "orari.pdf"))).containsExactlyInAnyOrder("a", "c");
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    void upsertsAndDeletesKeepStatisticsOfLiveChunksOnly() {
+        Bm25Index index = index("updates");
+        Bm25Index fresh = index("fresh");
+        try {
+            index.add(List.of(doc("keep", "caldaia rossa", "a.pdf", "acme/docs")));
+            // Ogni upsert lascia una tombstone: oltre metà indice le posting si ricostruiscono
+            for (int i = 0; i < 10; i++) {
+                index.add(List.of(doc("x", "caldaia versione " + i, "a.pdf", "acme/docs")));
+            }
+            index.add(List.of(doc("gone", "caldaia da rimuovere", "a.pdf", "acme/docs")));
+            index.remove(List.of("gone"));
+
+            assertThat(index.size()).isEqualTo(2);
+            assertThat(ids(index.search("versione", 10, null, null))).containsExactly("x");
+            assertThat(index.search("3", 10, null, null)).isEmpty();
+            assertThat(index.search("rimuovere", 10, null, null)).isEmpty();
+
+            fresh.add(List.of(
+                    doc("keep", "caldaia rossa", "a.pdf", "acme/docs"),
+                    doc("x", "caldaia versione 9", "a.pdf", "acme/docs")));
+            assertThat(index.idf(List.of("caldaia", "rossa", "versione")))
+                    .isEqualTo(fresh.idf(List.of("caldaia", "rossa", "versione")));
+            assertThat(scores(index.search("caldaia rossa", 10, null, null)))
+                    .isEqualTo(scores(fresh.search("caldaia rossa", 10, null, null)));
+        } finally {
+            index.close();
+            fresh.close();
+        }
+    }
+
+    @Test
+    void snapshotReloadsLiveChunks() {
+        Bm25Index index = index("snapshot");
+        index.add(List.of(
+                doc("a", "contratto di assistenza", "contratti.pdf", "acme/docs"),
+                doc("b", "contratto scaduto", "contratti.pdf", "acme/docs")));
+        index.remove(List.of("b"));
+        index.close();
+
+        Bm25Index reloaded = index("snapshot");
+        try {
+            assertThat(reloaded.size()).isEqualTo(1);
+            assertThat(reloaded.search("contratto", 10, null, null)).singleElement().satisfies(hit -> {
+                assertThat(hit.document().getId()).isEqualTo("a");
+                assertThat(hit.document().getMetadata()).containsEntry("source", "contratti.pdf");
+            });
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private Bm25Index index(String name) {
+        return new Bm25Index(dir.resolve(name + ".bin"), Duration.ofHours(1));
+    }
+
+    private static Document doc(String id, String text, String source, String shard) {
+        return Document.builder().id(id).text(text).metadata(Map.of("source", source, "shard", shard)).build();
+    }
+
+    private static List<String> ids(List<Bm25Index.Hit> hits) {
+        return hits.stream().map(hit -> hit.document().getId()).toList();
+    }
+
+    private static List<Double> scores(List<Bm25Index.Hit> hits) {
+        return hits.stream().map(Bm25Index.Hit::score).toList();
+    }
+}
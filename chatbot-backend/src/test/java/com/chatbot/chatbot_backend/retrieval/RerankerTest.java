@@ -0,0 +1,82 @@
+package com.chatbot.chatbot_backend.retrieval;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RerankerTest {
+
+    @TempDir
+    Path dir;
+
+    private Bm25Index bm25Index;
+    private Reranker reranker;
+
+    @BeforeEach
+    void setUp() {
+        bm25Index = new Bm25Index(dir.resolve("bm25.bin"), Duration.ofHours(1));
+        bm25Index.add(List.of(
+                doc("orari", "L'ufficio anagrafe è aperto dal lunedì al venerdì, orari 9-13.", null),
+                doc("codice", "Il modulo XR-2040 si richiede allo sportello dell'ufficio tecnico.", null),
+                doc("parcheggio", "Il parcheggio dell'ufficio è riservato ai dipendenti.", null),
+                doc("mensa", "La mensa aziendale apre alle 12.", null)));
+        reranker = new Reranker(bm25Index, null, 0.7, 0.35, 0.6);
+    }
+
+    @AfterEach
+    void tearDown() {
+        bm25Index.close();
+    }
+
+    @Test
+    void promotesCandidatesBeyondTopKAndDropsWeakOnes() {
+        // Classifica vettoriale: il chunk con il codice cercato è solo quarto
+        List<Document> ranked = List.of(
+                doc("parcheggio", "Il parcheggio dell'ufficio è riservato ai dipendenti.", 0.50),
+                doc("orari", "L'ufficio anagrafe è aperto dal lunedì al venerdì, orari 9-13.", 0.48),
+                doc("mensa", "La mensa aziendale apre alle 12.", 0.45),
+                doc("codice", "Il modulo XR-2040 si richiede allo sportello dell'ufficio tecnico.", 0.42));
+
+        List<Document> selected = reranker.rerank("Dove richiedo il modulo XR-2040?", ranked, 2);
+
+        assertThat(selected).extracting(Document::getId).containsExactly("codice");
+        assertThat(reranker.stats()).containsEntry("candidates", 4L).containsEntry("dropped", 3L);
+    }
+
+    @Test
+    void keepsOnlyChunksAboveTheMinimumScore() {
+        List<Document> ranked = List.of(
+                doc("parcheggio", "Il parcheggio dell'ufficio è riservato ai dipendenti.", 0.62),
+                doc("mensa", "La mensa aziendale apre alle 12.", 0.70));
+
+        assertThat(reranker.rerank("A che ora apre la mensa?", ranked, 4))
+                .extracting(Document::getId)
+                .containsExactly("mensa");
+
+        // Nessun candidato abbastanza simile: meglio un contesto vuoto che chunk a caso
+        List<Document> weak = List.of(
+                doc("parcheggio", "Il parcheggio dell'ufficio è riservato ai dipendenti.", 0.45),
+                doc("mensa", "La mensa aziendale apre alle 12.", 0.40));
+        assertThat(reranker.rerank("orari della piscina comunale", weak, 4)).isEmpty();
+    }
+
+    // distance = null → risultato del solo BM25
+    private static Document doc(String id, String text, Double similarity) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source", id + ".pdf");
+        if (similarity != null) {
+            metadata.put("distance", 1 - similarity);
+        }
+        return Document.builder().id(id).text(text).metadata(metadata).build();
+    }
+}
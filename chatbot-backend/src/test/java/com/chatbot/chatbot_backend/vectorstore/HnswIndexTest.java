@@ -0,0 +1,167 @@
+package com.chatbot.chatbot_backend.vectorstore;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 128;
+    private static final int SIZE = 2000;
+    private static final int K = 10;
+    private static final int EF_SEARCH = 50;
+
+    private final SplittableRandom random = new SplittableRandom(7);
+    private final float[][] centroids = centroids();
+    private final float[][] vectors = vectors(SIZE);
+
+    @Test
+    void recallAgainstExactScan() {
+        List<float[]> queries = List.of(vectors(40));
+        for (Quantization quantization : Quantization.values()) {
+            HnswIndex index = build(quantization);
+            double recall = 0;
+            for (float[] query : queries) {
+                Set<Integer> expected = new HashSet<>(exact(query, K, node -> true));
+                recall += index.search(query, K, EF_SEARCH, 10, node -> true).stream()
+                        .filter(neighbor -> expected.contains(neighbor.node()))
+                        .count() / (double) K;
+            }
+            recall /= queries.size();
+            // BINARY: un bit per dimensione, il rescoring recupera solo ciò che entra nei candidati
+            assertThat(recall).as("recall@%d %s", K, quantization)
+                    .isGreaterThanOrEqualTo(quantization == Quantization.BINARY ? 0.7 : 0.95);
+        }
+    }
+
+    @Test
+    void filteredTopKMatchesFilteredExactScan() {
+        HnswIndex index = build(Quantization.NONE);
+        IntPredicate rare = node -> node % 97 == 0;           // ~20 nodi su 2000
+        float[] query = vectors(1)[0];
+
+        List<HnswIndex.Neighbor> found = index.search(query, K, EF_SEARCH, 1, rare);
+
+        assertThat(found).extracting(HnswIndex.Neighbor::node).containsExactlyElementsOf(exact(query, K, rare));
+        assertThat(found).isSortedAccordingTo(Comparator.comparingDouble(HnswIndex.Neighbor::similarity).reversed());
+
+        // Candidati noti (i nodi di una sorgente): scansione dei soli candidati, stesso risultato
+        int[] candidates = IntStream.range(0, SIZE).filter(rare).toArray();
+        assertThat(index.search(query, K, EF_SEARCH, 1, rare, candidates)).isEqualTo(found);
+    }
+
+    @Test
+    void tombstonedNodesNeverComeBack() {
+        HnswIndex index = build(Quantization.INT8);
+        float[] query = vectors[0];
+        List<Integer> before = exact(query, K, node -> true);
+        before.forEach(index::markDeleted);
+        index.markDeleted(before.get(0));                    // due volte: conta una
+
+        List<HnswIndex.Neighbor> after = index.search(query, K, EF_SEARCH, 4, node -> true);
+
+        assertThat(after).hasSize(K).extracting(HnswIndex.Neighbor::node).doesNotContainAnyElementsOf(before);
+        assertThat(index.liveCount()).isEqualTo(SIZE - K);
+        assertThat(index.size()).isEqualTo(SIZE);
+    }
+
+    @Test
+    void quantizedIndexReadsFloatsBackFromTheMappedFile() {
+        for (Quantization quantization : List.of(Quantization.INT8, Quantization.BINARY)) {
+            try (HnswIndex index = build(quantization)) {
+                for (int node = 0; node < SIZE; node += 97) {
+                    assertThat(index.vector(node)).as("%s nodo %d", quantization, node).containsExactly(vectors[node]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void snapshotRoundTripKeepsGraphAndTombstones() throws IOException {
+        HnswIndex index = build(Quantization.INT8);
+        for (int node = 0; node < SIZE; node += 10) {
+            index.markDeleted(node);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            index.write(out);
+        }
+
+        HnswIndex restored;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            restored = HnswIndex.read(in, 42L, Quantization.INT8);
+        }
+
+        assertThat(restored.size()).isEqualTo(index.size());
+        assertThat(restored.liveCount()).isEqualTo(index.liveCount());
+        assertThat(restored.isDeleted(10)).isTrue();
+        for (float[] query : vectors(10)) {
+            assertThat(restored.search(query, K, EF_SEARCH, 4, node -> true))
+                    .isEqualTo(index.search(query, K, EF_SEARCH, 4, node -> true));
+        }
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private HnswIndex build(Quantization quantization) {
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 100, 42L, quantization);
+        for (float[] vector : vectors) {
+            index.insert(vector);
+        }
+        return index;
+    }
+
+    private List<Integer> exact(float[] query, int k, IntPredicate accept) {
+        List<Integer> nodes = new ArrayList<>();
+        for (int node = 0; node < vectors.length; node++) {
+            if (accept.test(node)) {
+                nodes.add(node);
+            }
+        }
+        nodes.sort(Comparator.comparingDouble((Integer node) -> VectorKernels.dot(query, vectors[node])).reversed());
+        return nodes.subList(0, Math.min(k, nodes.size()));
+    }
+
+    private float[][] centroids() {
+        float[][] result = new float[20][DIMENSIONS];
+        for (float[] centroid : result) {
+            for (int j = 0; j < DIMENSIONS; j++) {
+                centroid[j] = (float) (random.nextDouble() * 2 - 1);
+            }
+        }
+        return result;
+    }
+
+    // Punti rumorosi attorno a centroidi casuali, normalizzati come in HnswVectorStore
+    private float[][] vectors(int count) {
+        float[][] result = new float[count][];
+        for (int i = 0; i < count; i++) {
+            float[] centroid = centroids[random.nextInt(centroids.length)];
+            float[] vector = new float[DIMENSIONS];
+            double norm = 0;
+            for (int j = 0; j < DIMENSIONS; j++) {
+                vector[j] = centroid[j] + (float) (0.5 * (random.nextDouble() * 2 - 1));
+                norm += vector[j] * vector[j];
+            }
+            for (int j = 0; j < DIMENSIONS; j++) {
+                vector[j] /= (float) Math.sqrt(norm);
+            }
+            result[i] = vector;
+        }
+        return result;
+    }
+}
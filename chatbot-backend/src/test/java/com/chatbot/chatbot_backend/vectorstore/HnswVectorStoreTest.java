@@ -0,0 +1,162 @@
+package com.chatbot.chatbot_backend.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswVectorStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final EmbeddingModel embeddingModel = new KeywordEmbeddingModel();
+
+    @Test
+    void upsertReplacesTheOldVersionAndDeleteRemovesIt() throws IOException {
+        try (HnswVectorStore store = store(Quantization.NONE)) {
+            store.add(List.of(
+                    doc("a", "mele rosse", "frutta.txt"),
+                    doc("b", "pere verdi", "frutta.txt"),
+                    doc("c", "mele cotte", "ricette.txt")));
+
+            store.add(List.of(doc("a", "pere mature", "frutta.txt")));   // stesso id, nuovo testo
+            assertThat(store.size()).isEqualTo(3);
+            assertThat(search(store, "mele", null)).extracting(Document::getId).containsExactly("c");
+            assertThat(search(store, "pere", null)).extracting(Document::getId).containsExactlyInAnyOrder("a", "b");
+
+            store.delete(List.of("b"));
+            assertThat(store.size()).isEqualTo(2);
+            assertThat(search(store, "pere", null)).extracting(Document::getText).containsExactly("pere mature");
+        }
+    }
+
+    @Test
+    void filteredSearchOnlyReturnsMatchingDocuments() throws IOException {
+        try (HnswVectorStore store = store(Quantization.INT8)) {
+            // 200 vettori identici (stesso testo in più file): i nodi successivi restano
+            // fuori dal grafo, il filtro per sorgente li trova scandendo i nodi di raro.txt
+            List<Document> documents = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                documents.add(doc("d" + i, "mele " + i, i % 50 == 0 ? "raro.txt" : "comune.txt"));
+            }
+            store.add(documents);
+
+            List<Document> found = search(store, "mele", "source == 'raro.txt'");
+
+            assertThat(found).extracting(Document::getId).containsExactlyInAnyOrder("d0", "d50", "d100", "d150");
+            assertThat(found).allSatisfy(document -> assertThat(document.getMetadata()).containsEntry("source", "raro.txt"));
+        }
+    }
+
+    @Test
+    void tombstonesAreReclaimedOnceTheyOutnumberLiveNodes() throws IOException {
+        try (HnswVectorStore store = store(Quantization.INT8)) {
+            List<Document> apples = new ArrayList<>();
+            List<Document> pears = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                apples.add(doc("d" + i, "mele " + i, "frutta.txt"));
+                pears.add(doc("d" + i, "pere " + i, i < 5 ? "frutta.txt" : "verdura.txt"));
+            }
+            store.add(apples);
+            store.add(pears);                // all'ultimo upsert le tombstone superano metà grafo
+
+            assertThat(store.size()).isEqualTo(10);
+            assertThat(store.nodeCount()).isEqualTo(10);
+            assertThat(search(store, "mele", null)).isEmpty();
+            assertThat(search(store, "pere", "source == 'verdura.txt'")).extracting(Document::getId)
+                    .containsExactlyInAnyOrder("d5", "d6", "d7", "d8", "d9");
+
+            store.delete(List.of("d0", "d1", "d2", "d5", "d6", "d7"));
+            assertThat(store.nodeCount()).isEqualTo(4);
+            assertThat(search(store, "pere", "source == 'frutta.txt'")).extracting(Document::getId)
+                    .containsExactlyInAnyOrder("d3", "d4");
+        }
+
+        try (HnswVectorStore reopened = store(Quantization.NONE)) {
+            assertThat(reopened.nodeCount()).isEqualTo(4);
+            assertThat(search(reopened, "pere", "source == 'verdura.txt'")).extracting(Document::getId)
+                    .containsExactlyInAnyOrder("d8", "d9");
+        }
+    }
+
+    @Test
+    void snapshotSurvivesARestart() throws IOException {
+        try (HnswVectorStore store = store(Quantization.NONE)) {
+            store.add(List.of(doc("a", "mele", "frutta.txt"), doc("b", "pere", "frutta.txt")));
+            store.delete(List.of("a"));
+        }
+
+        try (HnswVectorStore reopened = store(Quantization.INT8)) {  // quantizzazione diversa: nessun reindex
+            assertThat(reopened.size()).isEqualTo(1);
+            assertThat(search(reopened, "mele", null)).isEmpty();
+            assertThat(search(reopened, "pere", null)).singleElement().satisfies(document -> {
+                assertThat(document.getId()).isEqualTo("b");
+                assertThat(document.getMetadata()).containsEntry("source", "frutta.txt");
+            });
+        }
+    }
+
+    // ── Helper ───────────────────────────────────────────────────────────────
+
+    private HnswVectorStore store(Quantization quantization) throws IOException {
+        return new HnswVectorStore(embeddingModel, dir.resolve("hnsw.bin"), 16, 100, 50,
+                Duration.ofHours(1), quantization, 4);
+    }
+
+    private static List<Document> search(HnswVectorStore store, String query, String filter) {
+        SearchRequest.Builder request = SearchRequest.builder().query(query).topK(10).similarityThreshold(0.9);
+        if (filter != null) {
+            request.filterExpression(filter);
+        }
+        return store.similaritySearch(request.build());
+    }
+
+    private static Document doc(String id, String text, String source) {
+        return Document.builder().id(id).text(text).metadata(Map.of("source", source)).build();
+    }
+
+    // Un asse per parola chiave: stessi termini → stessa direzione, termini diversi → ortogonali
+    private static final class KeywordEmbeddingModel implements EmbeddingModel {
+
+        private static final List<String> KEYWORDS = List.of("mele", "pere");
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(vector(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        private static float[] vector(String text) {
+            float[] vector = new float[KEYWORDS.size() + 1];
+            for (int i = 0; i < KEYWORDS.size(); i++) {
+                if (text.contains(KEYWORDS.get(i))) {
+                    vector[i] = 1;
+                }
+            }
+            vector[KEYWORDS.size()] = 0.01f;
+            return vector;
+        }
+    }
+}